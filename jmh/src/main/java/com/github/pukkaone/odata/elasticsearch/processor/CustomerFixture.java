@@ -0,0 +1,109 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.pukkaone.odata.elasticsearch.provider.ElasticsearchEdmProvider;
+import com.github.pukkaone.odata.elasticsearch.provider.Index;
+import com.github.pukkaone.odata.elasticsearch.provider.IndexToCsdlSchemaMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ServiceMetadata;
+import org.elasticsearch.cluster.metadata.MappingMetadata;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Loads the customer index mapping and documents the integration test indexes.
+ */
+public final class CustomerFixture {
+
+  static final String INDEX_NAME = "customer";
+  static final String[] SOURCE_RESOURCES = {
+      "entity1-source.json",
+      "entity2-source.json",
+      "entity3-source.json",
+  };
+
+  private static final String RESOURCE_DIRECTORY = "/com/github/pukkaone/odata/elasticsearch/";
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  // Private constructor disallows creating instances of this class.
+  private CustomerFixture() {
+  }
+
+  /**
+   * Output stream which discards the bytes written to it, and counts them so the benchmark result
+   * depends on the output.
+   */
+  static class DiscardingOutputStream extends OutputStream {
+
+    private long count;
+
+    @Override
+    public void write(int b) {
+      ++count;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+
+    long getCount() {
+      return count;
+    }
+  }
+
+  /**
+   * Reads resource from the fixture directory.
+   *
+   * @param name
+   *     resource name
+   * @return resource content
+   * @throws IOException
+   *     if read failed
+   */
+  public static byte[] readResource(String name) throws IOException {
+    try (InputStream input = CustomerFixture.class.getResourceAsStream(RESOURCE_DIRECTORY + name)) {
+      if (input == null) {
+        throw new IllegalArgumentException("Resource not found: " + name);
+      }
+
+      return StreamUtils.copyToByteArray(input);
+    }
+  }
+
+  /**
+   * Reads customer index mapping.
+   *
+   * @return index description
+   * @throws IOException
+   *     if read failed
+   */
+  public static Index readIndex() throws IOException {
+    Map<String, Object> settingsAndMappings = OBJECT_MAPPER.readValue(
+        readResource("mappings.json"), new TypeReference<Map<String, Object>>() { });
+    @SuppressWarnings("unchecked")
+    Map<String, Object> mappings = (Map<String, Object>) settingsAndMappings.get("mappings");
+    return new Index(INDEX_NAME, new MappingMetadata("_doc", mappings));
+  }
+
+  /**
+   * Builds Entity Data Model from customer index mapping.
+   *
+   * @param odata
+   *     OData instance
+   * @return service metadata
+   * @throws IOException
+   *     if read failed
+   */
+  public static ServiceMetadata createServiceMetadata(OData odata) throws IOException {
+    Index index = readIndex();
+    return odata.createServiceMetadata(
+        new ElasticsearchEdmProvider(index, new IndexToCsdlSchemaMapper().toSchema(index)),
+        Collections.emptyList());
+  }
+}
@@ -0,0 +1,97 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.server.api.OData;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures converting a search hit to an entity, including parsing the document source.
+ * {@link PropertyConversionBenchmark} measures the conversion without parsing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+public class EntityConversionBenchmark {
+
+  private static final Set<String> SELECTED_PROPERTY_NAMES =
+      new HashSet<>(Arrays.asList("integerProperty", "keywordProperty"));
+
+  @Param({
+      "entity1-source.json",
+      "entity2-source.json",
+  })
+  public String sourceResource;
+
+  private EdmEntitySet entitySet;
+  private StructuredTypeConverter converter;
+  private BytesReference source;
+
+  /**
+   * Builds Entity Data Model and reads document source.
+   *
+   * @throws Exception
+   *     if read failed
+   */
+  @Setup
+  public void setUp() throws Exception {
+    entitySet = CustomerFixture.createServiceMetadata(OData.newInstance())
+        .getEdm()
+        .getEntityContainer()
+        .getEntitySet(CustomerFixture.INDEX_NAME);
+    converter = StructuredTypeConverter.of(entitySet.getEntityType());
+    source = new BytesArray(CustomerFixture.readResource(sourceResource));
+  }
+
+  private SearchHit createSearchHit() {
+    // A search hit caches the parsed source, so each invocation needs a new one.
+    SearchHit hit = new SearchHit(0, "entityId1", null, Collections.emptyMap(),
+        Collections.emptyMap());
+    hit.sourceRef(source);
+    hit.setSeqNo(1);
+    hit.setPrimaryTerm(1);
+    return hit;
+  }
+
+  /**
+   * Converts all properties.
+   *
+   * @return entity
+   */
+  @Benchmark
+  public Entity toEntity() {
+    return EntityRepository.toEntity(entitySet, converter, createSearchHit(), null);
+  }
+
+  /**
+   * Converts selected properties.
+   *
+   * @return entity
+   */
+  @Benchmark
+  public Entity toEntitySelected() {
+    return EntityRepository.toEntity(
+        entitySet, converter, createSearchHit(), SELECTED_PROPERTY_NAMES);
+  }
+}
@@ -0,0 +1,73 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import com.github.pukkaone.odata.elasticsearch.autoconfigure.ODataElasticsearchProperties;
+import java.util.concurrent.TimeUnit;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ServiceMetadata;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.api.uri.queryoption.expression.Expression;
+import org.apache.olingo.server.core.uri.parser.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures translating a filter expression to an Elasticsearch query.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+public class ExpressionVisitorBenchmark {
+
+  @Param({
+      "integerProperty eq 20",
+      "integerProperty gt 5 and integerProperty lt 35 and keywordProperty ne 'a'",
+      "contains(textProperty,'delta') or objectProperty/objectTextProperty eq 'c'",
+      "integerProperty in (10, 20, 30) and not (booleanProperty eq true)",
+      "dateProperty ge 2017-01-01T00:00:00Z and localDateProperty le 2017-12-31",
+  })
+  public String filter;
+
+  private int maxTerms;
+  private Expression expression;
+
+  /**
+   * Parses the filter expression.
+   *
+   * @throws Exception
+   *     if parse failed
+   */
+  @Setup
+  public void setUp() throws Exception {
+    maxTerms = new ODataElasticsearchProperties().getFilter().getMaxTerms();
+
+    OData odata = OData.newInstance();
+    ServiceMetadata serviceMetadata = CustomerFixture.createServiceMetadata(odata);
+    UriInfo uriInfo = new Parser(serviceMetadata.getEdm(), odata).parseUri(
+        CustomerFixture.INDEX_NAME, "$filter=" + filter.replace(" ", "%20"), null, null);
+    expression = uriInfo.getFilterOption().getExpression();
+  }
+
+  /**
+   * Translates filter expression.
+   *
+   * @return Elasticsearch query
+   * @throws Exception
+   *     if translate failed
+   */
+  @Benchmark
+  public Object translate() throws Exception {
+    return expression.accept(new ElasticsearchExpressionVisitor(maxTerms));
+  }
+}
@@ -0,0 +1,183 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import com.github.pukkaone.odata.elasticsearch.provider.ElasticsearchDateFormat;
+import com.github.pukkaone.odata.elasticsearch.provider.ElasticsearchFieldMapping;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.olingo.commons.api.data.ComplexValue;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.EdmComplexType;
+import org.apache.olingo.commons.api.edm.EdmElement;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeException;
+import org.apache.olingo.commons.api.edm.EdmProperty;
+import org.apache.olingo.commons.api.edm.EdmStructuredType;
+import org.apache.olingo.commons.api.edm.constants.EdmTypeKind;
+import org.apache.olingo.commons.api.edm.geo.Geospatial;
+import org.apache.olingo.commons.api.edm.geo.Point;
+import org.apache.olingo.commons.core.edm.primitivetype.EdmBinary;
+import org.apache.olingo.commons.core.edm.primitivetype.EdmDate;
+import org.apache.olingo.commons.core.edm.primitivetype.EdmDateTimeOffset;
+import org.apache.olingo.commons.core.edm.primitivetype.EdmGeographyPoint;
+
+/**
+ * Converts document source to properties the way EntityRepository did before
+ * {@link StructuredTypeConverter} existed: for each value it looks up the property description,
+ * switches on the type kind and tests the primitive type. The values are converted the same way
+ * as {@link StructuredTypeConverter} converts them, so a benchmark comparing the two measures only
+ * the cost of examining the property types for every document.
+ */
+final class PerPropertyDispatch {
+
+  private static final ElasticsearchDateFormat DEFAULT_DATE_FORMAT =
+      ElasticsearchDateFormat.of(null);
+
+  // Private constructor disallows creating instances of this class.
+  private PerPropertyDispatch() {
+  }
+
+  private static ComplexValue toComplexValue(
+      EdmComplexType complexType, Map<String, Object> source) {
+
+    if (source == null) {
+      return null;
+    }
+
+    ComplexValue complexValue = new ComplexValue();
+    addProperties(complexType, source, null, complexValue.getValue());
+    return complexValue;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<ComplexValue> toCollection(EdmComplexType complexType, Object source) {
+    if (source == null) {
+      return null;
+    }
+
+    if (source instanceof List) {
+      return ((List<Map<String, Object>>) source).stream()
+          .map(element -> toComplexValue(complexType, element))
+          .collect(Collectors.toList());
+    }
+
+    return Collections.singletonList(toComplexValue(complexType, (Map<String, Object>) source));
+  }
+
+  private static byte[] toByteArray(String sourceValue) {
+    try {
+      return EdmBinary.getInstance().valueOfString(
+          sourceValue,
+          true,
+          null,
+          null,
+          null,
+          null,
+          byte[].class);
+    } catch (EdmPrimitiveTypeException e) {
+      throw new IllegalStateException("Cannot convert to EdmBinary", e);
+    }
+  }
+
+  private static ElasticsearchDateFormat toDateFormat(EdmProperty description) {
+    if (description.getMapping() instanceof ElasticsearchFieldMapping) {
+      ElasticsearchDateFormat dateFormat =
+          ((ElasticsearchFieldMapping) description.getMapping()).getDateFormat();
+      if (dateFormat != null) {
+        return dateFormat;
+      }
+    }
+
+    return DEFAULT_DATE_FORMAT;
+  }
+
+  private static Point toPoint(Map<String, Double> sourcePoint) {
+    if (sourcePoint == null) {
+      return null;
+    }
+
+    Point point = new Point(Geospatial.Dimension.GEOGRAPHY, null);
+    point.setY(sourcePoint.get("lat"));
+    point.setX(sourcePoint.get("lon"));
+    return point;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Property toProperty(
+      String propertyName, Object sourceValue, EdmProperty description) {
+
+    ValueType valueType;
+    Object value;
+    EdmTypeKind kind = description.getType().getKind();
+    switch (kind) {
+      case COMPLEX:
+        if (description.isCollection()) {
+          valueType = ValueType.COLLECTION_COMPLEX;
+          value = toCollection(
+              (EdmComplexType) description.getType(), sourceValue);
+        } else if (sourceValue instanceof List) {
+          valueType = ValueType.COMPLEX;
+          List<Map<String, Object>> list = (List<Map<String, Object>>) sourceValue;
+          value = list.isEmpty()
+              ? null
+              : toComplexValue((EdmComplexType) description.getType(), list.get(0));
+        } else {
+          valueType = ValueType.COMPLEX;
+          value = toComplexValue(
+              (EdmComplexType) description.getType(), (Map<String, Object>) sourceValue);
+        }
+        break;
+      case PRIMITIVE:
+        valueType = ValueType.PRIMITIVE;
+        if (description.getType() instanceof EdmBinary) {
+          value = toByteArray((String) sourceValue);
+        } else if (description.getType() instanceof EdmDate) {
+          value = toDateFormat(description).toLocalDate(sourceValue);
+        } else if (description.getType() instanceof EdmDateTimeOffset) {
+          value = toDateFormat(description).toInstant(sourceValue);
+        } else if (description.getType() instanceof EdmGeographyPoint) {
+          value = toPoint((Map<String, Double>) sourceValue);
+        } else {
+          value = sourceValue;
+        }
+        break;
+      default:
+        throw new UnsupportedOperationException("Cannot convert from EdmTypeKind " + kind);
+    }
+
+    return new Property(null, propertyName, valueType, value);
+  }
+
+  /**
+   * Converts document source to properties.
+   *
+   * @param structuredType
+   *     structured type to convert to
+   * @param source
+   *     document source
+   * @param selectedPropertyNames
+   *     names of properties to convert, or null to convert all properties
+   * @param properties
+   *     list to add converted properties to
+   */
+  static void addProperties(
+      EdmStructuredType structuredType,
+      Map<String, Object> source,
+      Set<String> selectedPropertyNames,
+      List<Property> properties) {
+
+    for (String propertyName : structuredType.getPropertyNames()) {
+      if (selectedPropertyNames != null && !selectedPropertyNames.contains(propertyName)) {
+        continue;
+      }
+
+      Object sourceValue = source.get(propertyName);
+      EdmElement description = structuredType.getProperty(propertyName);
+      if (description instanceof EdmProperty) {
+        properties.add(toProperty(propertyName, sourceValue, (EdmProperty) description));
+      }
+    }
+  }
+}
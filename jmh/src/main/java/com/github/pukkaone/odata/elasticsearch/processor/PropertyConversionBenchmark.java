@@ -0,0 +1,120 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.edm.EdmEntityType;
+import org.apache.olingo.server.api.OData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures converting parsed document source to properties, by the converter built once per
+ * structured type, and by examining the property types for every document. The source is parsed
+ * once before the measurement, so parsing does not hide the difference.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(3)
+@Measurement(iterations = 10, time = 1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 10, time = 1)
+public class PropertyConversionBenchmark {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final Set<String> SELECTED_PROPERTY_NAMES =
+      new HashSet<>(Arrays.asList("integerProperty", "keywordProperty"));
+
+  @Param({
+      "entity1-source.json",
+      "entity2-source.json",
+  })
+  public String sourceResource;
+
+  private EdmEntityType entityType;
+  private StructuredTypeConverter converter;
+  private Map<String, Object> source;
+
+  /**
+   * Builds Entity Data Model and converter, and parses document source.
+   *
+   * @throws Exception
+   *     if read failed
+   */
+  @Setup
+  public void setUp() throws Exception {
+    entityType = CustomerFixture.createServiceMetadata(OData.newInstance())
+        .getEdm()
+        .getEntityContainer()
+        .getEntitySet(CustomerFixture.INDEX_NAME)
+        .getEntityType();
+    converter = StructuredTypeConverter.of(entityType);
+    source = OBJECT_MAPPER.readValue(
+        CustomerFixture.readResource(sourceResource),
+        new TypeReference<Map<String, Object>>() { });
+  }
+
+  /**
+   * Converts all properties by the converter built once per structured type.
+   *
+   * @return properties
+   */
+  @Benchmark
+  public List<Property> converter() {
+    List<Property> properties = new ArrayList<>();
+    converter.addProperties(source, null, properties);
+    return properties;
+  }
+
+  /**
+   * Converts selected properties by the converter built once per structured type.
+   *
+   * @return properties
+   */
+  @Benchmark
+  public List<Property> converterSelected() {
+    List<Property> properties = new ArrayList<>();
+    converter.addProperties(source, SELECTED_PROPERTY_NAMES, properties);
+    return properties;
+  }
+
+  /**
+   * Converts all properties, examining the property types for every document.
+   *
+   * @return properties
+   */
+  @Benchmark
+  public List<Property> perPropertyDispatch() {
+    List<Property> properties = new ArrayList<>();
+    PerPropertyDispatch.addProperties(entityType, source, null, properties);
+    return properties;
+  }
+
+  /**
+   * Converts selected properties, examining the property types for every document.
+   *
+   * @return properties
+   */
+  @Benchmark
+  public List<Property> perPropertyDispatchSelected() {
+    List<Property> properties = new ArrayList<>();
+    PerPropertyDispatch.addProperties(entityType, source, SELECTED_PROPERTY_NAMES, properties);
+    return properties;
+  }
+}
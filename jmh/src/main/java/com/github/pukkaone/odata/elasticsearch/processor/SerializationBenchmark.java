@@ -0,0 +1,238 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.olingo.commons.api.data.ContextURL;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.EntityIterator;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ServiceMetadata;
+import org.apache.olingo.server.api.serializer.EntityCollectionSerializerOptions;
+import org.apache.olingo.server.api.serializer.ODataSerializer;
+import org.apache.olingo.server.core.serializer.utils.ContextURLBuilder;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Measures writing a page of entities as an OData JSON response, by serializing converted
+ * entities, and by transcoding the Elasticsearch search response.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+public class SerializationBenchmark {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  @Param({
+      "20",
+      "1000",
+  })
+  public int pageSize;
+
+  private OData odata;
+  private ServiceMetadata serviceMetadata;
+  private EdmEntitySet entitySet;
+  private StructuredTypeConverter converter;
+  private ContextURL contextUrl;
+  private List<byte[]> sources;
+  private EntityCollection entityCollection;
+  private byte[] searchResponse;
+
+  private static String toEntityId(int i) {
+    return "entityId" + i;
+  }
+
+  private List<SearchHit> createSearchHits() {
+    List<SearchHit> searchHits = new ArrayList<>();
+    for (int i = 0; i < pageSize; ++i) {
+      SearchHit hit = new SearchHit(
+          i, toEntityId(i), null, Collections.emptyMap(), Collections.emptyMap());
+      hit.sourceRef(new BytesArray(sources.get(i % sources.size())));
+      hit.setSeqNo(i);
+      hit.setPrimaryTerm(1);
+      searchHits.add(hit);
+    }
+
+    return searchHits;
+  }
+
+  private byte[] createSearchResponse() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (JsonGenerator generator =
+        OBJECT_MAPPER.getFactory().createGenerator(output, JsonEncoding.UTF8)) {
+      generator.writeStartObject();
+      generator.writeNumberField("took", 1);
+      generator.writeBooleanField("timed_out", false);
+      generator.writeObjectFieldStart("hits");
+      generator.writeObjectFieldStart("total");
+      generator.writeNumberField("value", pageSize);
+      generator.writeStringField("relation", "eq");
+      generator.writeEndObject();
+      generator.writeArrayFieldStart("hits");
+      for (int i = 0; i < pageSize; ++i) {
+        generator.writeStartObject();
+        generator.writeStringField("_index", CustomerFixture.INDEX_NAME);
+        generator.writeStringField("_type", "_doc");
+        generator.writeStringField("_id", toEntityId(i));
+        generator.writeNumberField("_seq_no", i);
+        generator.writeNumberField("_primary_term", 1);
+        generator.writeNumberField("_score", 1.0);
+        generator.writeFieldName("_source");
+        generator.writeTree(OBJECT_MAPPER.readValue(
+            sources.get(i % sources.size()), JsonNode.class));
+        generator.writeEndObject();
+      }
+
+      generator.writeEndArray();
+      generator.writeEndObject();
+      generator.writeEndObject();
+    }
+
+    return output.toByteArray();
+  }
+
+  /**
+   * Builds Entity Data Model, converted entities and search response.
+   *
+   * @throws IOException
+   *     if read failed
+   */
+  @Setup
+  public void setUp() throws IOException {
+    odata = OData.newInstance();
+    serviceMetadata = CustomerFixture.createServiceMetadata(odata);
+    entitySet = serviceMetadata.getEdm()
+        .getEntityContainer()
+        .getEntitySet(CustomerFixture.INDEX_NAME);
+    converter = StructuredTypeConverter.of(entitySet.getEntityType());
+    contextUrl = ContextURL.with()
+        .entitySet(entitySet)
+        .build();
+
+    sources = new ArrayList<>();
+    for (String sourceResource : CustomerFixture.SOURCE_RESOURCES) {
+      sources.add(CustomerFixture.readResource(sourceResource));
+    }
+
+    entityCollection = new EntityCollection();
+    for (SearchHit hit : createSearchHits()) {
+      entityCollection.getEntities().add(
+          EntityRepository.toEntity(entitySet, converter, hit, null));
+    }
+
+    searchResponse = createSearchResponse();
+  }
+
+  private EntityCollectionSerializerOptions createOptions() {
+    return EntityCollectionSerializerOptions.with()
+        .id(CustomerFixture.INDEX_NAME)
+        .contextURL(contextUrl)
+        .build();
+  }
+
+  /**
+   * Serializes entities already converted from search hits.
+   *
+   * @return number of bytes written
+   * @throws Exception
+   *     if serialize failed
+   */
+  @Benchmark
+  public long serialize() throws Exception {
+    ODataSerializer serializer = odata.createSerializer(ContentType.APPLICATION_JSON);
+    try (InputStream content = serializer.entityCollection(
+        serviceMetadata, entitySet.getEntityType(), entityCollection, createOptions())
+        .getContent()) {
+      CustomerFixture.DiscardingOutputStream output = new CustomerFixture.DiscardingOutputStream();
+      StreamUtils.copy(content, output);
+      return output.getCount();
+    }
+  }
+
+  /**
+   * Converts each search hit while streaming the response, as the streaming response mode does.
+   *
+   * @return number of bytes written
+   * @throws Exception
+   *     if serialize failed
+   */
+  @Benchmark
+  public long serializeStreamed() throws Exception {
+    // A search hit caches the parsed source, so each invocation needs new ones.
+    Iterator<SearchHit> hitIterator = createSearchHits().iterator();
+    EntityIterator entityIterator = new EntityIterator() {
+      @Override
+      public boolean hasNext() {
+        return hitIterator.hasNext();
+      }
+
+      @Override
+      public Entity next() {
+        return EntityRepository.toEntity(entitySet, converter, hitIterator.next(), null);
+      }
+    };
+
+    ODataSerializer serializer = odata.createSerializer(ContentType.APPLICATION_JSON);
+    CustomerFixture.DiscardingOutputStream output = new CustomerFixture.DiscardingOutputStream();
+    serializer.entityCollectionStreamed(
+        serviceMetadata, entitySet.getEntityType(), entityIterator, createOptions())
+        .getODataContent()
+        .write(output);
+    return output.getCount();
+  }
+
+  /**
+   * Writes the search response directly as OData JSON.
+   *
+   * @return number of bytes written
+   * @throws Exception
+   *     if transcode failed
+   */
+  @Benchmark
+  public long transcode() throws Exception {
+    // Includes the first pass which computes the entity tag.
+    SearchResponseTranscoder transcoder = new SearchResponseTranscoder(
+        searchResponse,
+        ContextURLBuilder.create(contextUrl).toASCIIString(),
+        converter,
+        null,
+        false,
+        Integer.MAX_VALUE,
+        null,
+        (entityId, etag) -> ETags.toEntityVersion(
+            URI.create(CustomerFixture.INDEX_NAME + "('" + entityId + "')"), etag));
+    CustomerFixture.DiscardingOutputStream output = new CustomerFixture.DiscardingOutputStream();
+    transcoder.write(output);
+    return output.getCount();
+  }
+}
@@ -0,0 +1,114 @@
+package com.github.pukkaone.odata.elasticsearch.provider;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.olingo.commons.api.edm.provider.CsdlSchema;
+import org.elasticsearch.cluster.metadata.MappingMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures converting a large Elasticsearch index mapping to CSDL Schema.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+public class SchemaMappingBenchmark {
+
+  private static final String[] FIELD_TYPES = {
+      "keyword",
+      "text",
+      "integer",
+      "long",
+      "double",
+      "boolean",
+      "date",
+      "geo_point",
+  };
+  private static final String[] DATE_FORMATS = {
+      null,
+      "yyyy-MM-dd",
+      "strict_date_optional_time||epoch_millis",
+  };
+  private static final int SUBFIELD_COUNT = 4;
+
+  @Param({
+      "100",
+      "1000",
+  })
+  public int fieldCount;
+
+  private Index index;
+
+  private static Map<String, Object> toField(int i) {
+    Map<String, Object> field = new LinkedHashMap<>();
+    String type = FIELD_TYPES[i % FIELD_TYPES.length];
+    field.put("type", type);
+    if ("date".equals(type)) {
+      String format = DATE_FORMATS[i % DATE_FORMATS.length];
+      if (format != null) {
+        field.put("format", format);
+      }
+    }
+
+    return field;
+  }
+
+  private static Map<String, Object> toProperties(String prefix, int count) {
+    Map<String, Object> properties = new LinkedHashMap<>();
+    for (int i = 0; i < count; ++i) {
+      String name = prefix + i;
+      if (i % 10 == 8) {
+        Map<String, Object> object = new LinkedHashMap<>();
+        object.put("properties", toProperties(name + "_", SUBFIELD_COUNT));
+        properties.put(name, object);
+      } else if (i % 10 == 9) {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("type", "nested");
+        nested.put("properties", toProperties(name + "_", SUBFIELD_COUNT));
+        properties.put(name, nested);
+      } else {
+        properties.put(name, toField(i));
+      }
+    }
+
+    return properties;
+  }
+
+  /**
+   * Generates index mapping.
+   *
+   * @throws IOException
+   *     if mapping cannot be serialized
+   */
+  @Setup
+  public void setUp() throws IOException {
+    Map<String, Object> mappings = new LinkedHashMap<>();
+    mappings.put("properties", toProperties("field", fieldCount));
+    index = new Index("large", new MappingMetadata("_doc", mappings));
+  }
+
+  /**
+   * Converts index mapping to schema.
+   *
+   * @return schema
+   */
+  @Benchmark
+  public CsdlSchema toSchema() {
+    return new IndexToCsdlSchemaMapper().toSchema(index);
+  }
+}
@@ -0,0 +1,66 @@
+package com.github.pukkaone.odata.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures bytes allocated by server threads. Threads of the load test clients and the
+ * Elasticsearch stand-in run in the same JVM, so they are excluded by name.
+ */
+class AllocationMeter {
+
+  private final com.sun.management.ThreadMXBean threadBean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  private Map<Long, Long> threadIdToAllocatedBytesMap;
+
+  AllocationMeter() {
+    threadBean.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  private static boolean isExcluded(ThreadInfo threadInfo) {
+    String threadName = threadInfo.getThreadName();
+    return threadName.startsWith(LoadDriver.THREAD_NAME_PREFIX) ||
+        threadName.startsWith(ElasticsearchStub.THREAD_NAME_PREFIX);
+  }
+
+  private Map<Long, Long> snapshot() {
+    long[] threadIds = threadBean.getAllThreadIds();
+    ThreadInfo[] threadInfos = threadBean.getThreadInfo(threadIds);
+    long[] allocatedBytes = threadBean.getThreadAllocatedBytes(threadIds);
+
+    Map<Long, Long> snapshot = new HashMap<>();
+    for (int i = 0; i < threadIds.length; ++i) {
+      // Thread info is null and allocated bytes negative for threads which already ended.
+      if (threadInfos[i] != null && allocatedBytes[i] >= 0 && !isExcluded(threadInfos[i])) {
+        snapshot.put(threadIds[i], allocatedBytes[i]);
+      }
+    }
+
+    return snapshot;
+  }
+
+  /**
+   * Starts measuring.
+   */
+  void start() {
+    threadIdToAllocatedBytesMap = snapshot();
+  }
+
+  /**
+   * Gets bytes allocated since measuring started. Bytes allocated by threads which ended in the
+   * meantime are not counted.
+   *
+   * @return number of bytes
+   */
+  long stop() {
+    long allocatedBytes = 0;
+    for (Map.Entry<Long, Long> entry : snapshot().entrySet()) {
+      long startBytes = threadIdToAllocatedBytesMap.getOrDefault(entry.getKey(), 0L);
+      allocatedBytes += entry.getValue() - startBytes;
+    }
+
+    return allocatedBytes;
+  }
+}
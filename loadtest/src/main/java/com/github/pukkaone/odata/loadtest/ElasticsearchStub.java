@@ -0,0 +1,274 @@
+package com.github.pukkaone.odata.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Serves recorded Elasticsearch responses over HTTP, so the starter can run without an
+ * Elasticsearch server. It answers the requests the starter sends: alias and mapping lookups,
+ * searches and gets by document ID. Searches and gets are delayed by a configured latency.
+ */
+public class ElasticsearchStub implements Closeable {
+
+  /** Name prefix of threads serving requests, which are excluded from allocation measurements. */
+  static final String THREAD_NAME_PREFIX = "elasticsearch-stub-";
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final String VERSION = "7.12.1";
+  private static final int DEFAULT_SEARCH_SIZE = 10;
+
+  private final String indexName;
+  private final JsonNode mappings;
+  private final List<JsonNode> sources;
+  private final long latencyMillis;
+  private final int hitCount;
+  private final Map<Integer, byte[]> sizeToSearchResponseMap = new ConcurrentHashMap<>();
+  private final ExecutorService executor;
+  private final HttpServer server;
+
+  /**
+   * Starts serving on a free local port.
+   *
+   * @param indexName
+   *     name of the only index
+   * @param mappings
+   *     index mappings
+   * @param sources
+   *     documents, repeated as needed to fill search results
+   * @param latency
+   *     delay before responding to search and get requests
+   * @param hitCount
+   *     number of documents matching every search
+   * @throws IOException
+   *     if server cannot start
+   */
+  public ElasticsearchStub(
+      String indexName,
+      JsonNode mappings,
+      List<JsonNode> sources,
+      Duration latency,
+      int hitCount) throws IOException {
+
+    this.indexName = indexName;
+    this.mappings = mappings;
+    this.sources = sources;
+    this.latencyMillis = latency.toMillis();
+    this.hitCount = hitCount;
+
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(THREAD_NAME_PREFIX);
+    threadFactory.setDaemon(true);
+    this.executor = Executors.newCachedThreadPool(threadFactory);
+
+    this.server = HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    this.server.createContext("/", this::handle);
+    this.server.setExecutor(executor);
+    this.server.start();
+  }
+
+  /**
+   * Gets base URL to configure as the Elasticsearch URI.
+   *
+   * @return base URL
+   */
+  public String getUrl() {
+    InetSocketAddress address = server.getAddress();
+    return "http://" + address.getHostString() + ':' + address.getPort();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      route(exchange);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void route(HttpExchange exchange) throws IOException {
+    // Path is /, /_alias/{alias}, /{index}/_mapping, /{index}/_search or /{index}/_doc/{id}
+    String[] segments = exchange.getRequestURI().getPath().split("/");
+    if (segments.length <= 1) {
+      respond(exchange, 200, info());
+    } else if (segments.length == 3 && "_alias".equals(segments[1])) {
+      // No aliases, so the service name is the index name.
+      respond(exchange, 200, OBJECT_MAPPER.createObjectNode());
+    } else if (!indexName.equals(segments[1])) {
+      respond(exchange, 404, indexNotFound(segments[1]));
+    } else if (segments.length == 3 && "_mapping".equals(segments[2])) {
+      respond(exchange, 200, mapping());
+    } else if (segments.length == 3 && "_search".equals(segments[2])) {
+      JsonNode searchRequest = readBody(exchange);
+      delay();
+      respond(exchange, 200, toSearchResponse(searchRequest));
+    } else if (segments.length == 4 && "_doc".equals(segments[2])) {
+      delay();
+      respond(exchange, 200, toGetResponse(segments[3]));
+    } else {
+      respond(exchange, 400, error(
+          "illegal_argument_exception", "Unsupported request " + exchange.getRequestURI(), 400));
+    }
+  }
+
+  private void delay() {
+    if (latencyMillis <= 0) {
+      return;
+    }
+
+    try {
+      Thread.sleep(latencyMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static JsonNode readBody(HttpExchange exchange) throws IOException {
+    try (InputStream input = exchange.getRequestBody()) {
+      JsonNode body = OBJECT_MAPPER.readTree(input);
+      return (body == null) ? OBJECT_MAPPER.createObjectNode() : body;
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int status, JsonNode body)
+      throws IOException {
+
+    respond(exchange, status, OBJECT_MAPPER.writeValueAsBytes(body));
+  }
+
+  private static void respond(HttpExchange exchange, int status, byte[] body)
+      throws IOException {
+
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream output = exchange.getResponseBody()) {
+      output.write(body);
+    }
+  }
+
+  private static ObjectNode info() {
+    ObjectNode info = OBJECT_MAPPER.createObjectNode();
+    info.put("name", "elasticsearch-stub");
+    info.put("cluster_name", "elasticsearch-stub");
+    info.putObject("version")
+        .put("number", VERSION);
+    info.put("tagline", "You Know, for Search");
+    return info;
+  }
+
+  private static ObjectNode error(String type, String reason, int status) {
+    ObjectNode cause = OBJECT_MAPPER.createObjectNode();
+    cause.put("type", type);
+    cause.put("reason", reason);
+
+    ObjectNode error = OBJECT_MAPPER.createObjectNode();
+    error.putArray("root_cause")
+        .add(cause.deepCopy());
+    error.setAll(cause);
+
+    ObjectNode response = OBJECT_MAPPER.createObjectNode();
+    response.set("error", error);
+    response.put("status", status);
+    return response;
+  }
+
+  private static ObjectNode indexNotFound(String name) {
+    return error("index_not_found_exception", "no such index [" + name + "]", 404);
+  }
+
+  private ObjectNode mapping() {
+    ObjectNode response = OBJECT_MAPPER.createObjectNode();
+    response.putObject(indexName)
+        .set("mappings", mappings);
+    return response;
+  }
+
+  private static String toDocumentId(int i) {
+    return "entityId" + (i + 1);
+  }
+
+  private byte[] toSearchResponse(JsonNode searchRequest) {
+    int size = searchRequest.path("size").asInt(DEFAULT_SEARCH_SIZE);
+    boolean sorted = searchRequest.has("sort");
+
+    // Responses depend only on the page size and sorting, so serialize each variant once.
+    int key = sorted ? -1 - size : size;
+    return sizeToSearchResponseMap.computeIfAbsent(key, k -> {
+      try {
+        return OBJECT_MAPPER.writeValueAsBytes(createSearchResponse(size, sorted));
+      } catch (IOException e) {
+        throw new IllegalStateException("Cannot serialize search response", e);
+      }
+    });
+  }
+
+  private ObjectNode createSearchResponse(int size, boolean sorted) {
+    ObjectNode response = OBJECT_MAPPER.createObjectNode();
+    response.put("took", 1);
+    response.put("timed_out", false);
+    response.putObject("_shards")
+        .put("total", 1)
+        .put("successful", 1)
+        .put("skipped", 0)
+        .put("failed", 0);
+
+    ObjectNode hits = response.putObject("hits");
+    hits.putObject("total")
+        .put("value", hitCount)
+        .put("relation", "eq");
+    hits.putNull("max_score");
+
+    ArrayNode hitArray = hits.putArray("hits");
+    int returnedCount = Math.min(size, hitCount);
+    for (int i = 0; i < returnedCount; ++i) {
+      ObjectNode hit = hitArray.addObject();
+      hit.put("_index", indexName);
+      hit.put("_type", "_doc");
+      hit.put("_id", toDocumentId(i));
+      hit.putNull("_score");
+      hit.put("_seq_no", i);
+      hit.put("_primary_term", 1);
+      hit.set("_source", sources.get(i % sources.size()));
+      if (sorted) {
+        hit.putArray("sort")
+            .add(i);
+      }
+    }
+
+    return response;
+  }
+
+  private ObjectNode toGetResponse(String documentId) {
+    ObjectNode response = OBJECT_MAPPER.createObjectNode();
+    response.put("_index", indexName);
+    response.put("_type", "_doc");
+    response.put("_id", documentId);
+    response.put("_version", 1);
+    response.put("_seq_no", 1);
+    response.put("_primary_term", 1);
+    response.put("found", true);
+    response.set("_source", sources.get(0));
+    return response;
+  }
+}
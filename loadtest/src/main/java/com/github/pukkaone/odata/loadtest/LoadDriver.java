@@ -0,0 +1,157 @@
+package com.github.pukkaone.odata.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Sends a request repeatedly from concurrent clients, each waiting for the response before
+ * sending the next request.
+ */
+@RequiredArgsConstructor
+public class LoadDriver {
+
+  /** Name prefix of client threads, which are excluded from allocation measurements. */
+  static final String THREAD_NAME_PREFIX = "load-client-";
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final int clients;
+
+  /**
+   * Latencies and errors recorded by one client.
+   */
+  private static class Client implements Runnable {
+
+    private final URL url;
+    private final CountDownLatch startSignal;
+    private final long deadlineNanos;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private long[] latencies = new long[BUFFER_SIZE];
+    private int requestCount;
+    private long errorCount;
+
+    Client(URL url, CountDownLatch startSignal, long deadlineNanos) {
+      this.url = url;
+      this.startSignal = startSignal;
+      this.deadlineNanos = deadlineNanos;
+    }
+
+    private boolean send() throws IOException {
+      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+      // Olingo rejects the default Accept header of HttpURLConnection.
+      connection.setRequestProperty("Accept", "*/*");
+      int status = connection.getResponseCode();
+      InputStream content = (status < HttpURLConnection.HTTP_BAD_REQUEST)
+          ? connection.getInputStream() : connection.getErrorStream();
+      if (content != null) {
+        // Read the whole response, so the connection is reused by the next request.
+        try (InputStream input = content) {
+          while (input.read(buffer) >= 0) {
+            // Discard content.
+          }
+        }
+      }
+
+      return status < HttpURLConnection.HTTP_MULT_CHOICE;
+    }
+
+    private void record(long latencyNanos) {
+      if (requestCount == latencies.length) {
+        latencies = Arrays.copyOf(latencies, latencies.length * 2);
+      }
+
+      latencies[requestCount++] = latencyNanos;
+    }
+
+    @Override
+    public void run() {
+      try {
+        startSignal.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+
+      while (System.nanoTime() < deadlineNanos) {
+        long startNanos = System.nanoTime();
+        boolean success;
+        try {
+          success = send();
+        } catch (IOException e) {
+          success = false;
+        }
+
+        record(System.nanoTime() - startNanos);
+        if (!success) {
+          ++errorCount;
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends requests until the duration elapses.
+   *
+   * @param mode
+   *     configuration of the server, recorded in the result
+   * @param scenario
+   *     request to send
+   * @param url
+   *     request URL
+   * @param duration
+   *     how long to send requests
+   * @return measurements
+   * @throws InterruptedException
+   *     if interrupted while waiting for clients to finish
+   */
+  public LoadResult run(ServerMode mode, Scenario scenario, URL url, Duration duration)
+      throws InterruptedException {
+
+    CountDownLatch startSignal = new CountDownLatch(1);
+    long startNanos = System.nanoTime();
+    long deadlineNanos = startNanos + duration.toNanos();
+    List<Client> clientList = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < clients; ++i) {
+      Client client = new Client(url, startSignal, deadlineNanos);
+      clientList.add(client);
+
+      Thread thread = new Thread(client, THREAD_NAME_PREFIX + i);
+      thread.setDaemon(true);
+      thread.start();
+      threads.add(thread);
+    }
+
+    AllocationMeter allocationMeter = new AllocationMeter();
+    allocationMeter.start();
+    startSignal.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    long allocatedBytes = allocationMeter.stop();
+    long elapsedNanos = System.nanoTime() - startNanos;
+
+    long errors = 0;
+    long[] latencies = new long[0];
+    for (Client client : clientList) {
+      errors += client.errorCount;
+
+      int offset = latencies.length;
+      latencies = Arrays.copyOf(latencies, offset + client.requestCount);
+      System.arraycopy(client.latencies, 0, latencies, offset, client.requestCount);
+    }
+
+    return new LoadResult(
+        mode, scenario, clients, errors, elapsedNanos, allocatedBytes, latencies);
+  }
+}
@@ -0,0 +1,173 @@
+package com.github.pukkaone.odata.loadtest;
+
+import java.util.Arrays;
+import java.util.Locale;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * Measurements of a scenario run.
+ */
+@Getter
+public class LoadResult {
+
+  private static final double NANOS_PER_SECOND = 1e9;
+  private static final double NANOS_PER_MILLI = 1e6;
+  private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+  /** Heading of the columns {@link #toString()} formats. */
+  public static final String HEADING = String.format(
+      Locale.ROOT,
+      "%-12s %-12s %8s %7s %12s %9s %9s %12s %11s",
+      "mode",
+      "scenario",
+      "requests",
+      "errors",
+      "requests/s",
+      "p50 ms",
+      "p99 ms",
+      "alloc MB/s",
+      "alloc KB/req");
+
+  /** Heading of the columns {@link #toCsv()} formats. */
+  public static final String CSV_HEADING = "mode,scenario,clients,requests,errors,"
+      + "throughput_per_second,p50_millis,p99_millis,allocation_mb_per_second,"
+      + "allocation_kb_per_request";
+
+  private final ServerMode mode;
+  private final Scenario scenario;
+  private final int clients;
+  private final long errors;
+  private final long elapsedNanos;
+  private final long allocatedBytes;
+
+  /** Latencies in nanoseconds, sorted. */
+  @Getter(AccessLevel.NONE)
+  private final long[] latencies;
+
+  /**
+   * Constructor.
+   *
+   * @param mode
+   *     configuration of the starter
+   * @param scenario
+   *     request sent
+   * @param clients
+   *     number of concurrent clients
+   * @param errors
+   *     number of responses which were not successful
+   * @param elapsedNanos
+   *     measurement duration
+   * @param allocatedBytes
+   *     bytes allocated by server threads
+   * @param latencies
+   *     latency of each request in nanoseconds
+   */
+  public LoadResult(
+      ServerMode mode,
+      Scenario scenario,
+      int clients,
+      long errors,
+      long elapsedNanos,
+      long allocatedBytes,
+      long[] latencies) {
+
+    this.mode = mode;
+    this.scenario = scenario;
+    this.clients = clients;
+    this.errors = errors;
+    this.elapsedNanos = elapsedNanos;
+    this.allocatedBytes = allocatedBytes;
+    this.latencies = latencies.clone();
+    Arrays.sort(this.latencies);
+  }
+
+  /**
+   * Gets number of requests completed.
+   *
+   * @return number of requests
+   */
+  public int getRequests() {
+    return latencies.length;
+  }
+
+  /**
+   * Gets completed requests per second.
+   *
+   * @return throughput
+   */
+  public double getThroughput() {
+    return latencies.length * NANOS_PER_SECOND / elapsedNanos;
+  }
+
+  /**
+   * Gets latency at a percentile, by the nearest rank method.
+   *
+   * @param percentile
+   *     percentile from 0 to 100
+   * @return latency in milliseconds
+   */
+  public double getLatencyMillis(double percentile) {
+    if (latencies.length == 0) {
+      return Double.NaN;
+    }
+
+    int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+    return latencies[Math.max(rank, 1) - 1] / NANOS_PER_MILLI;
+  }
+
+  /**
+   * Gets megabytes allocated by server threads per second.
+   *
+   * @return allocation rate
+   */
+  public double getAllocationRate() {
+    return allocatedBytes / BYTES_PER_MEGABYTE * NANOS_PER_SECOND / elapsedNanos;
+  }
+
+  /**
+   * Gets kilobytes allocated by server threads per request.
+   *
+   * @return allocation per request
+   */
+  public double getAllocationPerRequest() {
+    return (latencies.length == 0) ? Double.NaN : allocatedBytes / 1024.0 / latencies.length;
+  }
+
+  /**
+   * Formats as a row of comma separated values, in the columns of {@link #CSV_HEADING}.
+   *
+   * @return CSV row
+   */
+  public String toCsv() {
+    return String.format(
+        Locale.ROOT,
+        "%s,%s,%d,%d,%d,%.1f,%.3f,%.3f,%.1f,%.1f",
+        mode,
+        scenario,
+        clients,
+        getRequests(),
+        errors,
+        getThroughput(),
+        getLatencyMillis(50),
+        getLatencyMillis(99),
+        getAllocationRate(),
+        getAllocationPerRequest());
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.ROOT,
+        "%-12s %-12s %8d %7d %12.1f %9.3f %9.3f %12.1f %11.1f",
+        mode,
+        scenario,
+        getRequests(),
+        errors,
+        getThroughput(),
+        getLatencyMillis(50),
+        getLatencyMillis(99),
+        getAllocationRate(),
+        getAllocationPerRequest());
+  }
+}
@@ -0,0 +1,138 @@
+package com.github.pukkaone.odata.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Starts the starter against an in-process Elasticsearch stand-in, and measures throughput,
+ * latency and allocation rate of each scenario in each server mode.
+ */
+@SpringBootApplication
+public class LoadTestApplication {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final String INDEX_NAME = "customer";
+  private static final String RESOURCE_DIRECTORY = "/com/github/pukkaone/odata/elasticsearch/";
+  private static final String[] SOURCE_RESOURCES = {
+      "entity1-source.json",
+      "entity2-source.json",
+      "entity3-source.json",
+  };
+
+  private static JsonNode readResource(String name) throws IOException {
+    try (InputStream input =
+        LoadTestApplication.class.getResourceAsStream(RESOURCE_DIRECTORY + name)) {
+      if (input == null) {
+        throw new IllegalArgumentException("Resource not found: " + name);
+      }
+
+      return OBJECT_MAPPER.readTree(input);
+    }
+  }
+
+  private static ElasticsearchStub startElasticsearchStub(LoadTestSettings settings)
+      throws IOException {
+
+    List<JsonNode> sources = new ArrayList<>();
+    for (String sourceResource : SOURCE_RESOURCES) {
+      sources.add(readResource(sourceResource));
+    }
+
+    return new ElasticsearchStub(
+        INDEX_NAME,
+        readResource("mappings.json").get("mappings"),
+        sources,
+        settings.getLatency(),
+        settings.getHits());
+  }
+
+  private static ConfigurableApplicationContext startServer(
+      ElasticsearchStub elasticsearchStub, ServerMode mode) {
+
+    Map<String, Object> properties = new HashMap<>(mode.toProperties());
+    properties.put("server.port", 0);
+    properties.put("spring.elasticsearch.rest.uris", elasticsearchStub.getUrl());
+    properties.put("spring.main.banner-mode", "off");
+    properties.put("logging.level.root", "warn");
+    return new SpringApplicationBuilder(LoadTestApplication.class)
+        .properties(properties)
+        .run();
+  }
+
+  private static URL toUrl(ConfigurableApplicationContext context, String path)
+      throws IOException {
+
+    int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+    return new URL("http://localhost:" + port + "/odata/" + INDEX_NAME + path);
+  }
+
+  private static void writeReport(String report, List<LoadResult> results) throws IOException {
+    try (PrintWriter writer = new PrintWriter(
+        Files.newBufferedWriter(Paths.get(report), StandardCharsets.UTF_8))) {
+      writer.println(LoadResult.CSV_HEADING);
+      for (LoadResult result : results) {
+        writer.println(result.toCsv());
+      }
+    }
+  }
+
+  /**
+   * Runs the load test.
+   *
+   * @param args
+   *     ignored, settings are read from system properties
+   * @throws Exception
+   *     if load test failed
+   */
+  public static void main(String[] args) throws Exception {
+    LoadTestSettings settings = new LoadTestSettings();
+
+    // Keep a connection per client alive between requests.
+    System.setProperty("http.maxConnections", String.valueOf(settings.getClients()));
+
+    // Otherwise Nagle's algorithm delays Elasticsearch stand-in responses until delayed ACK.
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+
+    LoadDriver loadDriver = new LoadDriver(settings.getClients());
+    List<LoadResult> results = new ArrayList<>();
+    try (ElasticsearchStub elasticsearchStub = startElasticsearchStub(settings)) {
+      System.out.printf(
+          "%d clients, %s Elasticsearch latency, %d hits%n",
+          settings.getClients(),
+          settings.getLatency(),
+          settings.getHits());
+      System.out.println(LoadResult.HEADING);
+      for (ServerMode mode : settings.getModes()) {
+        try (ConfigurableApplicationContext context = startServer(elasticsearchStub, mode)) {
+          for (Scenario scenario : settings.getScenarios()) {
+            URL url = toUrl(context, scenario.toPath(settings.getHits()));
+            loadDriver.run(mode, scenario, url, settings.getWarmup());
+
+            LoadResult result = loadDriver.run(mode, scenario, url, settings.getDuration());
+            System.out.println(result);
+            results.add(result);
+          }
+        }
+      }
+    }
+
+    if (settings.getReport() != null) {
+      writeReport(settings.getReport(), results);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.github.pukkaone.odata.loadtest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import lombok.Getter;
+
+/**
+ * Load test settings, read from system properties prefixed with {@code loadtest.}.
+ */
+@Getter
+public class LoadTestSettings {
+
+  private static final String PREFIX = "loadtest.";
+
+  /** Number of concurrent clients. */
+  private final int clients = Integer.getInteger(PREFIX + "clients", 16);
+
+  /** Time to send requests before measuring, in seconds. */
+  private final Duration warmup = Duration.ofSeconds(Long.getLong(PREFIX + "warmup", 5));
+
+  /** Time to measure each scenario, in seconds. */
+  private final Duration duration = Duration.ofSeconds(Long.getLong(PREFIX + "duration", 10));
+
+  /** Delay before the Elasticsearch stand-in responds to a search or get, in milliseconds. */
+  private final Duration latency = Duration.ofMillis(Long.getLong(PREFIX + "latency", 5));
+
+  /** Number of entities requested in a page, which is also the number of matching documents. */
+  private final int hits = Integer.getInteger(PREFIX + "hits", 20);
+
+  /** Configurations of the starter under test. */
+  private final List<ServerMode> modes = toEnums(
+      ServerMode.class, System.getProperty(PREFIX + "modes"), ServerMode.values());
+
+  /** Requests sent. */
+  private final List<Scenario> scenarios = toEnums(
+      Scenario.class, System.getProperty(PREFIX + "scenarios"), Scenario.values());
+
+  /** File to write results to as CSV, or null to not write results. */
+  private final String report = System.getProperty(PREFIX + "report");
+
+  private static <E extends Enum<E>> List<E> toEnums(
+      Class<E> enumClass, String commaSeparatedNames, E[] defaultValues) {
+
+    if (commaSeparatedNames == null || commaSeparatedNames.trim().isEmpty()) {
+      return Arrays.asList(defaultValues);
+    }
+
+    List<E> values = new ArrayList<>();
+    for (String name : commaSeparatedNames.split(",")) {
+      values.add(Enum.valueOf(enumClass, name.trim().toUpperCase(Locale.ROOT)));
+    }
+
+    return values;
+  }
+}
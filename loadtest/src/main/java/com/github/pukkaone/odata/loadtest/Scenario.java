@@ -0,0 +1,35 @@
+package com.github.pukkaone.odata.loadtest;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Request sent repeatedly by the load test clients.
+ */
+@RequiredArgsConstructor
+public enum Scenario {
+
+  /** Reads an entity by key. */
+  READ_ENTITY("/customer('entityId1')"),
+
+  /** Reads a page of entities. */
+  READ_PAGE("/customer?$top=%d"),
+
+  /** Reads a page of entities matching a filter. */
+  FILTER_PAGE("/customer?$filter=integerProperty%%20gt%%2010&$top=%d"),
+
+  /** Counts entities. */
+  COUNT("/customer/$count");
+
+  private final String pathFormat;
+
+  /**
+   * Builds request path relative to the service root.
+   *
+   * @param pageSize
+   *     number of entities to request
+   * @return path
+   */
+  public String toPath(int pageSize) {
+    return String.format(pathFormat, pageSize);
+  }
+}
@@ -0,0 +1,37 @@
+package com.github.pukkaone.odata.loadtest;
+
+import java.util.Collections;
+import java.util.Map;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Configuration of the starter under test, which selects how responses are produced.
+ */
+@RequiredArgsConstructor
+public enum ServerMode {
+
+  /** Converts all search hits, then serializes the entity collection. */
+  BUFFERED(null),
+
+  /** Converts each search hit while serializing. */
+  STREAMING("odata.elasticsearch.streaming.enabled"),
+
+  /** Writes the search response directly as OData JSON. */
+  TRANSCODING("odata.elasticsearch.transcoding.enabled"),
+
+  /** Releases the request thread while waiting for Elasticsearch. */
+  ASYNC("odata.elasticsearch.async.enabled");
+
+  private final String enabledPropertyName;
+
+  /**
+   * Gets application properties which select this mode.
+   *
+   * @return property name to value
+   */
+  public Map<String, Object> toProperties() {
+    return (enabledPropertyName == null)
+        ? Collections.emptyMap()
+        : Collections.singletonMap(enabledPropertyName, "true");
+  }
+}
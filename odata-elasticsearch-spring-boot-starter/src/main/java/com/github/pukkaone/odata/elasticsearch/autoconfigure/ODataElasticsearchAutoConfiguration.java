@@ -1,13 +1,17 @@
 package com.github.pukkaone.odata.elasticsearch.autoconfigure;
 
+import com.github.pukkaone.odata.elasticsearch.processor.BulkWriter;
+import com.github.pukkaone.odata.elasticsearch.processor.ElasticsearchBatchProcessor;
 import com.github.pukkaone.odata.elasticsearch.processor.ElasticsearchEntityCollectionProcessor;
 import com.github.pukkaone.odata.elasticsearch.processor.ElasticsearchEntityProcessor;
 import com.github.pukkaone.odata.elasticsearch.processor.EntityRepository;
+import com.github.pukkaone.odata.elasticsearch.processor.QueryPlanCache;
 import com.github.pukkaone.odata.elasticsearch.provider.ElasticsearchEdmProviderResolver;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.springframework.boot.autoconfigure.AutoConfigureAfter;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.elasticsearch.ElasticsearchRestClientAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 
@@ -17,10 +21,14 @@ import org.springframework.context.annotation.Import;
 @AutoConfigureAfter(ElasticsearchRestClientAutoConfiguration.class)
 @ConditionalOnClass(RestHighLevelClient.class)
 @Configuration
+@EnableConfigurationProperties(ODataElasticsearchProperties.class)
 @Import({
+    BulkWriter.class,
+    ElasticsearchBatchProcessor.class,
     ElasticsearchEdmProviderResolver.class,
     ElasticsearchEntityCollectionProcessor.class,
     ElasticsearchEntityProcessor.class,
-    EntityRepository.class })
+    EntityRepository.class,
+    QueryPlanCache.class })
 public class ODataElasticsearchAutoConfiguration {
 }
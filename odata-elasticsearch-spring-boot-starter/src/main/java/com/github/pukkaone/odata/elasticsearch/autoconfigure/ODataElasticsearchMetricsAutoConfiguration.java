@@ -0,0 +1,49 @@
+package com.github.pukkaone.odata.elasticsearch.autoconfigure;
+
+import com.github.pukkaone.odata.elasticsearch.processor.Meters;
+import com.github.pukkaone.odata.elasticsearch.processor.QueryPlanCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.Collections;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Auto-configures query plan cache meters when a Micrometer meter registry exists.
+ */
+@AutoConfigureAfter(
+    value = ODataElasticsearchAutoConfiguration.class,
+    name = {
+        "org.springframework.boot.actuate.autoconfigure.metrics.MetricsAutoConfiguration",
+        "org.springframework.boot.actuate.autoconfigure.metrics."
+            + "CompositeMeterRegistryAutoConfiguration",
+        "org.springframework.boot.actuate.autoconfigure.metrics.export.simple."
+            + "SimpleMetricsExportAutoConfiguration",
+    })
+@ConditionalOnBean({ MeterRegistry.class, QueryPlanCache.class })
+@ConditionalOnClass(MeterRegistry.class)
+@Configuration
+public class ODataElasticsearchMetricsAutoConfiguration {
+
+  /**
+   * Binds hit, miss and eviction meters to the query plan cache.
+   *
+   * @param queryPlanCache
+   *     query plan cache
+   * @param meterRegistry
+   *     registry to add meters to
+   * @return cache meters
+   */
+  @Bean
+  public CaffeineCacheMetrics queryPlanCacheMetrics(
+      QueryPlanCache queryPlanCache, MeterRegistry meterRegistry) {
+
+    CaffeineCacheMetrics cacheMetrics = new CaffeineCacheMetrics(
+        queryPlanCache.getCache(), Meters.QUERY_PLAN_CACHE, Collections.emptyList());
+    cacheMetrics.bindTo(meterRegistry);
+    return cacheMetrics;
+  }
+}
@@ -0,0 +1,234 @@
+package com.github.pukkaone.odata.elasticsearch.autoconfigure;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Configures OData provider implemented by Elasticsearch backend.
+ */
+@ConfigurationProperties(prefix = "odata.elasticsearch")
+@Data
+public class ODataElasticsearchProperties {
+
+  private Schema schema = new Schema();
+  private Streaming streaming = new Streaming();
+  private Transcoding transcoding = new Transcoding();
+  private Paging paging = new Paging();
+  private Count count = new Count();
+  private Async async = new Async();
+  private Filter filter = new Filter();
+  private Apply apply = new Apply();
+  private QueryPlan queryPlan = new QueryPlan();
+  private Write write = new Write();
+  private List<Service> services = new ArrayList<>();
+  private List<Navigation> navigations = new ArrayList<>();
+  private Expand expand = new Expand();
+
+  /**
+   * Configures how Entity Data Models built from Elasticsearch mappings are cached.
+   */
+  @Data
+  public static class Schema {
+
+    /** Maximum number of services to keep Entity Data Models for. */
+    private long cacheSize = 1000;
+
+    /** Evict Entity Data Model not used by a request within this duration. */
+    private Duration expireAfterAccess = Duration.ofHours(1);
+
+    /** Check for mapping changes in the background when entry is older than this duration. */
+    private Duration refreshAfterWrite = Duration.ofMinutes(1);
+
+    /** Remember service name not found in Elasticsearch for this duration. */
+    private Duration negativeTtl = Duration.ofSeconds(10);
+
+    /** Number of threads loading Entity Data Models from Elasticsearch. */
+    private int loaderThreads = 4;
+  }
+
+  /**
+   * Configures writing entity collection to response while converting search hits.
+   */
+  @Data
+  public static class Streaming {
+
+    /** Write entities to response as they are converted instead of buffering whole response. */
+    private boolean enabled;
+
+    /** Number of bytes of serialized entities buffered before writing them to response. */
+    private int flushThreshold = 8192;
+  }
+
+  /**
+   * Configures writing search response directly as OData JSON.
+   */
+  @Data
+  public static class Transcoding {
+
+    /**
+     * Write search hits of JSON responses with minimal metadata directly from the Elasticsearch
+     * response, without converting them to entities.
+     */
+    private boolean enabled;
+  }
+
+  /**
+   * Configures how entity collections are split into pages.
+   */
+  @Data
+  public static class Paging {
+
+    /** Limit response to a page of entities, with a next link to continue to the next page. */
+    private boolean serverDriven;
+
+    /** Maximum number of entities in a page when server-driven paging is enabled. */
+    private int pageSize = 100;
+
+    /** Open a point in time on the first page, so later pages see the same index snapshot. */
+    private boolean pointInTime;
+
+    /** Time to keep point in time alive between page requests. */
+    private Duration pointInTimeKeepAlive = Duration.ofMinutes(1);
+  }
+
+  /**
+   * Configures how entities matching a request are counted.
+   */
+  @Data
+  public static class Count {
+
+    /** Count matching entities accurately up to this number when $count=true is requested. */
+    private int trackTotalHitsUpTo = 10000;
+  }
+
+  /**
+   * Configures releasing the request thread while waiting for Elasticsearch.
+   */
+  @Data
+  public static class Async {
+
+    /** Send requests to Elasticsearch asynchronously and write the response on completion. */
+    private boolean enabled;
+  }
+
+  /**
+   * Configures how filter expressions are translated to Elasticsearch queries.
+   */
+  @Data
+  public static class Filter {
+
+    /** Maximum number of values allowed in an in operator. */
+    private int maxTerms = 1024;
+  }
+
+  /**
+   * Configures how $apply transformations are translated to Elasticsearch aggregations.
+   */
+  @Data
+  public static class Apply {
+
+    /** Maximum number of groups in a page of groupby results. */
+    private int pageSize = 1000;
+  }
+
+  /**
+   * Configures caching of Elasticsearch queries translated from request options.
+   */
+  @Data
+  public static class QueryPlan {
+
+    /** Maximum number of query plans to cache. */
+    private long cacheSize = 1000;
+  }
+
+  /**
+   * When changes written to Elasticsearch become visible to search.
+   */
+  public enum Refresh {
+
+    /** Respond without waiting, and the change becomes visible at the next periodic refresh. */
+    NONE,
+
+    /** Respond after a refresh makes the change visible to search. */
+    WAIT_FOR
+  }
+
+  /**
+   * Configures how entity changes are grouped into Elasticsearch bulk requests.
+   */
+  @Data
+  public static class Write {
+
+    /** Send a bulk request when this number of writes is pending. */
+    private int bulkActions = 1000;
+
+    /** Send a bulk request when the pending writes reach this size. */
+    private DataSize bulkSize = DataSize.ofMegabytes(5);
+
+    /** Send pending writes after waiting this duration for other writes to join them. */
+    private Duration flushInterval = Duration.ofMillis(5);
+
+    /** Maximum number of bulk requests in flight, after which writes wait. */
+    private int concurrentRequests = 4;
+
+    /** When written changes become visible to search. */
+    private Refresh refresh = Refresh.NONE;
+  }
+
+  /**
+   * Groups many indices into one service, exposing an Entity Set for each index in one entity
+   * container.
+   */
+  @Data
+  public static class Service {
+
+    /** Service name in the request URI. */
+    private String name;
+
+    /** Names, aliases or wildcard patterns of the indices in the service. */
+    private List<String> indices = new ArrayList<>();
+  }
+
+  /**
+   * Links a field of documents in one index to the related documents in another index, exposed
+   * as a navigation property of the Entity Type of the source index.
+   */
+  @Data
+  public static class Navigation {
+
+    /** Index or alias of the documents having the foreign key field. */
+    private String source;
+
+    /** Name of the navigation property. */
+    private String name;
+
+    /** Keyword field of the source documents holding the key of the related documents. */
+    private String foreignKey;
+
+    /** Index or alias of the related documents. */
+    private String target;
+
+    /** Field of the related documents matching the foreign key, _id for the document ID. */
+    private String targetKey = "_id";
+
+    /** Navigate to all related documents matching the foreign key instead of one. */
+    private boolean collection;
+  }
+
+  /**
+   * Configures how related entities requested by $expand are read.
+   */
+  @Data
+  public static class Expand {
+
+    /**
+     * Maximum number of related entities read by searching a target key field for a page. A
+     * request reading more fails.
+     */
+    private int maxResults = 1000;
+  }
+}
@@ -0,0 +1,384 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import org.apache.olingo.commons.api.data.ComplexValue;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.EdmProperty;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.api.uri.UriResource;
+import org.apache.olingo.server.api.uri.UriResourceCount;
+import org.apache.olingo.server.api.uri.UriResourceProperty;
+import org.apache.olingo.server.api.uri.queryoption.ApplyItem;
+import org.apache.olingo.server.api.uri.queryoption.ApplyOption;
+import org.apache.olingo.server.api.uri.queryoption.FilterOption;
+import org.apache.olingo.server.api.uri.queryoption.apply.Aggregate;
+import org.apache.olingo.server.api.uri.queryoption.apply.AggregateExpression;
+import org.apache.olingo.server.api.uri.queryoption.apply.Filter;
+import org.apache.olingo.server.api.uri.queryoption.apply.GroupBy;
+import org.apache.olingo.server.api.uri.queryoption.apply.GroupByItem;
+import org.apache.olingo.server.api.uri.queryoption.expression.Member;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.metrics.Cardinality;
+import org.elasticsearch.search.aggregations.metrics.NumericMetricsAggregation;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+/**
+ * Aggregation requested by the $apply system query option. Group by properties become the
+ * sources of a composite aggregation, which Elasticsearch pages through using the key of the
+ * last group, and aggregate expressions become metric aggregations.
+ */
+public class ApplyAggregation {
+
+  private static final String GROUP_BY_AGGREGATION_NAME = "groupby";
+
+  /** Filter transformations, which select the entities to aggregate. */
+  @Getter
+  private final List<FilterOption> filterOptions = new ArrayList<>();
+
+  private final List<List<EdmProperty>> groupByPaths = new ArrayList<>();
+  private final List<AggregateExpression> aggregateExpressions = new ArrayList<>();
+  private boolean grouped;
+  private boolean aggregated;
+
+  private static String toOperator(ApplyItem applyItem) {
+    return applyItem.getKind().name().toLowerCase(Locale.ROOT);
+  }
+
+  private static void requireNotSpecified(Object queryOption, String name)
+      throws NotImplementedException {
+
+    if (queryOption != null) {
+      throw new NotImplementedException(name + " with $apply not implemented", name);
+    }
+  }
+
+  /**
+   * Converts from the $apply system query option.
+   *
+   * @param uriInfo
+   *     contains apply argument
+   * @return aggregation
+   * @throws ODataApplicationException
+   *     if transformation is not implemented
+   */
+  public static ApplyAggregation of(UriInfo uriInfo) throws ODataApplicationException {
+    // These system query options are evaluated on the aggregated result.
+    requireNotSpecified(uriInfo.getFilterOption(), "$filter");
+    requireNotSpecified(uriInfo.getOrderByOption(), "$orderby");
+    requireNotSpecified(uriInfo.getSearchOption(), "$search");
+    requireNotSpecified(uriInfo.getSkipOption(), "$skip");
+
+    ApplyAggregation aggregation = new ApplyAggregation();
+    for (ApplyItem applyItem : uriInfo.getApplyOption().getApplyItems()) {
+      if (aggregation.aggregated) {
+        throw new NotImplementedException(
+            "Transformation " + applyItem.getKind() + " after aggregation not implemented",
+            toOperator(applyItem));
+      }
+
+      switch (applyItem.getKind()) {
+        case FILTER:
+          aggregation.filterOptions.add(((Filter) applyItem).getFilterOption());
+          break;
+        case GROUP_BY:
+          aggregation.addGroupBy((GroupBy) applyItem);
+          break;
+        case AGGREGATE:
+          aggregation.addAggregate((Aggregate) applyItem);
+          break;
+        default:
+          throw new NotImplementedException(
+              "Transformation " + applyItem.getKind() + " not implemented",
+              toOperator(applyItem));
+      }
+    }
+
+    if (!aggregation.aggregated) {
+      throw new NotImplementedException(
+          "$apply without groupby or aggregate not implemented", "$apply");
+    }
+
+    return aggregation;
+  }
+
+  private static List<EdmProperty> toProperties(List<UriResource> path)
+      throws NotImplementedException {
+
+    List<EdmProperty> properties = new ArrayList<>();
+    for (UriResource uriResource : path) {
+      if (!(uriResource instanceof UriResourceProperty)) {
+        throw new NotImplementedException(
+            "Group by " + uriResource + " not implemented", uriResource.getKind().toString());
+      }
+
+      properties.add(((UriResourceProperty) uriResource).getProperty());
+    }
+
+    return properties;
+  }
+
+  private void addGroupBy(GroupBy groupBy) throws NotImplementedException {
+    for (GroupByItem groupByItem : groupBy.getGroupByItems()) {
+      if (groupByItem.isRollupAll() || !groupByItem.getRollup().isEmpty()) {
+        throw new NotImplementedException("rollup not implemented", "rollup");
+      }
+
+      groupByPaths.add(toProperties(groupByItem.getPath()));
+    }
+
+    grouped = true;
+    aggregated = true;
+
+    ApplyOption applyOption = groupBy.getApplyOption();
+    if (applyOption != null) {
+      for (ApplyItem applyItem : applyOption.getApplyItems()) {
+        if (applyItem.getKind() != ApplyItem.Kind.AGGREGATE) {
+          throw new NotImplementedException(
+              "Transformation " + applyItem.getKind() + " in groupby not implemented",
+              toOperator(applyItem));
+        }
+
+        addAggregate((Aggregate) applyItem);
+      }
+    }
+  }
+
+  private static boolean isCount(AggregateExpression aggregateExpression) {
+    List<UriResource> path = aggregateExpression.getPath();
+    return path != null &&
+        !path.isEmpty() &&
+        path.get(path.size() - 1) instanceof UriResourceCount;
+  }
+
+  private static boolean isMetric(AggregateExpression aggregateExpression) {
+    List<UriResource> path = aggregateExpression.getPath();
+    return (path == null || path.isEmpty()) &&
+        aggregateExpression.getExpression() instanceof Member &&
+        MemberMapper.isPropertyPath((Member) aggregateExpression.getExpression()) &&
+        aggregateExpression.getStandardMethod() != null;
+  }
+
+  private void addAggregate(Aggregate aggregate) throws NotImplementedException {
+    for (AggregateExpression aggregateExpression : aggregate.getExpressions()) {
+      if (aggregateExpression.getInlineAggregateExpression() != null ||
+          !aggregateExpression.getFrom().isEmpty() ||
+          !(isCount(aggregateExpression) || isMetric(aggregateExpression))) {
+        throw new NotImplementedException(
+            "Aggregate expression " + aggregateExpression.getAlias() + " not implemented",
+            "aggregate");
+      }
+
+      aggregateExpressions.add(aggregateExpression);
+    }
+
+    aggregated = true;
+  }
+
+  private static String toFieldName(List<EdmProperty> path) {
+    return path.stream()
+        .map(EdmProperty::getName)
+        .collect(Collectors.joining("."));
+  }
+
+  private static AggregationBuilder toMetricAggregation(AggregateExpression aggregateExpression) {
+    String alias = aggregateExpression.getAlias();
+    String fieldName = MemberMapper.toFieldName((Member) aggregateExpression.getExpression());
+    AggregateExpression.StandardMethod method = aggregateExpression.getStandardMethod();
+    switch (method) {
+      case SUM:
+        return AggregationBuilders.sum(alias).field(fieldName);
+      case AVERAGE:
+        return AggregationBuilders.avg(alias).field(fieldName);
+      case MIN:
+        return AggregationBuilders.min(alias).field(fieldName);
+      case MAX:
+        return AggregationBuilders.max(alias).field(fieldName);
+      case COUNT_DISTINCT:
+        return AggregationBuilders.cardinality(alias).field(fieldName);
+      default:
+        throw new UnsupportedOperationException("Cannot convert from StandardMethod " + method);
+    }
+  }
+
+  /**
+   * Adds aggregations to search request. Only aggregations are returned, not search hits.
+   *
+   * @param searchSource
+   *     search request to configure
+   * @param pageSize
+   *     maximum number of groups to return
+   * @param afterKey
+   *     key of the last group on the previous page, or null to start from the first group
+   */
+  public void configure(
+      SearchSourceBuilder searchSource, int pageSize, Map<String, Object> afterKey) {
+
+    boolean countRequested = aggregateExpressions.stream()
+        .anyMatch(ApplyAggregation::isCount);
+    searchSource.size(0);
+
+    List<AggregationBuilder> metricAggregations = aggregateExpressions.stream()
+        .filter(aggregateExpression -> !isCount(aggregateExpression))
+        .map(ApplyAggregation::toMetricAggregation)
+        .collect(Collectors.toList());
+    if (!grouped) {
+      // Total hits counts the aggregated entities.
+      searchSource.trackTotalHits(countRequested);
+      metricAggregations.forEach(searchSource::aggregation);
+      return;
+    }
+
+    // Composite aggregation returns groups in key order, and continues after a given key.
+    List<CompositeValuesSourceBuilder<?>> sources = new ArrayList<>();
+    for (List<EdmProperty> path : groupByPaths) {
+      String fieldName = toFieldName(path);
+      sources.add(new TermsValuesSourceBuilder(fieldName)
+          .field(fieldName)
+          .missingBucket(true));
+    }
+
+    CompositeAggregationBuilder groupBy = AggregationBuilders.composite(
+            GROUP_BY_AGGREGATION_NAME, sources)
+        .size(pageSize);
+    if (afterKey != null) {
+      groupBy.aggregateAfter(afterKey);
+    }
+
+    metricAggregations.forEach(groupBy::subAggregation);
+    searchSource.trackTotalHits(false)
+        .aggregation(groupBy);
+  }
+
+  private static Property findProperty(List<Property> properties, String name) {
+    return properties.stream()
+        .filter(property -> property.getName().equals(name))
+        .findFirst()
+        .orElse(null);
+  }
+
+  private static void addGroupProperty(
+      List<EdmProperty> path, int index, Object value, List<Property> properties) {
+
+    EdmProperty edmProperty = path.get(index);
+    String name = edmProperty.getName();
+    if (index == path.size() - 1) {
+      properties.add(StructuredTypeConverter.toProperty(name, value, edmProperty));
+      return;
+    }
+
+    // Group by properties of the same complex property share one complex value.
+    Property property = findProperty(properties, name);
+    if (property == null) {
+      property = new Property(null, name, ValueType.COMPLEX, new ComplexValue());
+      properties.add(property);
+    }
+
+    addGroupProperty(path, index + 1, value, ((ComplexValue) property.getValue()).getValue());
+  }
+
+  private static Object toValue(Aggregation aggregation) {
+    if (aggregation instanceof Cardinality) {
+      return ((Cardinality) aggregation).getValue();
+    }
+
+    // Metrics over no values are infinite or not a number.
+    double value = ((NumericMetricsAggregation.SingleValue) aggregation).value();
+    return Double.isFinite(value) ? value : null;
+  }
+
+  private void addAggregateProperties(
+      Aggregations aggregations, long count, List<Property> properties) {
+
+    for (AggregateExpression aggregateExpression : aggregateExpressions) {
+      String alias = aggregateExpression.getAlias();
+      Object value = isCount(aggregateExpression)
+          ? count : toValue(aggregations.get(alias));
+      properties.add(new Property(null, alias, ValueType.PRIMITIVE, value));
+    }
+  }
+
+  /**
+   * Converts aggregations in search response to dynamic entities, one entity per group.
+   *
+   * @param response
+   *     search response
+   * @return entities having group by properties and aggregate values
+   */
+  public List<Entity> toEntities(SearchResponse response) {
+    if (!grouped) {
+      long count = (response.getHits().getTotalHits() == null)
+          ? 0 : response.getHits().getTotalHits().value;
+      Entity entity = new Entity();
+      addAggregateProperties(response.getAggregations(), count, entity.getProperties());
+      return Collections.singletonList(entity);
+    }
+
+    CompositeAggregation groupBy = response.getAggregations().get(GROUP_BY_AGGREGATION_NAME);
+    List<Entity> entities = new ArrayList<>();
+    for (CompositeAggregation.Bucket bucket : groupBy.getBuckets()) {
+      Entity entity = new Entity();
+      for (List<EdmProperty> path : groupByPaths) {
+        addGroupProperty(path, 0, bucket.getKey().get(toFieldName(path)), entity.getProperties());
+      }
+
+      addAggregateProperties(
+          bucket.getAggregations(), bucket.getDocCount(), entity.getProperties());
+      entities.add(entity);
+    }
+
+    return entities;
+  }
+
+  /**
+   * Gets key of the last group in a full page, where the next page continues.
+   *
+   * @param response
+   *     search response
+   * @param pageSize
+   *     maximum number of groups requested
+   * @return key of last group, or null if there are no more groups
+   */
+  public Map<String, Object> toAfterKey(SearchResponse response, int pageSize) {
+    if (!grouped) {
+      return null;
+    }
+
+    CompositeAggregation groupBy = response.getAggregations().get(GROUP_BY_AGGREGATION_NAME);
+    return (groupBy.getBuckets().size() < pageSize) ? null : groupBy.afterKey();
+  }
+
+  /**
+   * Lists the properties of the aggregated entities, for the context URL.
+   *
+   * @return comma separated property paths
+   */
+  public String toSelectList() {
+    List<String> propertyPaths = new ArrayList<>();
+    for (List<EdmProperty> path : groupByPaths) {
+      propertyPaths.add(path.stream()
+          .map(EdmProperty::getName)
+          .collect(Collectors.joining("/")));
+    }
+
+    aggregateExpressions.forEach(
+        aggregateExpression -> propertyPaths.add(aggregateExpression.getAlias()));
+    return String.join(",", propertyPaths);
+  }
+}
@@ -0,0 +1,77 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.apache.olingo.server.api.ODataRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchResponse;
+
+/**
+ * Elasticsearch responses to the read requests in a batch, fetched in advance by one multi
+ * search request and one multi get request. While active, the batch parts processed by the
+ * current thread are answered from these responses.
+ */
+class BatchReads implements AutoCloseable {
+
+  private static final ThreadLocal<BatchReads> CURRENT = new ThreadLocal<>();
+
+  private final Map<ODataRequest, GetResponse> requestToGetResponseMap = new IdentityHashMap<>();
+  private final Map<ODataRequest, SearchResponse> requestToSearchResponseMap =
+      new IdentityHashMap<>();
+
+  void putGetResponse(ODataRequest request, GetResponse getResponse) {
+    requestToGetResponseMap.put(request, getResponse);
+  }
+
+  void putSearchResponse(ODataRequest request, SearchResponse searchResponse) {
+    requestToSearchResponseMap.put(request, searchResponse);
+  }
+
+  /**
+   * Makes these responses available to batch parts processed by the current thread.
+   *
+   * @return this object
+   */
+  BatchReads activate() {
+    CURRENT.set(this);
+    return this;
+  }
+
+  @Override
+  public void close() {
+    CURRENT.remove();
+  }
+
+  /**
+   * Checks if the current thread is processing a batch.
+   *
+   * @return true if processing a batch
+   */
+  static boolean isActive() {
+    return CURRENT.get() != null;
+  }
+
+  /**
+   * Gets response fetched in advance for a read request.
+   *
+   * @param request
+   *     batch part request
+   * @return get response, or null if not fetched in advance
+   */
+  static GetResponse findGetResponse(ODataRequest request) {
+    BatchReads batchReads = CURRENT.get();
+    return (batchReads == null) ? null : batchReads.requestToGetResponseMap.get(request);
+  }
+
+  /**
+   * Gets search response fetched in advance for a read request.
+   *
+   * @param request
+   *     batch part request
+   * @return search response, or null if not fetched in advance
+   */
+  static SearchResponse findSearchResponse(ODataRequest request) {
+    BatchReads batchReads = CURRENT.get();
+    return (batchReads == null) ? null : batchReads.requestToSearchResponseMap.get(request);
+  }
+}
@@ -0,0 +1,138 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import com.github.pukkaone.odata.elasticsearch.autoconfigure.ODataElasticsearchProperties;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.stereotype.Component;
+
+/**
+ * Groups concurrent writes into Elasticsearch bulk requests. A bulk request is sent when the
+ * pending writes reach the configured number of actions or bytes, or when the flush interval
+ * elapses, so a write waits at most the flush interval for other writes to join it.
+ */
+@Component
+@Slf4j
+public class BulkWriter {
+
+  private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+  private final Map<DocWriteRequest<?>, CompletableFuture<BulkItemResponse>>
+      requestToFutureMap = Collections.synchronizedMap(new IdentityHashMap<>());
+  private final BulkProcessor bulkProcessor;
+
+  /**
+   * Completes the future of each write in a bulk request.
+   */
+  private class Listener implements BulkProcessor.Listener {
+
+    @Override
+    public void beforeBulk(long executionId, BulkRequest request) {
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+      List<DocWriteRequest<?>> requests = request.requests();
+      for (BulkItemResponse item : response.getItems()) {
+        CompletableFuture<BulkItemResponse> future =
+            requestToFutureMap.remove(requests.get(item.getItemId()));
+        if (future != null) {
+          future.complete(item);
+        }
+      }
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+      for (DocWriteRequest<?> writeRequest : request.requests()) {
+        CompletableFuture<BulkItemResponse> future = requestToFutureMap.remove(writeRequest);
+        if (future != null) {
+          future.completeExceptionally(failure);
+        }
+      }
+    }
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param elasticsearchClient
+   *     Elasticsearch client
+   * @param properties
+   *     configuration properties
+   */
+  public BulkWriter(
+      RestHighLevelClient elasticsearchClient, ODataElasticsearchProperties properties) {
+
+    ODataElasticsearchProperties.Write writeProperties = properties.getWrite();
+    WriteRequest.RefreshPolicy refreshPolicy =
+        (writeProperties.getRefresh() == ODataElasticsearchProperties.Refresh.WAIT_FOR)
+            ? WriteRequest.RefreshPolicy.WAIT_UNTIL
+            : WriteRequest.RefreshPolicy.NONE;
+    this.bulkProcessor = BulkProcessor.builder(
+        (bulkRequest, listener) -> elasticsearchClient.bulkAsync(
+            bulkRequest.setRefreshPolicy(refreshPolicy), RequestOptions.DEFAULT, listener),
+        new Listener())
+        .setBulkActions(writeProperties.getBulkActions())
+        .setBulkSize(new ByteSizeValue(writeProperties.getBulkSize().toBytes()))
+        .setFlushInterval(
+            TimeValue.timeValueMillis(writeProperties.getFlushInterval().toMillis()))
+        .setConcurrentRequests(writeProperties.getConcurrentRequests())
+        // A retried bulk request reports item responses out of order, so rejected writes are
+        // reported to the client instead of retried.
+        .setBackoffPolicy(BackoffPolicy.noBackoff())
+        .build();
+  }
+
+  /**
+   * Sends pending writes, and waits for bulk requests in flight to complete.
+   */
+  @PreDestroy
+  public void close() {
+    try {
+      bulkProcessor.awaitClose(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      log.warn("Interrupted waiting for bulk requests to complete", e);
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Adds a write to the next bulk request. Waits if the maximum number of bulk requests are in
+   * flight.
+   *
+   * @param request
+   *     index, update or delete request
+   * @return future response to the write, which fails if the whole bulk request failed
+   */
+  public CompletableFuture<BulkItemResponse> write(DocWriteRequest<?> request) {
+    // Register the future first, because adding the request may send the bulk request.
+    CompletableFuture<BulkItemResponse> future = new CompletableFuture<>();
+    requestToFutureMap.put(request, future);
+    try {
+      bulkProcessor.add(request);
+    } catch (IllegalStateException e) {
+      // Bulk processor was closed.
+      requestToFutureMap.remove(request);
+      future.completeExceptionally(e);
+    }
+
+    return future;
+  }
+}
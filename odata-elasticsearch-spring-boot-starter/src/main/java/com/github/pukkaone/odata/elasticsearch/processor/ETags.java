@@ -0,0 +1,167 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.olingo.commons.api.http.HttpHeader;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.ODataRequest;
+import org.apache.olingo.server.api.ODataResponse;
+import org.apache.olingo.server.api.etag.ETagHelper;
+import org.apache.olingo.server.api.etag.PreconditionException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.index.seqno.SequenceNumbers;
+import org.springframework.util.DigestUtils;
+
+/**
+ * Builds entity tags from Elasticsearch document versions, answers conditional reads, and makes
+ * writes conditional.
+ */
+public final class ETags {
+
+  private static final String ANY = "*";
+  private static final Pattern DOCUMENT_VERSION = Pattern.compile(
+      "(?:W/)?\"(\\d{1,18})\\.(\\d{1,18})\"");
+
+  // Private constructor disallows creating instances of this class.
+  private ETags() {
+  }
+
+  /**
+   * Builds entity tag of a document. Elasticsearch changes the sequence number and primary term
+   * whenever the document changes. The tag is weak, because the representation also depends on
+   * the select option and response format.
+   *
+   * @param primaryTerm
+   *     primary term of the document
+   * @param seqNo
+   *     sequence number of the document
+   * @return entity tag, or null if Elasticsearch did not return the document version
+   */
+  public static String toETag(long primaryTerm, long seqNo) {
+    if (seqNo == SequenceNumbers.UNASSIGNED_SEQ_NO) {
+      return null;
+    }
+
+    return "W/\"" + primaryTerm + "." + seqNo + "\"";
+  }
+
+  /**
+   * Identifies an entity and its version within a collection page.
+   *
+   * @param entityId
+   *     entity ID
+   * @param etag
+   *     entity tag, may be null
+   * @return entity version
+   */
+  public static String toEntityVersion(URI entityId, String etag) {
+    return entityId + " " + etag;
+  }
+
+  /**
+   * Builds entity tag of a collection page. The tag changes when a refresh makes a changed
+   * document visible to the search, so it follows the index refresh state without asking
+   * Elasticsearch for it.
+   *
+   * @param entityVersions
+   *     ID and entity tag of each entity in the page, in response order
+   * @param count
+   *     total count, or null if not requested
+   * @param next
+   *     link to next page, or null if there is no next page
+   * @return entity tag
+   */
+  public static String toCollectionETag(List<String> entityVersions, Integer count, URI next) {
+    StringBuilder versions = new StringBuilder();
+    for (String entityVersion : entityVersions) {
+      versions.append(entityVersion)
+          .append('\n');
+    }
+
+    versions.append(count)
+        .append('\n')
+        .append(next);
+    return "W/\"" +
+        DigestUtils.md5DigestAsHex(versions.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+  }
+
+  /**
+   * Checks the request preconditions against the current entity tag, and if the client already
+   * has the current representation, sets the response to 304 Not Modified.
+   *
+   * @param etagHelper
+   *     evaluates preconditions
+   * @param request
+   *     request having If-Match and If-None-Match headers
+   * @param response
+   *     response to set
+   * @param etag
+   *     current entity tag, or null if unknown
+   * @return true if the response was set to 304 Not Modified, so it must not be serialized
+   * @throws PreconditionException
+   *     if the If-Match precondition failed
+   */
+  public static boolean respondNotModified(
+      ETagHelper etagHelper, ODataRequest request, ODataResponse response, String etag)
+      throws PreconditionException {
+
+    if (!etagHelper.checkReadPreconditions(
+        etag,
+        request.getHeaders(HttpHeader.IF_MATCH),
+        request.getHeaders(HttpHeader.IF_NONE_MATCH))) {
+      return false;
+    }
+
+    response.setStatusCode(HttpStatusCode.NOT_MODIFIED.getStatusCode());
+    response.setHeader(HttpHeader.ETAG, etag);
+    return true;
+  }
+
+  /**
+   * Makes a write conditional on the document version named by the If-Match header, so
+   * Elasticsearch rejects the write if the document changed since the client read it.
+   *
+   * @param ifMatch
+   *     If-Match header values
+   * @param request
+   *     write request to make conditional
+   * @throws ODataApplicationException
+   *     if the entity tag does not name a document version, or more than one entity tag is given
+   */
+  public static void setIfMatch(List<String> ifMatch, DocWriteRequest<?> request)
+      throws ODataApplicationException {
+
+    List<String> etags = new ArrayList<>();
+    for (String headerValue : ifMatch) {
+      for (String etag : headerValue.split(",")) {
+        if (!etag.trim().isEmpty()) {
+          etags.add(etag.trim());
+        }
+      }
+    }
+
+    if (etags.isEmpty() || etags.contains(ANY)) {
+      return;
+    }
+
+    // Elasticsearch accepts one sequence number and primary term to compare.
+    if (etags.size() > 1) {
+      throw new NotImplementedException(
+          "If-Match with more than one entity tag not implemented", "if-match");
+    }
+
+    Matcher matcher = DOCUMENT_VERSION.matcher(etags.get(0));
+    if (!matcher.matches()) {
+      throw new ODataApplicationException(
+          "Entity tag does not match", HttpStatusCode.PRECONDITION_FAILED.getStatusCode(), null);
+    }
+
+    request.setIfPrimaryTerm(Long.parseLong(matcher.group(1)));
+    request.setIfSeqNo(Long.parseLong(matcher.group(2)));
+  }
+}
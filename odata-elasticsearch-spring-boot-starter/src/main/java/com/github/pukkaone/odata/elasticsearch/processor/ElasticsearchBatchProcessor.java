@@ -0,0 +1,136 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.commons.api.http.HttpHeader;
+import org.apache.olingo.commons.api.http.HttpMethod;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.ODataLibraryException;
+import org.apache.olingo.server.api.ODataRequest;
+import org.apache.olingo.server.api.ODataResponse;
+import org.apache.olingo.server.api.ServiceMetadata;
+import org.apache.olingo.server.api.batch.BatchFacade;
+import org.apache.olingo.server.api.deserializer.batch.BatchOptions;
+import org.apache.olingo.server.api.deserializer.batch.BatchRequestPart;
+import org.apache.olingo.server.api.deserializer.batch.ODataResponsePart;
+import org.apache.olingo.server.api.processor.BatchProcessor;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.core.uri.parser.Parser;
+import org.apache.olingo.server.core.uri.parser.UriParserException;
+import org.apache.olingo.server.core.uri.validator.UriValidationException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Processes batch request. Reads before the first write in the batch are sent to Elasticsearch
+ * together before the batch parts are processed, so they cost two Elasticsearch round trips
+ * instead of one per part. Reads after a write are processed in order, so they see the write.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ElasticsearchBatchProcessor implements BatchProcessor {
+
+  private final EntityRepository entityRepository;
+
+  private OData odata;
+  private ServiceMetadata serviceMetadata;
+
+  @Override
+  public void init(OData odata, ServiceMetadata serviceMetadata) {
+    this.odata = odata;
+    this.serviceMetadata = serviceMetadata;
+  }
+
+  private Map<ODataRequest, UriInfo> parseReadRequests(List<BatchRequestPart> requestParts) {
+    Parser parser = new Parser(serviceMetadata.getEdm(), odata);
+    Map<ODataRequest, UriInfo> requestToUriInfoMap = new LinkedHashMap<>();
+    for (BatchRequestPart requestPart : requestParts) {
+      for (ODataRequest request : requestPart.getRequests()) {
+        if (requestPart.isChangeSet() || request.getMethod() != HttpMethod.GET) {
+          // Reads after a write must see it, so they are not read ahead.
+          return requestToUriInfoMap;
+        }
+
+        try {
+          requestToUriInfoMap.put(
+              request,
+              parser.parseUri(
+                  request.getRawODataPath(),
+                  request.getRawQueryPath(),
+                  null,
+                  request.getRawBaseUri()));
+        } catch (UriParserException | UriValidationException e) {
+          // Processing the batch part reports the error.
+          log.debug("Cannot parse URI {}", request.getRawRequestUri(), e);
+        }
+      }
+    }
+
+    return requestToUriInfoMap;
+  }
+
+  @Override
+  public void processBatch(BatchFacade facade, ODataRequest request, ODataResponse response)
+      throws ODataApplicationException, ODataLibraryException {
+
+    String boundary = facade.extractBoundaryFromContentType(
+        request.getHeader(HttpHeader.CONTENT_TYPE));
+    BatchOptions options = BatchOptions.with()
+        .rawBaseUri(request.getRawBaseUri())
+        .rawServiceResolutionUri(request.getRawServiceResolutionUri())
+        .build();
+    List<BatchRequestPart> requestParts = odata.createFixedFormatDeserializer()
+        .parseBatchRequest(request.getBody(), boundary, options);
+
+    // Retrieve entities read before the first write from backend.
+    Map<ODataRequest, UriInfo> requestToUriInfoMap = parseReadRequests(requestParts);
+    List<ODataResponsePart> responseParts = new ArrayList<>();
+    BatchReads batchReads = entityRepository.prefetch(requestToUriInfoMap).activate();
+    try {
+      for (BatchRequestPart requestPart : requestParts) {
+        responseParts.add(facade.handleBatchRequest(requestPart));
+      }
+    } finally {
+      batchReads.close();
+    }
+
+    // Serialize to response format.
+    String responseBoundary = "batch_" + UUID.randomUUID();
+    InputStream content = odata.createFixedFormatSerializer()
+        .batchResponse(responseParts, responseBoundary);
+
+    // Set response attributes.
+    response.setContent(content);
+    response.setStatusCode(HttpStatusCode.OK.getStatusCode());
+    response.setHeader(
+        HttpHeader.CONTENT_TYPE,
+        ContentType.MULTIPART_MIXED + ";boundary=" + responseBoundary);
+  }
+
+  @Override
+  public ODataResponsePart processChangeSet(BatchFacade facade, List<ODataRequest> requests)
+      throws ODataApplicationException, ODataLibraryException {
+
+    List<ODataResponse> responses = new ArrayList<>();
+    for (ODataRequest request : requests) {
+      ODataResponse response = facade.handleODataRequest(request);
+      if (response.getStatusCode() >= HttpStatusCode.BAD_REQUEST.getStatusCode()) {
+        // Change set fails as a whole, so respond with only the failed request.
+        return new ODataResponsePart(response, false);
+      }
+
+      responses.add(response);
+    }
+
+    return new ODataResponsePart(responses, true);
+  }
+}
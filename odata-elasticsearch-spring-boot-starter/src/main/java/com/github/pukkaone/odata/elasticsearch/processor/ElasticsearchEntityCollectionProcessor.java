@@ -1,36 +1,58 @@
 package com.github.pukkaone.odata.elasticsearch.processor;
 
+import com.github.pukkaone.odata.elasticsearch.autoconfigure.ODataElasticsearchProperties;
+import com.github.pukkaone.odata.web.DeferredContent;
+import com.github.pukkaone.odata.web.metrics.ODataMetrics;
+import com.github.pukkaone.odata.web.metrics.OperationMetrics;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.List;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.olingo.commons.api.data.ContextURL;
+import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.Link;
 import org.apache.olingo.commons.api.edm.EdmEntitySet;
 import org.apache.olingo.commons.api.format.ContentType;
 import org.apache.olingo.commons.api.http.HttpHeader;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.OData;
 import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.ODataContentWriteErrorContext;
 import org.apache.olingo.server.api.ODataLibraryException;
 import org.apache.olingo.server.api.ODataRequest;
 import org.apache.olingo.server.api.ODataResponse;
 import org.apache.olingo.server.api.ServiceMetadata;
-import org.apache.olingo.server.api.processor.EntityCollectionProcessor;
+import org.apache.olingo.server.api.etag.ETagHelper;
+import org.apache.olingo.server.api.processor.CountEntityCollectionProcessor;
+import org.apache.olingo.server.api.serializer.EdmAssistedSerializer;
+import org.apache.olingo.server.api.serializer.EdmAssistedSerializerOptions;
 import org.apache.olingo.server.api.serializer.EntityCollectionSerializerOptions;
+import org.apache.olingo.server.api.serializer.FixedFormatSerializer;
 import org.apache.olingo.server.api.serializer.ODataSerializer;
 import org.apache.olingo.server.api.serializer.SerializerResult;
+import org.apache.olingo.server.api.serializer.SerializerStreamResult;
 import org.apache.olingo.server.api.uri.UriInfo;
 import org.apache.olingo.server.api.uri.UriResource;
 import org.apache.olingo.server.api.uri.UriResourceEntitySet;
+import org.apache.olingo.server.api.uri.UriResourceNavigation;
+import org.apache.olingo.server.api.uri.queryoption.ExpandOption;
+import org.apache.olingo.server.api.uri.queryoption.SelectOption;
+import org.apache.olingo.server.core.serializer.utils.ContextURLBuilder;
 import org.springframework.stereotype.Component;
 
 /**
- * Reads multiple instances of an Entity Type by accessing an Elasticsearch index.
+ * Reads, counts or aggregates multiple instances of an Entity Type by accessing an Elasticsearch
+ * index.
  */
 @Component
 @RequiredArgsConstructor
-public class ElasticsearchEntityCollectionProcessor implements EntityCollectionProcessor {
+@Slf4j
+public class ElasticsearchEntityCollectionProcessor implements CountEntityCollectionProcessor {
 
   private final EntityRepository entityRepository;
+  private final ODataElasticsearchProperties properties;
 
   private OData odata;
   private ServiceMetadata serviceMetadata;
@@ -41,36 +63,399 @@ public class ElasticsearchEntityCollectionProcessor implements EntityCollectionP
     this.serviceMetadata = serviceMetadata;
   }
 
-  @Override
-  public void readEntityCollection(
-      ODataRequest request,
-      ODataResponse response,
-      UriInfo uriInfo,
-      ContentType responseFormat) throws ODataApplicationException, ODataLibraryException {
+  private static void handleWriteError(
+      ODataContentWriteErrorContext context, WritableByteChannel channel) {
+
+    // Response status and part of the body were already sent, so the client sees truncated JSON.
+    log.error("Cannot write entity collection", context.getException());
+  }
+
+  private boolean isAsync() {
+    // Batch parts are written into the batch response body, so they cannot be deferred.
+    return properties.getAsync().isEnabled() && !BatchReads.isActive();
+  }
+
+  private static boolean isParameterAbsentOr(
+      ContentType contentType, String parameterName, String value) {
+
+    String parameterValue = contentType.getParameter(parameterName);
+    return parameterValue == null || parameterValue.equalsIgnoreCase(value);
+  }
+
+  private boolean isTranscoded(ContentType responseFormat) {
+    // Batch parts use search responses fetched in advance, which are already parsed.
+    return properties.getTranscoding().isEnabled() &&
+        !BatchReads.isActive() &&
+        responseFormat.isCompatible(ContentType.APPLICATION_JSON) &&
+        isParameterAbsentOr(
+            responseFormat,
+            ContentType.PARAMETER_ODATA_METADATA,
+            ContentType.VALUE_ODATA_METADATA_MINIMAL) &&
+        isParameterAbsentOr(responseFormat, ContentType.PARAMETER_IEEE754_COMPATIBLE, "false") &&
+        isParameterAbsentOr(responseFormat, ContentType.PARAMETER_CHARSET, "utf-8");
+  }
+
+  private static EdmEntitySet toEntitySet(UriInfo uriInfo, String operation)
+      throws NotImplementedException {
 
     // First path segment is Entity Set.
     List<UriResource> resourcePaths = uriInfo.getUriResourceParts();
     UriResourceEntitySet uriResourceEntitySet = (UriResourceEntitySet) resourcePaths.get(0);
     EdmEntitySet entitySet = uriResourceEntitySet.getEntitySet();
+    if (resourcePaths.stream().anyMatch(UriResourceNavigation.class::isInstance)) {
+      throw Meters.countNotImplemented(
+          Meters.operation(entitySet, operation),
+          new NotImplementedException(
+              "Navigation in resource path not implemented", "navigation"));
+    }
+
+    return entitySet;
+  }
+
+  private static void addEntityVersion(Entity entity, List<String> entityVersions) {
+    entityVersions.add(ETags.toEntityVersion(entity.getId(), entity.getETag()));
+  }
+
+  private static String toETag(EntityCollection entityCollection) {
+    List<String> entityVersions = new ArrayList<>();
+    for (Entity entity : entityCollection.getEntities()) {
+      addEntityVersion(entity, entityVersions);
+
+      // Expanded entities change independently of the entity linking to them.
+      for (Link link : entity.getNavigationLinks()) {
+        if (link.getInlineEntity() != null) {
+          addEntityVersion(link.getInlineEntity(), entityVersions);
+        }
+
+        if (link.getInlineEntitySet() != null) {
+          link.getInlineEntitySet().forEach(inlineEntity ->
+              addEntityVersion(inlineEntity, entityVersions));
+        }
+      }
+    }
+
+    return ETags.toCollectionETag(
+        entityVersions, entityCollection.getCount(), entityCollection.getNext());
+  }
+
+  private static void writeEntityCollection(
+      ServiceMetadata serviceMetadata,
+      ETagHelper etagHelper,
+      ODataRequest request,
+      ODataResponse response,
+      EdmEntitySet entitySet,
+      ODataSerializer serializer,
+      EntityCollectionSerializerOptions.Builder options,
+      ContentType responseFormat,
+      EntityCollection entityCollection,
+      OperationMetrics metrics) throws ODataLibraryException {
 
-    // Retrieve entities from backend.
-    EntityCollection entityCollection = entityRepository.list(entitySet, uriInfo);
+    String etag = toETag(entityCollection);
+    if (ETags.respondNotModified(etagHelper, request, response, etag)) {
+      return;
+    }
 
     // Serialize to response format.
+    long startNanos = System.nanoTime();
+    SerializerResult serializerResult = serializer.entityCollection(
+        serviceMetadata, entitySet.getEntityType(), entityCollection, options.build());
+    metrics.recordSince(ODataMetrics.SERIALIZATION, startNanos);
+
+    // Set response attributes.
+    response.setContent(serializerResult.getContent());
+    response.setStatusCode(HttpStatusCode.OK.getStatusCode());
+    response.setHeader(HttpHeader.CONTENT_TYPE, responseFormat.toContentTypeString());
+    response.setHeader(HttpHeader.ETAG, etag);
+  }
+
+  private void writeEntityCollectionStreamed(
+      ServiceMetadata serviceMetadata,
+      ETagHelper etagHelper,
+      ODataRequest request,
+      ODataResponse response,
+      EdmEntitySet entitySet,
+      ODataSerializer serializer,
+      EntityCollectionSerializerOptions.Builder options,
+      ContentType responseFormat,
+      SearchHitEntityIterator entityIterator,
+      OperationMetrics metrics) throws ODataLibraryException {
+
+    if (ETags.respondNotModified(etagHelper, request, response, entityIterator.getEtag())) {
+      return;
+    }
+
+    // Search hits are converted to entities while writing response.
+    options.writeContentErrorCallback(ElasticsearchEntityCollectionProcessor::handleWriteError);
+    SerializerStreamResult serializerResult = serializer.entityCollectionStreamed(
+        serviceMetadata, entitySet.getEntityType(), entityIterator, options.build());
+
+    // Set response attributes.
+    response.setODataContent(new TimedContent(
+        new StreamingContent(
+            serializerResult.getODataContent(), properties.getStreaming().getFlushThreshold()),
+        metrics));
+    response.setStatusCode(HttpStatusCode.OK.getStatusCode());
+    response.setHeader(HttpHeader.CONTENT_TYPE, responseFormat.toContentTypeString());
+    response.setHeader(HttpHeader.ETAG, entityIterator.getEtag());
+  }
+
+  private static void writeAggregatedEntityCollection(
+      ServiceMetadata serviceMetadata,
+      ODataResponse response,
+      EdmEntitySet entitySet,
+      EdmAssistedSerializer serializer,
+      EdmAssistedSerializerOptions options,
+      ContentType responseFormat,
+      EntityCollection entityCollection,
+      OperationMetrics metrics) throws ODataLibraryException {
+
+    // Serialize to response format. Aggregate values are properties not declared by the Entity
+    // Type, so their types are derived from the values.
+    long startNanos = System.nanoTime();
+    SerializerResult serializerResult = serializer.entityCollection(
+        serviceMetadata, entitySet.getEntityType(), entityCollection, options);
+    metrics.recordSince(ODataMetrics.SERIALIZATION, startNanos);
+
+    // Set response attributes.
+    response.setContent(serializerResult.getContent());
+    response.setStatusCode(HttpStatusCode.OK.getStatusCode());
+    response.setHeader(HttpHeader.CONTENT_TYPE, responseFormat.toContentTypeString());
+  }
+
+  private static void writeTranscodedEntityCollection(
+      ETagHelper etagHelper,
+      ODataRequest request,
+      ODataResponse response,
+      ContentType responseFormat,
+      SearchResponseTranscoder content,
+      OperationMetrics metrics) throws ODataLibraryException {
+
+    if (ETags.respondNotModified(etagHelper, request, response, content.getEtag())) {
+      return;
+    }
+
+    // Set response attributes. Search hits are written while writing response.
+    response.setODataContent(new TimedContent(content, metrics));
+    response.setStatusCode(HttpStatusCode.OK.getStatusCode());
+    response.setHeader(HttpHeader.CONTENT_TYPE, responseFormat.toContentTypeString());
+    response.setHeader(HttpHeader.ETAG, content.getEtag());
+  }
+
+  private void transcodeEntityCollection(
+      ODataRequest request,
+      ODataResponse response,
+      UriInfo uriInfo,
+      ContentType responseFormat,
+      EdmEntitySet entitySet,
+      ContextURL contextUrl) throws ODataApplicationException, ODataLibraryException {
+
+    String contextUrlString = ContextURLBuilder.create(contextUrl).toASCIIString();
+    ETagHelper etagHelper = odata.createETagHelper();
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.READ_ENTITY_COLLECTION);
+    if (isAsync()) {
+      // Search in backend, and write response when search response arrives.
+      response.setODataContent(new DeferredContent<>(
+          entityRepository.transcodeAsync(entitySet, uriInfo, request, contextUrlString),
+          (content, deferredResponse) -> writeTranscodedEntityCollection(
+              etagHelper, request, deferredResponse, responseFormat, content, metrics)));
+    } else {
+      // Search in backend.
+      SearchResponseTranscoder content =
+          entityRepository.transcode(entitySet, uriInfo, request, contextUrlString);
+      writeTranscodedEntityCollection(
+          etagHelper, request, response, responseFormat, content, metrics);
+    }
+  }
+
+  private void aggregateEntityCollection(
+      ODataRequest request,
+      ODataResponse response,
+      UriInfo uriInfo,
+      ContentType responseFormat,
+      EdmEntitySet entitySet) throws ODataApplicationException, ODataLibraryException {
+
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.AGGREGATE_ENTITY_COLLECTION);
+    ApplyAggregation aggregation;
+    try {
+      aggregation = ApplyAggregation.of(uriInfo);
+    } catch (NotImplementedException e) {
+      throw Meters.countNotImplemented(metrics, e);
+    }
+
     ContextURL contextUrl = ContextURL.with()
         .entitySet(entitySet)
+        .selectList(aggregation.toSelectList())
         .build();
-    EntityCollectionSerializerOptions options = EntityCollectionSerializerOptions.with()
-        .id(request.getRawBaseUri() + "/" + entitySet.getName())
+    EdmAssistedSerializerOptions options = EdmAssistedSerializerOptions.with()
         .contextURL(contextUrl)
         .build();
+    EdmAssistedSerializer serializer = odata.createEdmAssistedSerializer(responseFormat);
+    ServiceMetadata metadata = serviceMetadata;
+    if (isAsync()) {
+      // Aggregate entities in backend, and write response when the groups arrive.
+      response.setODataContent(new DeferredContent<>(
+          entityRepository.aggregateAsync(entitySet, aggregation, uriInfo, request),
+          (entityCollection, deferredResponse) -> writeAggregatedEntityCollection(
+              metadata,
+              deferredResponse,
+              entitySet,
+              serializer,
+              options,
+              responseFormat,
+              entityCollection,
+              metrics)));
+    } else {
+      // Aggregate entities in backend.
+      EntityCollection entityCollection =
+          entityRepository.aggregate(entitySet, aggregation, uriInfo, request);
+      writeAggregatedEntityCollection(
+          metadata,
+          response,
+          entitySet,
+          serializer,
+          options,
+          responseFormat,
+          entityCollection,
+          metrics);
+    }
+  }
+
+  @Override
+  public void readEntityCollection(
+      ODataRequest request,
+      ODataResponse response,
+      UriInfo uriInfo,
+      ContentType responseFormat) throws ODataApplicationException, ODataLibraryException {
+
+    EdmEntitySet entitySet = toEntitySet(uriInfo, Meters.READ_ENTITY_COLLECTION);
+    if (uriInfo.getApplyOption() != null) {
+      aggregateEntityCollection(request, response, uriInfo, responseFormat, entitySet);
+      return;
+    }
+
+    SelectOption selectOption = uriInfo.getSelectOption();
+    ExpandOption expandOption = uriInfo.getExpandOption();
+    ContextURL contextUrl = ContextURL.with()
+        .entitySet(entitySet)
+        .selectList(odata.createUriHelper()
+            .buildContextURLSelectList(entitySet.getEntityType(), expandOption, selectOption))
+        .build();
+
+    // Expanded entities are read for the whole page before any entity is written, so the
+    // response is built from converted entities.
+    if (expandOption == null && isTranscoded(responseFormat)) {
+      transcodeEntityCollection(request, response, uriInfo, responseFormat, entitySet, contextUrl);
+      return;
+    }
+
+    EntityCollectionSerializerOptions.Builder options = EntityCollectionSerializerOptions.with()
+        .id(request.getRawBaseUri() + "/" + entitySet.getName())
+        .contextURL(contextUrl)
+        .select(selectOption)
+        .expand(expandOption)
+        .count(uriInfo.getCountOption());
     ODataSerializer serializer = odata.createSerializer(responseFormat);
-    SerializerResult serializerResult = serializer.entityCollection(
-        serviceMetadata, entitySet.getEntityType(), entityCollection, options);
+    ETagHelper etagHelper = odata.createETagHelper();
+    ServiceMetadata metadata = serviceMetadata;
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.READ_ENTITY_COLLECTION);
+    boolean streaming = properties.getStreaming().isEnabled() && expandOption == null;
+    if (isAsync()) {
+      // Retrieve entities from backend, and write response when they arrive.
+      if (streaming) {
+        response.setODataContent(new DeferredContent<>(
+            entityRepository.streamAsync(entitySet, uriInfo, request),
+            (entityIterator, deferredResponse) -> writeEntityCollectionStreamed(
+                metadata,
+                etagHelper,
+                request,
+                deferredResponse,
+                entitySet,
+                serializer,
+                options,
+                responseFormat,
+                entityIterator,
+                metrics)));
+      } else {
+        response.setODataContent(new DeferredContent<>(
+            entityRepository.listAsync(entitySet, uriInfo, request),
+            (entityCollection, deferredResponse) -> writeEntityCollection(
+                metadata,
+                etagHelper,
+                request,
+                deferredResponse,
+                entitySet,
+                serializer,
+                options,
+                responseFormat,
+                entityCollection,
+                metrics)));
+      }
+    } else if (streaming) {
+      // Retrieve search hits from backend.
+      SearchHitEntityIterator entityIterator =
+          entityRepository.stream(entitySet, uriInfo, request);
+      writeEntityCollectionStreamed(
+          metadata,
+          etagHelper,
+          request,
+          response,
+          entitySet,
+          serializer,
+          options,
+          responseFormat,
+          entityIterator,
+          metrics);
+    } else {
+      // Retrieve entities from backend.
+      EntityCollection entityCollection = entityRepository.list(entitySet, uriInfo, request);
+      writeEntityCollection(
+          metadata,
+          etagHelper,
+          request,
+          response,
+          entitySet,
+          serializer,
+          options,
+          responseFormat,
+          entityCollection,
+          metrics);
+    }
+  }
+
+  @Override
+  public void countEntityCollection(
+      ODataRequest request,
+      ODataResponse response,
+      UriInfo uriInfo) throws ODataApplicationException, ODataLibraryException {
+
+    EdmEntitySet entitySet = toEntitySet(uriInfo, Meters.COUNT_ENTITY_COLLECTION);
+
+    // Count entities in backend.
+    FixedFormatSerializer serializer = odata.createFixedFormatSerializer();
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.COUNT_ENTITY_COLLECTION);
+    if (isAsync()) {
+      response.setODataContent(new DeferredContent<>(
+          entityRepository.countAsync(entitySet, uriInfo),
+          (count, deferredResponse) ->
+              writeCount(deferredResponse, serializer, count, metrics)));
+    } else {
+      writeCount(response, serializer, entityRepository.count(entitySet, uriInfo), metrics);
+    }
+  }
+
+  private static void writeCount(
+      ODataResponse response,
+      FixedFormatSerializer serializer,
+      int count,
+      OperationMetrics metrics) throws ODataLibraryException {
+
+    // Serialize to plain text.
+    long startNanos = System.nanoTime();
+    response.setContent(serializer.count(count));
+    metrics.recordSince(ODataMetrics.SERIALIZATION, startNanos);
 
     // Set response attributes.
-    response.setContent(serializerResult.getContent());
     response.setStatusCode(HttpStatusCode.OK.getStatusCode());
-    response.setHeader(HttpHeader.CONTENT_TYPE, responseFormat.toContentTypeString());
+    response.setHeader(HttpHeader.CONTENT_TYPE, ContentType.TEXT_PLAIN.toContentTypeString());
   }
 }
@@ -1,5 +1,9 @@
 package com.github.pukkaone.odata.elasticsearch.processor;
 
+import com.github.pukkaone.odata.elasticsearch.autoconfigure.ODataElasticsearchProperties;
+import com.github.pukkaone.odata.web.DeferredContent;
+import com.github.pukkaone.odata.web.metrics.ODataMetrics;
+import com.github.pukkaone.odata.web.metrics.OperationMetrics;
 import java.util.List;
 import lombok.RequiredArgsConstructor;
 import org.apache.olingo.commons.api.data.ContextURL;
@@ -7,6 +11,7 @@ import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.edm.EdmEntitySet;
 import org.apache.olingo.commons.api.format.ContentType;
 import org.apache.olingo.commons.api.http.HttpHeader;
+import org.apache.olingo.commons.api.http.HttpMethod;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.OData;
 import org.apache.olingo.server.api.ODataApplicationException;
@@ -14,6 +19,10 @@ import org.apache.olingo.server.api.ODataLibraryException;
 import org.apache.olingo.server.api.ODataRequest;
 import org.apache.olingo.server.api.ODataResponse;
 import org.apache.olingo.server.api.ServiceMetadata;
+import org.apache.olingo.server.api.deserializer.ODataDeserializer;
+import org.apache.olingo.server.api.etag.ETagHelper;
+import org.apache.olingo.server.api.prefer.Preferences;
+import org.apache.olingo.server.api.prefer.PreferencesApplied;
 import org.apache.olingo.server.api.processor.EntityProcessor;
 import org.apache.olingo.server.api.serializer.EntitySerializerOptions;
 import org.apache.olingo.server.api.serializer.ODataSerializer;
@@ -22,16 +31,22 @@ import org.apache.olingo.server.api.uri.UriInfo;
 import org.apache.olingo.server.api.uri.UriParameter;
 import org.apache.olingo.server.api.uri.UriResource;
 import org.apache.olingo.server.api.uri.UriResourceEntitySet;
+import org.apache.olingo.server.api.uri.UriResourceNavigation;
+import org.apache.olingo.server.api.uri.queryoption.ExpandOption;
+import org.apache.olingo.server.api.uri.queryoption.SelectOption;
 import org.springframework.stereotype.Component;
 
 /**
- * Processes single instance of an Entity Type by accessing an Elasticsearch document.
+ * Processes single instance of an Entity Type by accessing an Elasticsearch document. Writes are
+ * grouped with concurrent writes into Elasticsearch bulk requests.
  */
 @Component
 @RequiredArgsConstructor
 public class ElasticsearchEntityProcessor implements EntityProcessor {
 
   private final EntityRepository entityRepository;
+  private final ODataElasticsearchProperties properties;
+
   private OData odata;
   private ServiceMetadata serviceMetadata;
 
@@ -41,6 +56,36 @@ public class ElasticsearchEntityProcessor implements EntityProcessor {
     this.serviceMetadata = serviceMetadata;
   }
 
+  private boolean isDeferred() {
+    // Batch parts are written into the batch response body, so they cannot be deferred.
+    return properties.getAsync().isEnabled() && !BatchReads.isActive();
+  }
+
+  private static UriResourceEntitySet toEntitySetResource(UriInfo uriInfo, String operation)
+      throws NotImplementedException {
+
+    // First path segment is Entity Set.
+    List<UriResource> resourceParts = uriInfo.getUriResourceParts();
+    UriResourceEntitySet uriResourceEntitySet = (UriResourceEntitySet) resourceParts.get(0);
+    if (resourceParts.stream().anyMatch(UriResourceNavigation.class::isInstance)) {
+      throw Meters.countNotImplemented(
+          Meters.operation(uriResourceEntitySet.getEntitySet(), operation),
+          new NotImplementedException(
+              "Navigation in resource path not implemented", "navigation"));
+    }
+
+    return uriResourceEntitySet;
+  }
+
+  private Entity readRequestEntity(
+      ODataRequest request, EdmEntitySet entitySet, ContentType requestFormat)
+      throws ODataLibraryException {
+
+    ODataDeserializer deserializer = odata.createDeserializer(requestFormat);
+    return deserializer.entity(request.getBody(), entitySet.getEntityType())
+        .getEntity();
+  }
+
   @Override
   public void readEntity(
       ODataRequest request,
@@ -48,31 +93,146 @@ public class ElasticsearchEntityProcessor implements EntityProcessor {
       UriInfo uriInfo,
       ContentType responseFormat) throws ODataApplicationException, ODataLibraryException {
 
-    // First path segment is Entity Set.
-    List<UriResource> resourceParts = uriInfo.getUriResourceParts();
-    UriResourceEntitySet uriResourceEntitySet = (UriResourceEntitySet) resourceParts.get(0);
+    UriResourceEntitySet uriResourceEntitySet = toEntitySetResource(uriInfo, Meters.READ_ENTITY);
     EdmEntitySet entitySet = uriResourceEntitySet.getEntitySet();
     List<UriParameter> keyPredicates = uriResourceEntitySet.getKeyPredicates();
+    SelectOption selectOption = uriInfo.getSelectOption();
+    ExpandOption expandOption = uriInfo.getExpandOption();
 
-    // Retrieve entity from backend.
-    Entity entity = entityRepository.read(entitySet, keyPredicates);
-
-    // Serialize to response format.
     ContextURL contextUrl = ContextURL.with()
         .entitySet(entitySet)
+        .selectList(odata.createUriHelper()
+            .buildContextURLSelectList(entitySet.getEntityType(), expandOption, selectOption))
         .suffix(ContextURL.Suffix.ENTITY)
         .build();
     EntitySerializerOptions options = EntitySerializerOptions.with()
         .contextURL(contextUrl)
+        .select(selectOption)
+        .expand(expandOption)
         .build();
     ODataSerializer serializer = odata.createSerializer(responseFormat);
+    ETagHelper etagHelper = odata.createETagHelper();
+    ServiceMetadata metadata = serviceMetadata;
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.READ_ENTITY);
+    if (isDeferred()) {
+      // Retrieve entity from backend, and write response when it arrives.
+      response.setODataContent(new DeferredContent<>(
+          entityRepository.readAsync(entitySet, keyPredicates, selectOption, expandOption),
+          (entity, deferredResponse) -> writeEntity(
+              metadata,
+              etagHelper,
+              request,
+              deferredResponse,
+              entitySet,
+              serializer,
+              options,
+              responseFormat,
+              entity,
+              metrics)));
+    } else {
+      // Retrieve entity from backend.
+      Entity entity = entityRepository.read(
+          entitySet, keyPredicates, selectOption, expandOption, request);
+      writeEntity(
+          metadata,
+          etagHelper,
+          request,
+          response,
+          entitySet,
+          serializer,
+          options,
+          responseFormat,
+          entity,
+          metrics);
+    }
+  }
+
+  private static void writeEntity(
+      ServiceMetadata serviceMetadata,
+      ETagHelper etagHelper,
+      ODataRequest request,
+      ODataResponse response,
+      EdmEntitySet entitySet,
+      ODataSerializer serializer,
+      EntitySerializerOptions options,
+      ContentType responseFormat,
+      Entity entity,
+      OperationMetrics metrics) throws ODataLibraryException {
+
+    // The entity tag does not change when expanded entities change, so it cannot tell if the
+    // client has the current representation of an expanded entity.
+    if (entity.getNavigationLinks().isEmpty() &&
+        ETags.respondNotModified(etagHelper, request, response, entity.getETag())) {
+      return;
+    }
+
+    // Serialize to response format.
+    long startNanos = System.nanoTime();
     SerializerResult serializerResult = serializer.entity(
         serviceMetadata, entitySet.getEntityType(), entity, options);
+    metrics.recordSince(ODataMetrics.SERIALIZATION, startNanos);
 
     // Set response attributes.
     response.setContent(serializerResult.getContent());
     response.setStatusCode(HttpStatusCode.OK.getStatusCode());
     response.setHeader(HttpHeader.CONTENT_TYPE, responseFormat.toContentTypeString());
+    if (entity.getETag() != null) {
+      response.setHeader(HttpHeader.ETAG, entity.getETag());
+    }
+  }
+
+  private static void writeCreatedEntity(
+      ServiceMetadata serviceMetadata,
+      ODataRequest request,
+      ODataResponse response,
+      EdmEntitySet entitySet,
+      ODataSerializer serializer,
+      ContentType responseFormat,
+      boolean returnMinimal,
+      Entity entity,
+      OperationMetrics metrics) throws ODataLibraryException {
+
+    String location = request.getRawBaseUri() + "/" + entity.getId();
+    if (returnMinimal) {
+      response.setStatusCode(HttpStatusCode.NO_CONTENT.getStatusCode());
+      response.setHeader(HttpHeader.ODATA_ENTITY_ID, location);
+      response.setHeader(
+          HttpHeader.PREFERENCE_APPLIED,
+          PreferencesApplied.with()
+              .returnRepresentation(Preferences.Return.MINIMAL)
+              .build()
+              .toValueString());
+    } else {
+      ContextURL contextUrl = ContextURL.with()
+          .entitySet(entitySet)
+          .suffix(ContextURL.Suffix.ENTITY)
+          .build();
+      EntitySerializerOptions options = EntitySerializerOptions.with()
+          .contextURL(contextUrl)
+          .build();
+
+      // Serialize to response format.
+      long startNanos = System.nanoTime();
+      SerializerResult serializerResult = serializer.entity(
+          serviceMetadata, entitySet.getEntityType(), entity, options);
+      metrics.recordSince(ODataMetrics.SERIALIZATION, startNanos);
+
+      response.setContent(serializerResult.getContent());
+      response.setStatusCode(HttpStatusCode.CREATED.getStatusCode());
+      response.setHeader(HttpHeader.CONTENT_TYPE, responseFormat.toContentTypeString());
+    }
+
+    response.setHeader(HttpHeader.LOCATION, location);
+    if (entity.getETag() != null) {
+      response.setHeader(HttpHeader.ETAG, entity.getETag());
+    }
+  }
+
+  private static void writeNoContent(ODataResponse response, String etag) {
+    response.setStatusCode(HttpStatusCode.NO_CONTENT.getStatusCode());
+    if (etag != null) {
+      response.setHeader(HttpHeader.ETAG, etag);
+    }
   }
 
   @Override
@@ -83,7 +243,40 @@ public class ElasticsearchEntityProcessor implements EntityProcessor {
       ContentType requestFormat,
       ContentType responseFormat) throws ODataApplicationException, ODataLibraryException {
 
-    throw new NotImplementedException("createEntity not implemented");
+    EdmEntitySet entitySet = toEntitySetResource(uriInfo, Meters.CREATE_ENTITY).getEntitySet();
+    Entity entity = readRequestEntity(request, entitySet, requestFormat);
+    ODataSerializer serializer = odata.createSerializer(responseFormat);
+    boolean returnMinimal = odata.createPreferences(request.getHeaders(HttpHeader.PREFER))
+        .getReturn() == Preferences.Return.MINIMAL;
+    ServiceMetadata metadata = serviceMetadata;
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.CREATE_ENTITY);
+    if (isDeferred()) {
+      // Write response when Elasticsearch acknowledges the bulk request.
+      response.setODataContent(new DeferredContent<>(
+          entityRepository.createAsync(entitySet, entity),
+          (createdEntity, deferredResponse) -> writeCreatedEntity(
+              metadata,
+              request,
+              deferredResponse,
+              entitySet,
+              serializer,
+              responseFormat,
+              returnMinimal,
+              createdEntity,
+              metrics)));
+    } else {
+      Entity createdEntity = entityRepository.create(entitySet, entity);
+      writeCreatedEntity(
+          metadata,
+          request,
+          response,
+          entitySet,
+          serializer,
+          responseFormat,
+          returnMinimal,
+          createdEntity,
+          metrics);
+    }
   }
 
   @Override
@@ -94,7 +287,24 @@ public class ElasticsearchEntityProcessor implements EntityProcessor {
       ContentType requestFormat,
       ContentType responseFormat) throws ODataApplicationException, ODataLibraryException {
 
-    throw new NotImplementedException("updateEntity not implemented");
+    UriResourceEntitySet uriResourceEntitySet =
+        toEntitySetResource(uriInfo, Meters.UPDATE_ENTITY);
+    EdmEntitySet entitySet = uriResourceEntitySet.getEntitySet();
+    List<UriParameter> keyPredicates = uriResourceEntitySet.getKeyPredicates();
+    Entity entity = readRequestEntity(request, entitySet, requestFormat);
+
+    // PUT replaces the entity, and PATCH changes only the given properties.
+    boolean replace = request.getMethod() == HttpMethod.PUT;
+    List<String> ifMatch = request.getHeaders(HttpHeader.IF_MATCH);
+    if (isDeferred()) {
+      response.setODataContent(new DeferredContent<>(
+          entityRepository.updateAsync(entitySet, keyPredicates, entity, replace, ifMatch),
+          (etag, deferredResponse) -> writeNoContent(deferredResponse, etag)));
+    } else {
+      writeNoContent(
+          response,
+          entityRepository.update(entitySet, keyPredicates, entity, replace, ifMatch));
+    }
   }
 
   @Override
@@ -103,6 +313,18 @@ public class ElasticsearchEntityProcessor implements EntityProcessor {
       ODataResponse response,
       UriInfo uriInfo) throws ODataApplicationException, ODataLibraryException {
 
-    throw new NotImplementedException("deleteEntity not implemented");
+    UriResourceEntitySet uriResourceEntitySet =
+        toEntitySetResource(uriInfo, Meters.DELETE_ENTITY);
+    EdmEntitySet entitySet = uriResourceEntitySet.getEntitySet();
+    List<UriParameter> keyPredicates = uriResourceEntitySet.getKeyPredicates();
+    List<String> ifMatch = request.getHeaders(HttpHeader.IF_MATCH);
+    if (isDeferred()) {
+      response.setODataContent(new DeferredContent<>(
+          entityRepository.deleteAsync(entitySet, keyPredicates, ifMatch),
+          (ignored, deferredResponse) -> writeNoContent(deferredResponse, null)));
+    } else {
+      entityRepository.delete(entitySet, keyPredicates, ifMatch);
+      writeNoContent(response, null);
+    }
   }
 }
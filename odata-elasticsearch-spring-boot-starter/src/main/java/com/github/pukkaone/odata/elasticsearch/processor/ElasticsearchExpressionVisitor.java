@@ -1,8 +1,10 @@
 package com.github.pukkaone.odata.elasticsearch.processor;
 
+import java.util.Collections;
 import java.util.List;
 import org.apache.olingo.commons.api.edm.EdmEnumType;
 import org.apache.olingo.commons.api.edm.EdmType;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.commons.core.edm.primitivetype.EdmString;
 import org.apache.olingo.server.api.ODataApplicationException;
 import org.apache.olingo.server.api.uri.queryoption.expression.BinaryOperatorKind;
@@ -13,18 +15,63 @@ import org.apache.olingo.server.api.uri.queryoption.expression.Literal;
 import org.apache.olingo.server.api.uri.queryoption.expression.Member;
 import org.apache.olingo.server.api.uri.queryoption.expression.MethodKind;
 import org.apache.olingo.server.api.uri.queryoption.expression.UnaryOperatorKind;
+import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 
 /**
- * Converts filter expression to Elasticsearch query.
+ * Converts filter expression to Elasticsearch query. Runs of the same logical operator are
+ * flattened into one bool query, and conjunctions use non-scoring filter clauses.
  */
 public class ElasticsearchExpressionVisitor implements ExpressionVisitor<Object> {
 
+  private static final String ID_FIELD_NAME = "_id";
+
+  private final int maxTerms;
+
+  /**
+   * Constructor.
+   *
+   * @param maxTerms
+   *     maximum number of values allowed in an in operator
+   */
+  public ElasticsearchExpressionVisitor(int maxTerms) {
+    this.maxTerms = maxTerms;
+  }
+
+  private static boolean isConjunction(QueryBuilder query) {
+    return query instanceof BoolQueryBuilder &&
+        ((BoolQueryBuilder) query).should().isEmpty();
+  }
+
+  private static boolean isDisjunction(QueryBuilder query) {
+    if (!(query instanceof BoolQueryBuilder)) {
+      return false;
+    }
+
+    BoolQueryBuilder bool = (BoolQueryBuilder) query;
+    return bool.must().isEmpty() &&
+        bool.filter().isEmpty() &&
+        bool.mustNot().isEmpty() &&
+        !bool.should().isEmpty();
+  }
+
+  private static void addConjuncts(BoolQueryBuilder conjunction, QueryBuilder query) {
+    if (isConjunction(query)) {
+      BoolQueryBuilder bool = (BoolQueryBuilder) query;
+      bool.must().forEach(conjunction::filter);
+      bool.filter().forEach(conjunction::filter);
+      bool.mustNot().forEach(conjunction::mustNot);
+    } else {
+      conjunction.filter(query);
+    }
+  }
+
   private static QueryBuilder and(QueryBuilder left, QueryBuilder right) {
-    return QueryBuilders.boolQuery()
-        .must(left)
-        .must(right);
+    BoolQueryBuilder conjunction = QueryBuilders.boolQuery();
+    addConjuncts(conjunction, left);
+    addConjuncts(conjunction, right);
+    return conjunction;
   }
 
   private static QueryBuilder eq(String fieldName, Object value) {
@@ -34,6 +81,11 @@ public class ElasticsearchExpressionVisitor implements ExpressionVisitor<Object>
           .mustNot(QueryBuilders.existsQuery(fieldName));
     }
 
+    if (ID_FIELD_NAME.equals(fieldName)) {
+      return QueryBuilders.idsQuery()
+          .addIds(value.toString());
+    }
+
     return QueryBuilders.termQuery(fieldName, value);
   }
 
@@ -47,6 +99,25 @@ public class ElasticsearchExpressionVisitor implements ExpressionVisitor<Object>
         .gt(value);
   }
 
+  private QueryBuilder in(String fieldName, List<Object> values)
+      throws ODataApplicationException {
+
+    if (values.size() > maxTerms) {
+      throw new ODataApplicationException(
+          String.format(
+              "Operator in has %d values, maximum allowed is %d", values.size(), maxTerms),
+          HttpStatusCode.BAD_REQUEST.getStatusCode(),
+          null);
+    }
+
+    if (ID_FIELD_NAME.equals(fieldName)) {
+      return QueryBuilders.idsQuery()
+          .addIds(values.stream().map(Object::toString).toArray(String[]::new));
+    }
+
+    return QueryBuilders.termsQuery(fieldName, values);
+  }
+
   private static QueryBuilder le(String fieldName, Object value) {
     return QueryBuilders.rangeQuery(fieldName)
         .lte(value);
@@ -68,15 +139,32 @@ public class ElasticsearchExpressionVisitor implements ExpressionVisitor<Object>
   }
 
   private static QueryBuilder not(QueryBuilder query) {
+    if (isConjunction(query)) {
+      BoolQueryBuilder bool = (BoolQueryBuilder) query;
+      if (bool.must().isEmpty() && bool.filter().isEmpty() && bool.mustNot().size() == 1) {
+        // Negating a negation.
+        return bool.mustNot().get(0);
+      }
+    }
+
     return QueryBuilders.boolQuery()
         .mustNot(query);
   }
 
+  private static void addDisjuncts(BoolQueryBuilder disjunction, QueryBuilder query) {
+    if (isDisjunction(query)) {
+      ((BoolQueryBuilder) query).should().forEach(disjunction::should);
+    } else {
+      disjunction.should(query);
+    }
+  }
+
   private static QueryBuilder or(QueryBuilder left, QueryBuilder right) {
-    return QueryBuilders.boolQuery()
-        .should(left)
-        .should(right)
+    BoolQueryBuilder disjunction = QueryBuilders.boolQuery()
         .minimumShouldMatch(1);
+    addDisjuncts(disjunction, left);
+    addDisjuncts(disjunction, right);
+    return disjunction;
   }
 
   @Override
@@ -94,6 +182,8 @@ public class ElasticsearchExpressionVisitor implements ExpressionVisitor<Object>
         return ge((String) left, right);
       case GT:
         return gt((String) left, right);
+      case IN:
+        return in((String) left, Collections.singletonList(right));
       case LE:
         return le((String) left, right);
       case LT:
@@ -103,7 +193,8 @@ public class ElasticsearchExpressionVisitor implements ExpressionVisitor<Object>
       case OR:
         return or((QueryBuilder) left, (QueryBuilder) right);
       default:
-        throw new NotImplementedException("Binary operator " + operator + " not implemented");
+        throw new NotImplementedException(
+            "Binary operator " + operator + " not implemented", operator.toString());
     }
   }
 
@@ -113,9 +204,14 @@ public class ElasticsearchExpressionVisitor implements ExpressionVisitor<Object>
       Object left,
       List<Object> right) throws ExpressionVisitException, ODataApplicationException {
 
+    if (operator == BinaryOperatorKind.IN) {
+      return in((String) left, right);
+    }
+
     if (right.size() > 1) {
       throw new NotImplementedException(
-          "visitBinaryOperator with more than 1 right operand not implemented");
+          "visitBinaryOperator with more than 1 right operand not implemented",
+          operator.toString());
     }
 
     return visitBinaryOperator(operator, left, right.get(0));
@@ -130,7 +226,8 @@ public class ElasticsearchExpressionVisitor implements ExpressionVisitor<Object>
       case NOT:
         return not((QueryBuilder) operand);
       default:
-        throw new NotImplementedException("Unary operator " + operator + " not implemented");
+        throw new NotImplementedException(
+            "Unary operator " + operator + " not implemented", operator.toString());
     }
   }
 
@@ -153,7 +250,8 @@ public class ElasticsearchExpressionVisitor implements ExpressionVisitor<Object>
       case STARTSWITH:
         return startsWith((String) parameters.get(0), (String) parameters.get(1));
       default:
-        throw new NotImplementedException("Method " + method + " not implemented");
+        throw new NotImplementedException(
+            "Method " + method + " not implemented", method.toString());
     }
   }
 
@@ -163,13 +261,17 @@ public class ElasticsearchExpressionVisitor implements ExpressionVisitor<Object>
       String lambdaVariable,
       Expression expression) throws ExpressionVisitException, ODataApplicationException {
 
-    throw new NotImplementedException("visitLambdaExpression not implemented");
+    throw new NotImplementedException("visitLambdaExpression not implemented", lambdaFunction);
   }
 
   @Override
   public Object visitLiteral(Literal literal)
       throws ExpressionVisitException, ODataApplicationException {
 
+    if (LiteralUtils.isNull(literal)) {
+      return null;
+    }
+
     String value = literal.getText();
     if (literal.getType() instanceof EdmString) {
       value = LiteralUtils.unquote(value);
@@ -182,6 +284,7 @@ public class ElasticsearchExpressionVisitor implements ExpressionVisitor<Object>
   public Object visitMember(Member member)
       throws ExpressionVisitException, ODataApplicationException {
 
+    MemberMapper.checkPropertyPath(member);
     return MemberMapper.toFieldName(member);
   }
 
@@ -189,21 +292,22 @@ public class ElasticsearchExpressionVisitor implements ExpressionVisitor<Object>
   public Object visitAlias(String aliasName)
       throws ExpressionVisitException, ODataApplicationException {
 
-    throw new NotImplementedException("visitAlias not implemented");
+    throw new NotImplementedException("visitAlias not implemented", "alias");
   }
 
   @Override
   public Object visitTypeLiteral(EdmType type)
       throws ExpressionVisitException, ODataApplicationException {
 
-    throw new NotImplementedException("visitTypeLiteral not implemented");
+    throw new NotImplementedException("visitTypeLiteral not implemented", "type");
   }
 
   @Override
   public Object visitLambdaReference(String variableName)
       throws ExpressionVisitException, ODataApplicationException {
 
-    throw new NotImplementedException("visitLambdaReference not implemented");
+    throw new NotImplementedException(
+        "visitLambdaReference not implemented", "lambdaReference");
   }
 
   @Override
@@ -211,6 +315,6 @@ public class ElasticsearchExpressionVisitor implements ExpressionVisitor<Object>
       EdmEnumType type,
       List<String> enumValues) throws ExpressionVisitException, ODataApplicationException {
 
-    throw new NotImplementedException("visitEnum not implemented");
+    throw new NotImplementedException("visitEnum not implemented", "enum");
   }
 }
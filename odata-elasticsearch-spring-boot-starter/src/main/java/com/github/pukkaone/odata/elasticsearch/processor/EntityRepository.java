@@ -1,219 +1,418 @@
 package com.github.pukkaone.odata.elasticsearch.processor;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.pukkaone.odata.elasticsearch.autoconfigure.ODataElasticsearchProperties;
+import com.github.pukkaone.odata.web.metrics.MetricTags;
+import com.github.pukkaone.odata.web.metrics.OperationMetrics;
+import com.github.pukkaone.odata.web.metrics.RequestMetrics;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
-import lombok.extern.slf4j.Slf4j;
-import org.apache.olingo.commons.api.data.ComplexValue;
+import org.apache.http.util.EntityUtils;
 import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.data.EntityCollection;
 import org.apache.olingo.commons.api.data.Property;
 import org.apache.olingo.commons.api.data.ValueType;
-import org.apache.olingo.commons.api.edm.EdmComplexType;
-import org.apache.olingo.commons.api.edm.EdmElement;
 import org.apache.olingo.commons.api.edm.EdmEntitySet;
-import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeException;
-import org.apache.olingo.commons.api.edm.EdmProperty;
-import org.apache.olingo.commons.api.edm.EdmStructuredType;
-import org.apache.olingo.commons.api.edm.constants.EdmTypeKind;
-import org.apache.olingo.commons.api.edm.geo.Geospatial;
-import org.apache.olingo.commons.api.edm.geo.Point;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
-import org.apache.olingo.commons.core.edm.primitivetype.EdmBinary;
-import org.apache.olingo.commons.core.edm.primitivetype.EdmDate;
-import org.apache.olingo.commons.core.edm.primitivetype.EdmDateTimeOffset;
-import org.apache.olingo.commons.core.edm.primitivetype.EdmGeographyPoint;
 import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.ODataRequest;
 import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.api.uri.UriInfoKind;
 import org.apache.olingo.server.api.uri.UriParameter;
+import org.apache.olingo.server.api.uri.UriResource;
+import org.apache.olingo.server.api.uri.UriResourceEntitySet;
+import org.apache.olingo.server.api.uri.queryoption.ExpandOption;
 import org.apache.olingo.server.api.uri.queryoption.FilterOption;
-import org.apache.olingo.server.api.uri.queryoption.OrderByItem;
+import org.apache.olingo.server.api.uri.queryoption.SearchOption;
+import org.apache.olingo.server.api.uri.queryoption.SelectOption;
+import org.apache.olingo.server.api.uri.queryoption.SkipTokenOption;
 import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
-import org.apache.olingo.server.api.uri.queryoption.expression.Member;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Request;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.Requests;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.seqno.SequenceNumbers;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
 import org.springframework.stereotype.Component;
 
 /**
- * Reads entity from Elasticsearch.
+ * Reads and writes entities in Elasticsearch.
  */
 @Component
 @RequiredArgsConstructor
-@Slf4j
 public class EntityRepository {
 
+  private static final String ID_FIELD_NAME = "_id";
+  private static final List<String> PAGING_OPTION_NAMES = Arrays.asList(
+      "$skip", "$skiptoken", "$top");
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
   private final RestHighLevelClient elasticsearchClient;
+  private final ODataElasticsearchProperties properties;
+  private final QueryPlanCache queryPlanCache;
+  private final BulkWriter bulkWriter;
 
   private String toIndexName(EdmEntitySet entitySet) {
     return entitySet.getName();
   }
 
-  private static ComplexValue toComplexValue(
-      EdmComplexType complexType, Map<String, Object> source) {
+  private static URI toEntityId(EdmEntitySet entitySet, String entityId) {
+    return URI.create(entitySet.getName() + "('" + entityId + "')");
+  }
+
+  private static Entity toEntity(
+      EdmEntitySet entitySet,
+      StructuredTypeConverter converter,
+      String entityId,
+      String etag,
+      Map<String, Object> source,
+      Set<String> selectedPropertyNames) {
+
+    Entity entity = new Entity();
+    entity.setId(toEntityId(entitySet, entityId));
+    entity.setETag(etag);
+
+    Property property = new Property(null, "_id", ValueType.PRIMITIVE, entityId);
+    entity.addProperty(property);
 
     if (source == null) {
-      return null;
+      // Source was not fetched because only document ID was selected.
+      source = Collections.emptyMap();
     }
 
-    ComplexValue complexValue = new ComplexValue();
-    addProperties(complexType, source, complexValue.getValue());
-    return complexValue;
+    converter.addProperties(source, selectedPropertyNames, entity.getProperties());
+    return entity;
   }
 
-  @SuppressWarnings("unchecked")
-  private static List<ComplexValue> toCollection(EdmComplexType complexType, Object source) {
-    if (source == null) {
-      return null;
-    }
+  private static Entity toEntity(
+      EdmEntitySet entitySet,
+      String entityId,
+      String etag,
+      Map<String, Object> source,
+      Set<String> selectedPropertyNames) {
 
-    if (source instanceof List) {
-      return ((List<Map<String, Object>>) source).stream()
-          .map(element -> toComplexValue(complexType, element))
-          .collect(Collectors.toList());
-    }
+    return toEntity(
+        entitySet,
+        StructuredTypeConverter.of(entitySet.getEntityType()),
+        entityId,
+        etag,
+        source,
+        selectedPropertyNames);
+  }
+
+  /**
+   * Converts search hit to entity.
+   *
+   * @param entitySet
+   *     Entity Set the hit was found in
+   * @param converter
+   *     converter for the Entity Type of the Entity Set, looked up once for all hits of a page
+   * @param hit
+   *     search hit
+   * @param selectedPropertyNames
+   *     names of properties to convert, or null to convert all properties
+   * @return entity
+   */
+  static Entity toEntity(
+      EdmEntitySet entitySet,
+      StructuredTypeConverter converter,
+      SearchHit hit,
+      Set<String> selectedPropertyNames) {
+
+    return toEntity(
+        entitySet,
+        converter,
+        hit.getId(),
+        ETags.toETag(hit.getPrimaryTerm(), hit.getSeqNo()),
+        hit.getSourceAsMap(),
+        selectedPropertyNames);
+  }
+
+  private static Entity toEntity(
+      EdmEntitySet entitySet,
+      GetResponse getResponse,
+      Set<String> selectedPropertyNames,
+      OperationMetrics metrics) {
+
+    long startNanos = System.nanoTime();
+    Entity entity = toEntity(
+        entitySet,
+        getResponse.getId(),
+        ETags.toETag(getResponse.getPrimaryTerm(), getResponse.getSeqNo()),
+        getResponse.getSource(),
+        selectedPropertyNames);
+    metrics.recordSince(Meters.HIT_CONVERSION, startNanos);
+    return entity;
+  }
+
+  private static ODataApplicationException toNotFoundException() {
+    return new ODataApplicationException(
+        "Entity not found", HttpStatusCode.NOT_FOUND.getStatusCode(), null);
+  }
 
-    return Collections.singletonList(toComplexValue(complexType, (Map<String, Object>) source));
+  private static String toDocumentId(List<UriParameter> keyPredicates) {
+    return LiteralUtils.unquote(keyPredicates.get(0).getText());
   }
 
-  private static byte[] toByteArray(String sourceValue) {
+  private GetRequest toGetRequest(
+      EdmEntitySet entitySet,
+      List<UriParameter> keyPredicates,
+      SelectOption selectOption,
+      List<NavigationExpansion> expansions) {
+
+    return Requests.getRequest(toIndexName(entitySet))
+        .id(toDocumentId(keyPredicates))
+        .fetchSourceContext(SelectOptionMapper.toFetchSourceContext(
+            selectOption, NavigationExpansion.toForeignKeyFields(expansions)));
+  }
+
+  private static <T> CompletableFuture<T> execute(
+      Function<ActionListener<T>, Cancellable> requestSender) {
+
+    // Cancelling the future cancels the request to Elasticsearch.
+    CompletableFuture<T> future = new CompletableFuture<>();
+    Cancellable cancellable = requestSender.apply(
+        ActionListener.wrap(future::complete, future::completeExceptionally));
+    future.whenComplete((result, e) -> {
+      if (future.isCancelled()) {
+        cancellable.cancel();
+      }
+    });
+    return future;
+  }
+
+  private static <T> CompletableFuture<T> propagateCancel(
+      CompletableFuture<T> result, CompletableFuture<?> request) {
+
+    // Cancelling a dependent stage does not cancel the future it depends on, so cancel the request
+    // explicitly. Requests started by later stages run to completion, and their results are
+    // discarded.
+    result.whenComplete((value, e) -> {
+      if (result.isCancelled()) {
+        request.cancel(false);
+      }
+    });
+    return result;
+  }
+
+  private static List<NavigationExpansion> toExpansions(
+      EdmEntitySet entitySet, ExpandOption expandOption, OperationMetrics metrics)
+      throws NotImplementedException {
+
     try {
-      return EdmBinary.getInstance().valueOfString(
-          sourceValue,
-          true,
-          null,
-          null,
-          null,
-          null,
-          byte[].class);
-    } catch (EdmPrimitiveTypeException e) {
-      throw new IllegalStateException("Cannot convert to EdmBinary", e);
+      return NavigationExpansion.of(entitySet, expandOption);
+    } catch (NotImplementedException e) {
+      throw Meters.countNotImplemented(metrics, e);
     }
   }
 
-  private static Date toDate(String sourceValue) {
-    try {
-      return EdmDateTimeOffset.getInstance().valueOfString(
-          sourceValue,
-          true,
-          null,
-          null,
-          null,
-          null,
-          Date.class);
-    } catch (EdmPrimitiveTypeException dateTimeOffsetException) {
-      try {
-        return EdmDate.getInstance().valueOfString(
-            sourceValue,
-            true,
-            null,
-            null,
-            null,
-            null,
-            Date.class);
-      } catch (EdmPrimitiveTypeException e) {
-        throw new IllegalStateException("Cannot convert to EdmDate: " + sourceValue, e);
+  private static void putRelatedEntity(
+      Map<String, List<Entity>> keyToEntitiesMap, String key, Entity entity) {
+
+    keyToEntitiesMap.computeIfAbsent(key, ignored -> new ArrayList<>())
+        .add(entity);
+  }
+
+  private static Map<String, List<Entity>> toRelatedEntities(
+      NavigationExpansion expansion, MultiGetResponse response, OperationMetrics metrics) {
+
+    long startNanos = System.nanoTime();
+    EdmEntitySet entitySet = expansion.getTargetEntitySet();
+    StructuredTypeConverter converter = StructuredTypeConverter.of(entitySet.getEntityType());
+    Map<String, List<Entity>> keyToEntitiesMap = new HashMap<>();
+    for (MultiGetItemResponse item : response) {
+      if (!item.isFailed() && item.getResponse().isExists()) {
+        GetResponse getResponse = item.getResponse();
+        putRelatedEntity(
+            keyToEntitiesMap,
+            getResponse.getId(),
+            toEntity(
+                entitySet,
+                converter,
+                getResponse.getId(),
+                ETags.toETag(getResponse.getPrimaryTerm(), getResponse.getSeqNo()),
+                getResponse.getSource(),
+                expansion.getSelectedPropertyNames()));
       }
     }
+
+    metrics.recordSince(Meters.HIT_CONVERSION, startNanos);
+    return keyToEntitiesMap;
   }
 
-  private static Point toPoint(Map<String, Double> sourcePoint) {
-    if (sourcePoint == null) {
-      return null;
+  private static Map<String, List<Entity>> toRelatedEntities(
+      NavigationExpansion expansion, SearchResponse response, OperationMetrics metrics) {
+
+    long startNanos = System.nanoTime();
+    EdmEntitySet entitySet = expansion.getTargetEntitySet();
+    StructuredTypeConverter converter = StructuredTypeConverter.of(entitySet.getEntityType());
+    Map<String, List<Entity>> keyToEntitiesMap = new HashMap<>();
+    for (SearchHit hit : response.getHits()) {
+      Entity entity = toEntity(
+          entitySet, converter, hit, expansion.getSelectedPropertyNames());
+      for (String key : NavigationExpansion.toKeys(
+          hit.getSourceAsMap().get(expansion.getTargetKey()))) {
+        putRelatedEntity(keyToEntitiesMap, key, entity);
+      }
     }
 
-    Point point = new Point(Geospatial.Dimension.GEOGRAPHY, null);
-    point.setY(sourcePoint.get("lat"));
-    point.setX(sourcePoint.get("lon"));
-    return point;
-  }
-
-  @SuppressWarnings("unchecked")
-  private static Property toProperty(
-      String propertyName, Object sourceValue, EdmProperty description) {
-
-    ValueType valueType;
-    Object value;
-    EdmTypeKind kind = description.getType().getKind();
-    switch (kind) {
-      case COMPLEX:
-        if (description.isCollection()) {
-          valueType = ValueType.COLLECTION_COMPLEX;
-          value = toCollection(
-              (EdmComplexType) description.getType(), sourceValue);
-        } else if (sourceValue instanceof List) {
-          valueType = ValueType.COMPLEX;
-          List<Map<String, Object>> list = (List<Map<String, Object>>) sourceValue;
-          if (list.isEmpty()) {
-            value = null;
-          } else {
-            log.warn("Discarded all elements from list {} except first", propertyName);
-            value = toComplexValue(
-                (EdmComplexType) description.getType(), list.get(0));
-          }
-        } else {
-          valueType = ValueType.COMPLEX;
-          value = toComplexValue(
-              (EdmComplexType) description.getType(), (Map<String, Object>) sourceValue);
-        }
-        break;
-      case PRIMITIVE:
-        valueType = ValueType.PRIMITIVE;
-        if (description.getType() instanceof EdmBinary) {
-          value = toByteArray((String) sourceValue);
-        } else if (description.getType() instanceof EdmDateTimeOffset) {
-          value = toDate((String) sourceValue);
-        } else if (description.getType() instanceof EdmGeographyPoint) {
-          value = toPoint((Map<String, Double>) sourceValue);
-        } else {
-          value = sourceValue;
-        }
-        break;
-      default:
-        throw new UnsupportedOperationException("Cannot convert from EdmTypeKind " + kind);
+    metrics.recordSince(Meters.HIT_CONVERSION, startNanos);
+    return keyToEntitiesMap;
+  }
+
+  private CompletableFuture<Map<String, List<Entity>>> readRelatedAsync(
+      NavigationExpansion expansion, Set<String> keys, OperationMetrics metrics) {
+
+    if (keys.isEmpty()) {
+      return CompletableFuture.completedFuture(Collections.emptyMap());
+    }
+
+    String indexName = toIndexName(expansion.getTargetEntitySet());
+    if (expansion.isTargetKeyDocumentId()) {
+      MultiGetRequest multiGetRequest = new MultiGetRequest();
+      for (String key : keys) {
+        multiGetRequest.add(new MultiGetRequest.Item(indexName, key)
+            .fetchSourceContext(expansion.getFetchSourceContext()));
+      }
+
+      long startNanos = System.nanoTime();
+      return execute((ActionListener<MultiGetResponse> listener) ->
+          elasticsearchClient.mgetAsync(multiGetRequest, RequestOptions.DEFAULT, listener))
+          .thenApply(response -> {
+            Meters.recordRoundTrip(metrics, startNanos, null);
+            return toRelatedEntities(expansion, response, metrics);
+          });
     }
 
-    return new Property(null, propertyName, valueType, value);
+    // Read one more than the maximum to detect if related entities would be left out.
+    int maxResults = properties.getExpand().getMaxResults();
+    SearchSourceBuilder searchSource = new SearchSourceBuilder()
+        .query(QueryBuilders.boolQuery()
+            .filter(QueryBuilders.termsQuery(expansion.getTargetKey(), keys)))
+        .fetchSource(expansion.getFetchSourceContext())
+        .seqNoAndPrimaryTerm(true)
+        .size(maxResults + 1)
+        .trackTotalHits(false);
+    return searchAsync(Requests.searchRequest(indexName).source(searchSource), metrics)
+        .thenApply(response -> {
+          if (response.getHits().getHits().length > maxResults) {
+            throw new CompletionException(new ODataApplicationException(
+                String.format(
+                    "Expanding %s reads more than maximum %d related entities",
+                    expansion.getName(),
+                    maxResults),
+                HttpStatusCode.BAD_REQUEST.getStatusCode(),
+                null));
+          }
+
+          return toRelatedEntities(expansion, response, metrics);
+        });
   }
 
-  private static void addProperties(
-      EdmStructuredType structuredType, Map<String, Object> source, List<Property> properties) {
+  private CompletableFuture<ExpandedEntities> expandAsync(
+      List<NavigationExpansion> expansions,
+      Collection<Map<String, Object>> sources,
+      OperationMetrics metrics) {
 
-    for (String propertyName : structuredType.getPropertyNames()) {
-      Object sourceValue = source.get(propertyName);
-      EdmElement description = structuredType.getProperty(propertyName);
-      if (description instanceof EdmProperty) {
-        Property property = toProperty(propertyName, sourceValue, (EdmProperty) description);
-        properties.add(property);
-      } else {
-        log.debug("Skipping property name {}, description {}", propertyName, description);
+    if (expansions.isEmpty()) {
+      return CompletableFuture.completedFuture(ExpandedEntities.NONE);
+    }
+
+    // Send one request per navigation property for the foreign keys of all the documents in the
+    // page, instead of one request per document. The requests are in flight concurrently.
+    List<CompletableFuture<Map<String, List<Entity>>>> futures = new ArrayList<>();
+    for (NavigationExpansion expansion : expansions) {
+      Set<String> keys = new LinkedHashSet<>();
+      for (Map<String, Object> source : sources) {
+        keys.addAll(expansion.toForeignKeys(source));
       }
+
+      futures.add(readRelatedAsync(expansion, keys, metrics));
     }
+
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+        .thenApply(ignored -> {
+          ExpandedEntities expandedEntities = new ExpandedEntities();
+          for (int i = 0; i < expansions.size(); ++i) {
+            expandedEntities.put(expansions.get(i), futures.get(i).join());
+          }
+
+          return expandedEntities;
+        });
   }
 
-  private static Entity toEntity(
-      EdmEntitySet entitySet, String entityId, Map<String, Object> source) {
+  private ExpandedEntities expand(
+      List<NavigationExpansion> expansions,
+      Collection<Map<String, Object>> sources,
+      OperationMetrics metrics) throws ODataApplicationException {
 
-    Entity entity = new Entity();
-    entity.setId(URI.create(entitySet.getName() + "('" + entityId + "')"));
+    try {
+      return expandAsync(expansions, sources, metrics).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof ODataApplicationException) {
+        throw (ODataApplicationException) e.getCause();
+      }
 
-    Property property = new Property(null, "_id", ValueType.PRIMITIVE, entityId);
-    entity.addProperty(property);
+      throw new IllegalStateException("Cannot read related entities", e.getCause());
+    }
+  }
 
-    addProperties(entitySet.getEntityType(), source, entity.getProperties());
-    return entity;
+  private static List<Map<String, Object>> toSources(List<SearchHit> hits) {
+    List<Map<String, Object>> sources = new ArrayList<>();
+    hits.forEach(hit -> sources.add(hit.getSourceAsMap()));
+    return sources;
   }
 
   /**
@@ -223,41 +422,144 @@ public class EntityRepository {
    *     Entity Set to read from
    * @param keyPredicates
    *     contains entity primary key
+   * @param selectOption
+   *     properties to read, may be null
+   * @param expandOption
+   *     navigation properties to read related entities of, may be null
+   * @param request
+   *     request, used to find response fetched in advance for a batch
    * @return entity
+   * @throws ODataApplicationException
+   *     if the entity was not found, or error occurred handling expand option
    */
-  public Entity read(EdmEntitySet entitySet, List<UriParameter> keyPredicates) {
-    String indexName = toIndexName(entitySet);
-    String entityId = LiteralUtils.unquote(keyPredicates.get(0).getText());
+  public Entity read(
+      EdmEntitySet entitySet,
+      List<UriParameter> keyPredicates,
+      SelectOption selectOption,
+      ExpandOption expandOption,
+      ODataRequest request) throws ODataApplicationException {
 
-    GetRequest getRequest = Requests.getRequest(indexName)
-        .id(entityId);
-    Map<String, Object> source = null;
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.READ_ENTITY);
+    List<NavigationExpansion> expansions = toExpansions(entitySet, expandOption, metrics);
+    GetRequest getRequest = toGetRequest(entitySet, keyPredicates, selectOption, expansions);
+    GetResponse getResponse;
     try {
-      source = elasticsearchClient.get(getRequest, RequestOptions.DEFAULT)
-          .getSource();
+      getResponse = BatchReads.findGetResponse(request);
+      if (getResponse == null) {
+        long startNanos = System.nanoTime();
+        getResponse = elasticsearchClient.get(getRequest, RequestOptions.DEFAULT);
+        Meters.recordRoundTrip(metrics, startNanos, null);
+      }
     } catch (IOException e) {
       throw new IllegalStateException(
-          String.format("Cannot get, index %s, id %s", indexName, entityId),
+          String.format("Cannot get, index %s, id %s", getRequest.index(), getRequest.id()),
           e);
     }
 
-    return toEntity(entitySet, entityId, source);
+    if (!getResponse.isExists()) {
+      throw toNotFoundException();
+    }
+
+    Entity entity = toEntity(
+        entitySet,
+        getResponse,
+        SelectOptionMapper.toSelectedPropertyNames(selectOption),
+        metrics);
+    Map<String, Object> source = getResponse.getSource();
+    expand(expansions, Collections.singletonList(source), metrics)
+        .link(entity, source);
+    return entity;
   }
 
-  private static QueryBuilder toQueryBuilder(FilterOption filterOption)
-      throws ODataApplicationException {
+  /**
+   * Reads single instance of an Entity Type without waiting for Elasticsearch to respond.
+   * Cancelling the returned future cancels the Elasticsearch request.
+   *
+   * @param entitySet
+   *     Entity Set to read from
+   * @param keyPredicates
+   *     contains entity primary key
+   * @param selectOption
+   *     properties to read, may be null
+   * @param expandOption
+   *     navigation properties to read related entities of, may be null
+   * @return future entity
+   * @throws ODataApplicationException
+   *     if error occurred handling expand option
+   */
+  public CompletableFuture<Entity> readAsync(
+      EdmEntitySet entitySet,
+      List<UriParameter> keyPredicates,
+      SelectOption selectOption,
+      ExpandOption expandOption) throws ODataApplicationException {
 
-    if (filterOption == null) {
-      return QueryBuilders.matchAllQuery();
-    }
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.READ_ENTITY);
+    List<NavigationExpansion> expansions = toExpansions(entitySet, expandOption, metrics);
+    GetRequest getRequest = toGetRequest(entitySet, keyPredicates, selectOption, expansions);
+    Set<String> selectedPropertyNames = SelectOptionMapper.toSelectedPropertyNames(selectOption);
+    long startNanos = System.nanoTime();
+    CompletableFuture<GetResponse> future = execute(listener ->
+        elasticsearchClient.getAsync(getRequest, RequestOptions.DEFAULT, listener));
+    return propagateCancel(
+        future.thenCompose(getResponse -> {
+          Meters.recordRoundTrip(metrics, startNanos, null);
+          if (!getResponse.isExists()) {
+            throw new CompletionException(toNotFoundException());
+          }
+
+          Entity entity = toEntity(entitySet, getResponse, selectedPropertyNames, metrics);
+          Map<String, Object> source = getResponse.getSource();
+          return expandAsync(expansions, Collections.singletonList(source), metrics)
+              .thenApply(expandedEntities -> {
+                expandedEntities.link(entity, source);
+                return entity;
+              });
+        }),
+        future);
+  }
+
+  private BoolQueryBuilder toFilterQueryBuilder(FilterOption filterOption)
+      throws ODataApplicationException {
 
+    QueryBuilder query;
     try {
-      return (QueryBuilder) filterOption.getExpression()
-          .accept(new ElasticsearchExpressionVisitor());
+      query = (QueryBuilder) filterOption.getExpression()
+          .accept(new ElasticsearchExpressionVisitor(properties.getFilter().getMaxTerms()));
     } catch (ExpressionVisitException e) {
       throw new ODataApplicationException(
           "accept failed", HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(), null, e);
     }
+
+    return toFilterContext(query);
+  }
+
+  private static BoolQueryBuilder toFilterContext(QueryBuilder query) {
+    // Filter does not affect relevance, so run it in non-scoring filter context, where
+    // Elasticsearch can cache the matching documents.
+    if (query instanceof BoolQueryBuilder) {
+      BoolQueryBuilder bool = (BoolQueryBuilder) query;
+      if (bool.must().isEmpty() && bool.should().isEmpty()) {
+        return bool;
+      }
+    }
+
+    return QueryBuilders.boolQuery()
+        .filter(query);
+  }
+
+  private QueryBuilder toQueryBuilder(
+      EdmEntitySet entitySet, UriInfo uriInfo, QueryBuilder filterQuery) {
+
+    SearchOption searchOption = uriInfo.getSearchOption();
+    if (searchOption == null) {
+      return (filterQuery == null)
+          ? QueryBuilders.matchAllQuery() : toFilterContext(filterQuery);
+    }
+
+    // Search terms score the documents which pass the filter.
+    BoolQueryBuilder query = (filterQuery == null)
+        ? QueryBuilders.boolQuery() : toFilterContext(filterQuery);
+    return query.must(SearchOptionMapper.toQueryBuilder(searchOption, entitySet.getEntityType()));
   }
 
   private static void configurePaging(UriInfo uriInfo, SearchSourceBuilder searchSource) {
@@ -268,16 +570,283 @@ public class EntityRepository {
     searchSource.size(top);
   }
 
-  private static void configureSorting(UriInfo uriInfo, SearchSourceBuilder searchSource) {
-    if (uriInfo.getOrderByOption() == null) {
+  private void configureSorting(
+      UriInfo uriInfo, QueryPlan queryPlan, SearchSourceBuilder searchSource) {
+
+    List<SortBuilder<?>> sorts = queryPlan.createSorts();
+    if (sorts == null) {
+      if (uriInfo.getSearchOption() != null) {
+        // Most relevant first.
+        searchSource.sort(SortBuilders.scoreSort());
+      } else if (!properties.getPaging().isServerDriven()) {
+        // Index order is the cheapest sort, and lets Elasticsearch stop collecting early.
+        searchSource.sort(FieldSortBuilder.DOC_FIELD_NAME, SortOrder.ASC);
+      }
+
       return;
     }
 
-    for (OrderByItem orderByItem : uriInfo.getOrderByOption().getOrders()) {
-      searchSource.sort(
-          MemberMapper.toFieldName((Member) orderByItem.getExpression()),
-          orderByItem.isDescending() ? SortOrder.DESC : SortOrder.ASC);
+    sorts.forEach(searchSource::sort);
+  }
+
+  private static int toPageSize(UriInfo uriInfo, int maxPageSize) {
+    return (uriInfo.getTopOption() == null)
+        ? maxPageSize : Math.min(uriInfo.getTopOption().getValue(), maxPageSize);
+  }
+
+  private int toServerDrivenPageSize(UriInfo uriInfo) {
+    return toPageSize(uriInfo, properties.getPaging().getPageSize());
+  }
+
+  private TimeValue toPointInTimeKeepAlive() {
+    return TimeValue.timeValueMillis(
+        properties.getPaging().getPointInTimeKeepAlive().toMillis());
+  }
+
+  private String openPointInTime(String indexName) {
+    Request request = new Request("POST", "/" + indexName + "/_pit");
+    request.addParameter("keep_alive", toPointInTimeKeepAlive().getStringRep());
+    try {
+      Response response = elasticsearchClient.getLowLevelClient().performRequest(request);
+      try (InputStream content = response.getEntity().getContent()) {
+        return OBJECT_MAPPER.readTree(content).get("id").asText();
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot open point in time, index " + indexName, e);
+    }
+  }
+
+  private void closePointInTime(String pointInTimeId) {
+    Request request = new Request("DELETE", "/_pit");
+    request.setJsonEntity(OBJECT_MAPPER.createObjectNode()
+        .put("id", pointInTimeId)
+        .toString());
+
+    // Do not wait for the response. If the close fails, the point in time expires after the keep
+    // alive anyway.
+    performRequestAsync(request);
+  }
+
+  private SearchRequest configureServerDrivenPaging(
+      String indexName, UriInfo uriInfo, SearchSourceBuilder searchSource)
+      throws ODataApplicationException {
+
+    // Fetch one more hit than the page holds to find out if there is a next page, so a last page
+    // which is exactly full does not link to an empty page. No next page is needed when the
+    // requested top fits on this page.
+    int pageSize = toServerDrivenPageSize(uriInfo);
+    boolean lastPage =
+        uriInfo.getTopOption() != null && uriInfo.getTopOption().getValue() <= pageSize;
+
+    // Sort on document ID breaks ties, so search_after continues from a unique position.
+    searchSource.sort(ID_FIELD_NAME, SortOrder.ASC)
+        .size(lastPage ? pageSize : pageSize + 1);
+
+    String pointInTimeId = null;
+    SkipTokenOption skipTokenOption = uriInfo.getSkipTokenOption();
+    if (skipTokenOption == null) {
+      // The first page does not open a point in time, because all results may fit on it.
+      int skip = (uriInfo.getSkipOption() == null) ? 0 : uriInfo.getSkipOption().getValue();
+      searchSource.from(skip);
+    } else {
+      SkipToken skipToken = SkipToken.decode(skipTokenOption.getValue());
+      searchSource.searchAfter(skipToken.getSortValues());
+      pointInTimeId = skipToken.getPointInTimeId();
+      if (pointInTimeId == null && properties.getPaging().isPointInTime()) {
+        pointInTimeId = openPointInTime(indexName);
+      }
+    }
+
+    if (pointInTimeId == null) {
+      return Requests.searchRequest(indexName)
+          .source(searchSource);
+    }
+
+    // Search using point in time must not specify index.
+    searchSource.pointInTimeBuilder(
+        new PointInTimeBuilder(pointInTimeId).setKeepAlive(toPointInTimeKeepAlive()));
+    return new SearchRequest()
+        .source(searchSource);
+  }
+
+  private static boolean isCountRequested(UriInfo uriInfo) {
+    return uriInfo.getCountOption() != null && uriInfo.getCountOption().getValue();
+  }
+
+  private void configureCounting(UriInfo uriInfo, SearchSourceBuilder searchSource) {
+    if (isCountRequested(uriInfo)) {
+      searchSource.trackTotalHitsUpTo(properties.getCount().getTrackTotalHitsUpTo());
+    } else {
+      // Skip counting matching documents, which lets Elasticsearch stop early.
+      searchSource.trackTotalHits(false);
+    }
+  }
+
+  private QueryPlan toQueryPlan(
+      EdmEntitySet entitySet, UriInfo uriInfo, QueryShape queryShape, OperationMetrics metrics)
+      throws ODataApplicationException {
+
+    try {
+      return queryPlanCache.get(entitySet, uriInfo, queryShape);
+    } catch (NotImplementedException e) {
+      throw Meters.countNotImplemented(metrics, e);
+    }
+  }
+
+  private SearchRequest toSearchRequest(
+      EdmEntitySet entitySet, UriInfo uriInfo, OperationMetrics metrics)
+      throws ODataApplicationException {
+
+    long startNanos = System.nanoTime();
+    QueryShape queryShape = QueryShape.of(uriInfo);
+    QueryPlan queryPlan = toQueryPlan(entitySet, uriInfo, queryShape, metrics);
+    QueryBuilder query = toQueryBuilder(
+        entitySet, uriInfo, queryPlan.bindFilter(queryShape.getLiterals()));
+    metrics.recordSince(Meters.QUERY_TRANSLATION, startNanos);
+
+    SearchSourceBuilder searchSource = new SearchSourceBuilder()
+        .query(query)
+        .fetchSource(queryPlan.getFetchSourceContext())
+        .seqNoAndPrimaryTerm(true);
+    configureSorting(uriInfo, queryPlan, searchSource);
+    configureCounting(uriInfo, searchSource);
+
+    String indexName = toIndexName(entitySet);
+    if (properties.getPaging().isServerDriven()) {
+      return configureServerDrivenPaging(indexName, uriInfo, searchSource);
+    }
+
+    configurePaging(uriInfo, searchSource);
+    return Requests.searchRequest(indexName)
+        .source(searchSource);
+  }
+
+  private SearchResponse search(SearchRequest searchRequest, OperationMetrics metrics) {
+    try {
+      long startNanos = System.nanoTime();
+      SearchResponse response = elasticsearchClient.search(searchRequest, RequestOptions.DEFAULT);
+      Meters.recordRoundTrip(metrics, startNanos, response.getTook());
+      return response;
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          "Cannot search, index " + String.join(",", searchRequest.indices()), e);
+    }
+  }
+
+  private static Integer toCount(UriInfo uriInfo, SearchResponse response) {
+    if (!isCountRequested(uriInfo) || response.getHits().getTotalHits() == null) {
+      return null;
+    }
+
+    return (int) Math.min(response.getHits().getTotalHits().value, Integer.MAX_VALUE);
+  }
+
+  private CompletableFuture<SearchResponse> searchAsync(
+      SearchRequest searchRequest, OperationMetrics metrics) {
+
+    long startNanos = System.nanoTime();
+    CompletableFuture<SearchResponse> future = execute(listener ->
+        elasticsearchClient.searchAsync(searchRequest, RequestOptions.DEFAULT, listener));
+
+    // Return the future from execute, so cancelling it still cancels the request.
+    future.thenAccept(response ->
+        Meters.recordRoundTrip(metrics, startNanos, response.getTook()));
+    return future;
+  }
+
+  private static String decodeQueryOptionName(String queryOption) {
+    int equalsIndex = queryOption.indexOf('=');
+    String name = (equalsIndex < 0) ? queryOption : queryOption.substring(0, equalsIndex);
+    try {
+      return URLDecoder.decode(name, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException("Cannot decode query option " + name, e);
+    }
+  }
+
+  private List<SearchHit> toPageHits(UriInfo uriInfo, SearchResponse response) {
+    List<SearchHit> hits = Arrays.asList(response.getHits().getHits());
+    if (!properties.getPaging().isServerDriven()) {
+      return hits;
+    }
+
+    // Leave out the hit fetched to find out if there is a next page.
+    return hits.subList(0, Math.min(hits.size(), toServerDrivenPageSize(uriInfo)));
+  }
+
+  private URI toNextLink(
+      ODataRequest request,
+      EdmEntitySet entitySet,
+      UriInfo uriInfo,
+      int hitCount,
+      Object[] lastSortValues,
+      String pointInTimeId) {
+
+    URI next = null;
+    int pageSize = toServerDrivenPageSize(uriInfo);
+    if (hitCount > pageSize) {
+      next = toNextLink(
+          request,
+          entitySet,
+          uriInfo,
+          pageSize,
+          new SkipToken(lastSortValues, pointInTimeId, null));
+    }
+
+    if (next == null && pointInTimeId != null) {
+      // Close the point in time after the last page instead of leaving it open until the keep
+      // alive expires.
+      closePointInTime(pointInTimeId);
+    }
+
+    return next;
+  }
+
+  private URI toNextLink(
+      ODataRequest request, EdmEntitySet entitySet, UriInfo uriInfo, SearchResponse response) {
+
+    if (!properties.getPaging().isServerDriven()) {
+      return null;
+    }
+
+    SearchHit[] hits = response.getHits().getHits();
+    int pageSize = toServerDrivenPageSize(uriInfo);
+    Object[] lastSortValues = (hits.length > pageSize) ? hits[pageSize - 1].getSortValues() : null;
+    return toNextLink(
+        request, entitySet, uriInfo, hits.length, lastSortValues, response.pointInTimeId());
+  }
+
+  private static URI toNextLink(
+      ODataRequest request,
+      EdmEntitySet entitySet,
+      UriInfo uriInfo,
+      int pageSize,
+      SkipToken skipToken) {
+
+    List<String> queryOptions = new ArrayList<>();
+    if (request.getRawQueryPath() != null) {
+      for (String queryOption : request.getRawQueryPath().split("&")) {
+        if (!queryOption.isEmpty() &&
+            !PAGING_OPTION_NAMES.contains(decodeQueryOptionName(queryOption))) {
+          queryOptions.add(queryOption);
+        }
+      }
+    }
+
+    if (uriInfo.getTopOption() != null) {
+      int remaining = uriInfo.getTopOption().getValue() - pageSize;
+      if (remaining <= 0) {
+        return null;
+      }
+
+      queryOptions.add("$top=" + remaining);
     }
+
+    queryOptions.add("$skiptoken=" + skipToken.encode());
+
+    return URI.create(
+        request.getRawBaseUri() + "/" + entitySet.getName() + "?" +
+            String.join("&", queryOptions));
   }
 
   /**
@@ -286,38 +855,876 @@ public class EntityRepository {
    * @param entitySet
    *     Entity Set to read from
    * @param uriInfo
-   *     contains filter, order by and paging arguments
+   *     contains filter, order by, paging, select, expand and count arguments
+   * @param request
+   *     request, used to build link to next page
    * @return entities
    * @throws ODataApplicationException
-   *     if error occurred handling filter option
+   *     if error occurred handling filter or expand option
    */
-  public EntityCollection list(EdmEntitySet entitySet, UriInfo uriInfo)
+  public EntityCollection list(EdmEntitySet entitySet, UriInfo uriInfo, ODataRequest request)
       throws ODataApplicationException {
 
-    String indexName = toIndexName(entitySet);
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.READ_ENTITY_COLLECTION);
+    List<NavigationExpansion> expansions =
+        toExpansions(entitySet, uriInfo.getExpandOption(), metrics);
+    SearchResponse response = BatchReads.findSearchResponse(request);
+    if (response == null) {
+      response = search(toSearchRequest(entitySet, uriInfo, metrics), metrics);
+    }
 
-    SearchSourceBuilder searchSource = new SearchSourceBuilder()
-        .query(toQueryBuilder(uriInfo.getFilterOption()));
-    configurePaging(uriInfo, searchSource);
-    configureSorting(uriInfo, searchSource);
+    List<SearchHit> hits = toPageHits(uriInfo, response);
+    return toEntityCollection(
+        entitySet,
+        uriInfo,
+        request,
+        response,
+        hits,
+        expand(expansions, toSources(hits), metrics),
+        metrics);
+  }
 
-    SearchRequest searchRequest = Requests.searchRequest(indexName)
-        .source(searchSource);
+  /**
+   * Reads multiple instances of an Entity Type without waiting for Elasticsearch to respond.
+   * Cancelling the returned future cancels the Elasticsearch request.
+   *
+   * @param entitySet
+   *     Entity Set to read from
+   * @param uriInfo
+   *     contains filter, order by, paging, select, expand and count arguments
+   * @param request
+   *     request, used to build link to next page
+   * @return future entities
+   * @throws ODataApplicationException
+   *     if error occurred handling filter or expand option
+   */
+  public CompletableFuture<EntityCollection> listAsync(
+      EdmEntitySet entitySet, UriInfo uriInfo, ODataRequest request)
+      throws ODataApplicationException {
 
-    SearchResponse response;
-    try {
-      response = elasticsearchClient.search(searchRequest, RequestOptions.DEFAULT);
-    } catch (IOException e) {
-      throw new IllegalStateException("Cannot search, index " + indexName, e);
-    }
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.READ_ENTITY_COLLECTION);
+    List<NavigationExpansion> expansions =
+        toExpansions(entitySet, uriInfo.getExpandOption(), metrics);
+    SearchRequest searchRequest = toSearchRequest(entitySet, uriInfo, metrics);
+    CompletableFuture<SearchResponse> future = searchAsync(searchRequest, metrics);
+    return propagateCancel(
+        future.thenCompose(response -> {
+          List<SearchHit> hits = toPageHits(uriInfo, response);
+          return expandAsync(expansions, toSources(hits), metrics)
+              .thenApply(expandedEntities -> toEntityCollection(
+                  entitySet,
+                  uriInfo,
+                  request,
+                  response,
+                  hits,
+                  expandedEntities,
+                  metrics));
+        }),
+        future);
+  }
+
+  private EntityCollection toEntityCollection(
+      EdmEntitySet entitySet,
+      UriInfo uriInfo,
+      ODataRequest request,
+      SearchResponse response,
+      List<SearchHit> hits,
+      ExpandedEntities expandedEntities,
+      OperationMetrics metrics) {
 
+    Set<String> selectedPropertyNames =
+        SelectOptionMapper.toSelectedPropertyNames(uriInfo.getSelectOption());
+
+    long startNanos = System.nanoTime();
+    StructuredTypeConverter converter = StructuredTypeConverter.of(entitySet.getEntityType());
     EntityCollection entityCollection = new EntityCollection();
     List<Entity> entities = entityCollection.getEntities();
-    response.getHits().forEach(hit -> {
-      Entity entity = toEntity(entitySet, hit.getId(), hit.getSourceAsMap());
+    hits.forEach(hit -> {
+      Entity entity = toEntity(entitySet, converter, hit, selectedPropertyNames);
+      expandedEntities.link(entity, hit.getSourceAsMap());
       entities.add(entity);
     });
+    metrics.recordSince(Meters.HIT_CONVERSION, startNanos);
+    entityCollection.setCount(toCount(uriInfo, response));
+    entityCollection.setNext(toNextLink(request, entitySet, uriInfo, response));
 
     return entityCollection;
   }
+
+  /**
+   * Reads multiple instances of an Entity Type. Each search hit is converted to an entity only
+   * when the iterator reaches it, so the caller can write each entity before converting the next.
+   *
+   * @param entitySet
+   *     Entity Set to read from
+   * @param uriInfo
+   *     contains filter, order by, paging, select and count arguments
+   * @param request
+   *     request, used to build link to next page
+   * @return entities
+   * @throws ODataApplicationException
+   *     if error occurred handling filter option
+   */
+  public SearchHitEntityIterator stream(
+      EdmEntitySet entitySet, UriInfo uriInfo, ODataRequest request)
+      throws ODataApplicationException {
+
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.READ_ENTITY_COLLECTION);
+    SearchResponse response = BatchReads.findSearchResponse(request);
+    if (response == null) {
+      response = search(toSearchRequest(entitySet, uriInfo, metrics), metrics);
+    }
+
+    return toEntityIterator(entitySet, uriInfo, request, response, metrics);
+  }
+
+  /**
+   * Reads multiple instances of an Entity Type without waiting for Elasticsearch to respond.
+   * Each search hit is converted to an entity only when the iterator reaches it. Cancelling the
+   * returned future cancels the Elasticsearch request.
+   *
+   * @param entitySet
+   *     Entity Set to read from
+   * @param uriInfo
+   *     contains filter, order by, paging, select and count arguments
+   * @param request
+   *     request, used to build link to next page
+   * @return future entities
+   * @throws ODataApplicationException
+   *     if error occurred handling filter option
+   */
+  public CompletableFuture<SearchHitEntityIterator> streamAsync(
+      EdmEntitySet entitySet, UriInfo uriInfo, ODataRequest request)
+      throws ODataApplicationException {
+
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.READ_ENTITY_COLLECTION);
+    SearchRequest searchRequest = toSearchRequest(entitySet, uriInfo, metrics);
+    CompletableFuture<SearchResponse> future = searchAsync(searchRequest, metrics);
+    return propagateCancel(
+        future.thenApply(response ->
+            toEntityIterator(entitySet, uriInfo, request, response, metrics)),
+        future);
+  }
+
+  private SearchHitEntityIterator toEntityIterator(
+      EdmEntitySet entitySet,
+      UriInfo uriInfo,
+      ODataRequest request,
+      SearchResponse response,
+      OperationMetrics metrics) {
+
+    Set<String> selectedPropertyNames =
+        SelectOptionMapper.toSelectedPropertyNames(uriInfo.getSelectOption());
+    StructuredTypeConverter converter = StructuredTypeConverter.of(entitySet.getEntityType());
+
+    return new SearchHitEntityIterator(
+        toPageHits(uriInfo, response),
+        hit -> toEntity(entitySet, converter, hit, selectedPropertyNames),
+        toCount(uriInfo, response),
+        toNextLink(request, entitySet, uriInfo, response),
+        hit -> ETags.toEntityVersion(
+            toEntityId(entitySet, hit.getId()),
+            ETags.toETag(hit.getPrimaryTerm(), hit.getSeqNo())),
+        metrics);
+  }
+
+  private static Request toLowLevelRequest(SearchRequest searchRequest) {
+    String endpoint = (searchRequest.indices().length == 0)
+        ? "/_search" : "/" + String.join(",", searchRequest.indices()) + "/_search";
+    Request request = new Request("POST", endpoint);
+    request.setJsonEntity(Strings.toString(searchRequest.source()));
+    return request;
+  }
+
+  private CompletableFuture<Response> performRequestAsync(Request request) {
+    return execute(listener -> elasticsearchClient.getLowLevelClient().performRequestAsync(
+        request,
+        new ResponseListener() {
+          @Override
+          public void onSuccess(Response response) {
+            listener.onResponse(response);
+          }
+
+          @Override
+          public void onFailure(Exception e) {
+            listener.onFailure(e);
+          }
+        }));
+  }
+
+  private SearchResponseTranscoder toTranscoder(
+      EdmEntitySet entitySet,
+      UriInfo uriInfo,
+      ODataRequest request,
+      String contextUrl,
+      Response response) {
+
+    int pageSize = Integer.MAX_VALUE;
+    SearchResponseTranscoder.NextLinkBuilder nextLinkBuilder = null;
+    if (properties.getPaging().isServerDriven()) {
+      pageSize = toServerDrivenPageSize(uriInfo);
+      nextLinkBuilder = (hitCount, lastSortValues, pointInTimeId) ->
+          toNextLink(request, entitySet, uriInfo, hitCount, lastSortValues, pointInTimeId);
+    }
+
+    // The low-level client already buffered the whole response, so it can be read twice.
+    byte[] content;
+    try {
+      content = EntityUtils.toByteArray(response.getEntity());
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot read search response", e);
+    }
+
+    return new SearchResponseTranscoder(
+        content,
+        contextUrl,
+        StructuredTypeConverter.of(entitySet.getEntityType()),
+        SelectOptionMapper.toSelectedPropertyNames(uriInfo.getSelectOption()),
+        isCountRequested(uriInfo),
+        pageSize,
+        nextLinkBuilder,
+        (entityId, etag) -> ETags.toEntityVersion(toEntityId(entitySet, entityId), etag));
+  }
+
+  /**
+   * Reads multiple instances of an Entity Type, and prepares to write the Elasticsearch response
+   * directly as OData JSON with minimal metadata.
+   *
+   * @param entitySet
+   *     Entity Set to read from
+   * @param uriInfo
+   *     contains filter, order by, paging, select and count arguments
+   * @param request
+   *     request, used to build link to next page
+   * @param contextUrl
+   *     context URL to write in response
+   * @return response content
+   * @throws ODataApplicationException
+   *     if error occurred handling filter option
+   */
+  SearchResponseTranscoder transcode(
+      EdmEntitySet entitySet, UriInfo uriInfo, ODataRequest request, String contextUrl)
+      throws ODataApplicationException {
+
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.READ_ENTITY_COLLECTION);
+    SearchRequest searchRequest = toSearchRequest(entitySet, uriInfo, metrics);
+    Response response;
+    try {
+      long startNanos = System.nanoTime();
+      response = elasticsearchClient.getLowLevelClient()
+          .performRequest(toLowLevelRequest(searchRequest));
+      Meters.recordRoundTrip(metrics, startNanos, null);
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          "Cannot search, index " + String.join(",", searchRequest.indices()), e);
+    }
+
+    return toTranscoder(entitySet, uriInfo, request, contextUrl, response);
+  }
+
+  /**
+   * Reads multiple instances of an Entity Type without waiting for Elasticsearch to respond, and
+   * prepares to write the Elasticsearch response directly as OData JSON with minimal metadata.
+   * Cancelling the returned future cancels the Elasticsearch request.
+   *
+   * @param entitySet
+   *     Entity Set to read from
+   * @param uriInfo
+   *     contains filter, order by, paging, select and count arguments
+   * @param request
+   *     request, used to build link to next page
+   * @param contextUrl
+   *     context URL to write in response
+   * @return future response content
+   * @throws ODataApplicationException
+   *     if error occurred handling filter option
+   */
+  CompletableFuture<SearchResponseTranscoder> transcodeAsync(
+      EdmEntitySet entitySet, UriInfo uriInfo, ODataRequest request, String contextUrl)
+      throws ODataApplicationException {
+
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.READ_ENTITY_COLLECTION);
+    SearchRequest searchRequest = toSearchRequest(entitySet, uriInfo, metrics);
+    long startNanos = System.nanoTime();
+    CompletableFuture<Response> future = performRequestAsync(toLowLevelRequest(searchRequest));
+    return propagateCancel(
+        future.thenApply(response -> {
+          Meters.recordRoundTrip(metrics, startNanos, null);
+          return toTranscoder(entitySet, uriInfo, request, contextUrl, response);
+        }),
+        future);
+  }
+
+  /**
+   * Counts instances of an Entity Type. Elasticsearch caches the result in its shard request
+   * cache until the index is refreshed.
+   *
+   * @param entitySet
+   *     Entity Set to count
+   * @param uriInfo
+   *     contains filter argument
+   * @return number of matching entities
+   * @throws ODataApplicationException
+   *     if error occurred handling filter option
+   */
+  public int count(EdmEntitySet entitySet, UriInfo uriInfo) throws ODataApplicationException {
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.COUNT_ENTITY_COLLECTION);
+    return toTotalHits(search(toCountRequest(entitySet, uriInfo, metrics), metrics));
+  }
+
+  /**
+   * Counts instances of an Entity Type without waiting for Elasticsearch to respond.
+   * Cancelling the returned future cancels the Elasticsearch request.
+   *
+   * @param entitySet
+   *     Entity Set to count
+   * @param uriInfo
+   *     contains filter argument
+   * @return future number of matching entities
+   * @throws ODataApplicationException
+   *     if error occurred handling filter option
+   */
+  public CompletableFuture<Integer> countAsync(EdmEntitySet entitySet, UriInfo uriInfo)
+      throws ODataApplicationException {
+
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.COUNT_ENTITY_COLLECTION);
+    CompletableFuture<SearchResponse> future =
+        searchAsync(toCountRequest(entitySet, uriInfo, metrics), metrics);
+    return propagateCancel(future.thenApply(EntityRepository::toTotalHits), future);
+  }
+
+  private SearchRequest toCountRequest(
+      EdmEntitySet entitySet, UriInfo uriInfo, OperationMetrics metrics)
+      throws ODataApplicationException {
+
+    long startNanos = System.nanoTime();
+    QueryShape queryShape = QueryShape.of(uriInfo);
+    QueryPlan queryPlan = toQueryPlan(entitySet, uriInfo, queryShape, metrics);
+    QueryBuilder query = toQueryBuilder(
+        entitySet, uriInfo, queryPlan.bindFilter(queryShape.getLiterals()));
+    metrics.recordSince(Meters.QUERY_TRANSLATION, startNanos);
+
+    SearchSourceBuilder searchSource = new SearchSourceBuilder()
+        .query(query)
+        .size(0)
+        .trackTotalHits(true);
+    return Requests.searchRequest(toIndexName(entitySet))
+        .source(searchSource)
+        .requestCache(true);
+  }
+
+  private static int toTotalHits(SearchResponse response) {
+    return (int) Math.min(response.getHits().getTotalHits().value, Integer.MAX_VALUE);
+  }
+
+  private QueryBuilder toAggregateQueryBuilder(List<FilterOption> filterOptions)
+      throws ODataApplicationException {
+
+    if (filterOptions.isEmpty()) {
+      return QueryBuilders.matchAllQuery();
+    }
+
+    if (filterOptions.size() == 1) {
+      return toFilterQueryBuilder(filterOptions.get(0));
+    }
+
+    BoolQueryBuilder query = QueryBuilders.boolQuery();
+    for (FilterOption filterOption : filterOptions) {
+      query.filter(toFilterQueryBuilder(filterOption));
+    }
+
+    return query;
+  }
+
+  private int toAggregatePageSize(UriInfo uriInfo) {
+    return toPageSize(uriInfo, properties.getApply().getPageSize());
+  }
+
+  private SearchRequest toAggregateRequest(
+      EdmEntitySet entitySet,
+      ApplyAggregation aggregation,
+      UriInfo uriInfo,
+      OperationMetrics metrics) throws ODataApplicationException {
+
+    long startNanos = System.nanoTime();
+    QueryBuilder query;
+    try {
+      query = toAggregateQueryBuilder(aggregation.getFilterOptions());
+    } catch (NotImplementedException e) {
+      throw Meters.countNotImplemented(metrics, e);
+    }
+
+    metrics.recordSince(Meters.QUERY_TRANSLATION, startNanos);
+
+    SkipTokenOption skipTokenOption = uriInfo.getSkipTokenOption();
+    Map<String, Object> afterKey = (skipTokenOption == null)
+        ? null : SkipToken.decode(skipTokenOption.getValue()).getAfterKey();
+
+    SearchSourceBuilder searchSource = new SearchSourceBuilder()
+        .query(query);
+    aggregation.configure(searchSource, toAggregatePageSize(uriInfo), afterKey);
+    return Requests.searchRequest(toIndexName(entitySet))
+        .source(searchSource)
+        .requestCache(true);
+  }
+
+  private EntityCollection toAggregateEntityCollection(
+      EdmEntitySet entitySet,
+      ApplyAggregation aggregation,
+      UriInfo uriInfo,
+      ODataRequest request,
+      SearchResponse response,
+      OperationMetrics metrics) {
+
+    long startNanos = System.nanoTime();
+    EntityCollection entityCollection = new EntityCollection();
+    entityCollection.getEntities().addAll(aggregation.toEntities(response));
+    metrics.recordSince(Meters.HIT_CONVERSION, startNanos);
+
+    int pageSize = toAggregatePageSize(uriInfo);
+    Map<String, Object> afterKey = aggregation.toAfterKey(response, pageSize);
+    if (afterKey != null) {
+      SkipToken skipToken = new SkipToken(null, null, afterKey);
+      entityCollection.setNext(toNextLink(request, entitySet, uriInfo, pageSize, skipToken));
+    }
+
+    return entityCollection;
+  }
+
+  /**
+   * Aggregates instances of an Entity Type. Elasticsearch computes the groups and aggregate
+   * values, so entities are not transferred from Elasticsearch. Groups are returned a page at a
+   * time, with a next link to continue to the next page.
+   *
+   * @param entitySet
+   *     Entity Set to aggregate
+   * @param aggregation
+   *     transformations requested by apply argument
+   * @param uriInfo
+   *     contains top and skip token arguments
+   * @param request
+   *     request, used to build link to next page
+   * @return dynamic entities, one per group
+   * @throws ODataApplicationException
+   *     if error occurred handling filter transformation
+   */
+  public EntityCollection aggregate(
+      EdmEntitySet entitySet,
+      ApplyAggregation aggregation,
+      UriInfo uriInfo,
+      ODataRequest request) throws ODataApplicationException {
+
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.AGGREGATE_ENTITY_COLLECTION);
+    SearchRequest searchRequest = toAggregateRequest(entitySet, aggregation, uriInfo, metrics);
+    return toAggregateEntityCollection(
+        entitySet, aggregation, uriInfo, request, search(searchRequest, metrics), metrics);
+  }
+
+  /**
+   * Aggregates instances of an Entity Type without waiting for Elasticsearch to respond.
+   * Cancelling the returned future cancels the Elasticsearch request.
+   *
+   * @param entitySet
+   *     Entity Set to aggregate
+   * @param aggregation
+   *     transformations requested by apply argument
+   * @param uriInfo
+   *     contains top and skip token arguments
+   * @param request
+   *     request, used to build link to next page
+   * @return future dynamic entities, one per group
+   * @throws ODataApplicationException
+   *     if error occurred handling filter transformation
+   */
+  public CompletableFuture<EntityCollection> aggregateAsync(
+      EdmEntitySet entitySet,
+      ApplyAggregation aggregation,
+      UriInfo uriInfo,
+      ODataRequest request) throws ODataApplicationException {
+
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.AGGREGATE_ENTITY_COLLECTION);
+    SearchRequest searchRequest = toAggregateRequest(entitySet, aggregation, uriInfo, metrics);
+    CompletableFuture<SearchResponse> future = searchAsync(searchRequest, metrics);
+    return propagateCancel(
+        future.thenApply(response -> toAggregateEntityCollection(
+            entitySet, aggregation, uriInfo, request, response, metrics)),
+        future);
+  }
+
+  private static Map<String, Object> toSource(EdmEntitySet entitySet, Entity entity) {
+    // Document ID is metadata, not part of the document source.
+    List<Property> properties = entity.getProperties()
+        .stream()
+        .filter(property -> !ID_FIELD_NAME.equals(property.getName()))
+        .collect(Collectors.toList());
+    return StructuredTypeConverter.of(entitySet.getEntityType()).toSource(properties);
+  }
+
+  private static byte[] toJson(Map<String, Object> source) {
+    try {
+      return OBJECT_MAPPER.writeValueAsBytes(source);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Cannot write document source", e);
+    }
+  }
+
+  private static String toETag(DocWriteResponse response) {
+    return ETags.toETag(response.getPrimaryTerm(), response.getSeqNo());
+  }
+
+  private static ODataApplicationException toWriteException(
+      DocWriteRequest<?> request, BulkItemResponse.Failure failure) {
+
+    // A version conflict on a conditional write means the document changed since the client
+    // read the version in If-Match.
+    int statusCode =
+        (failure.getStatus() == RestStatus.CONFLICT &&
+            request.ifSeqNo() != SequenceNumbers.UNASSIGNED_SEQ_NO)
+            ? HttpStatusCode.PRECONDITION_FAILED.getStatusCode()
+            : failure.getStatus().getStatus();
+    return new ODataApplicationException(
+        failure.getMessage(), statusCode, null, failure.getCause());
+  }
+
+  private CompletableFuture<DocWriteResponse> write(
+      DocWriteRequest<?> request, OperationMetrics metrics) {
+
+    long startNanos = System.nanoTime();
+    return bulkWriter.write(request)
+        .thenApply(item -> {
+          // Round trip includes the time waiting for other writes to join the bulk request.
+          Meters.recordRoundTrip(metrics, startNanos, null);
+          if (item.isFailed()) {
+            throw new CompletionException(toWriteException(request, item.getFailure()));
+          }
+
+          return item.getResponse();
+        });
+  }
+
+  private static <T> T await(CompletableFuture<T> future) throws ODataApplicationException {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof ODataApplicationException) {
+        throw (ODataApplicationException) e.getCause();
+      }
+
+      throw new IllegalStateException("Cannot write", e.getCause());
+    }
+  }
+
+  private static void setIfMatch(
+      List<String> ifMatch, DocWriteRequest<?> request, OperationMetrics metrics)
+      throws ODataApplicationException {
+
+    try {
+      ETags.setIfMatch(ifMatch, request);
+    } catch (NotImplementedException e) {
+      throw Meters.countNotImplemented(metrics, e);
+    }
+  }
+
+  /**
+   * Creates an instance of an Entity Type. If the entity has a document ID, the create fails if
+   * a document with the ID exists, otherwise Elasticsearch generates the document ID.
+   *
+   * @param entitySet
+   *     Entity Set to create in
+   * @param entity
+   *     entity to create
+   * @return created entity
+   * @throws ODataApplicationException
+   *     if Elasticsearch rejected the write
+   */
+  public Entity create(EdmEntitySet entitySet, Entity entity) throws ODataApplicationException {
+    return await(createAsync(entitySet, entity));
+  }
+
+  /**
+   * Creates an instance of an Entity Type without waiting for Elasticsearch to respond. The
+   * write is sent in a bulk request with other concurrent writes.
+   *
+   * @param entitySet
+   *     Entity Set to create in
+   * @param entity
+   *     entity to create
+   * @return future created entity
+   */
+  public CompletableFuture<Entity> createAsync(EdmEntitySet entitySet, Entity entity) {
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.CREATE_ENTITY);
+    Map<String, Object> source = toSource(entitySet, entity);
+    IndexRequest indexRequest = Requests.indexRequest(toIndexName(entitySet))
+        .source(toJson(source), XContentType.JSON);
+
+    Property idProperty = entity.getProperty(ID_FIELD_NAME);
+    if (idProperty != null && idProperty.getValue() != null) {
+      // Fail instead of replacing an existing document.
+      indexRequest.id(idProperty.getValue().toString())
+          .opType(DocWriteRequest.OpType.CREATE);
+    }
+
+    return write(indexRequest, metrics)
+        .thenApply(response -> toEntity(
+            entitySet, response.getId(), toETag(response), source, null));
+  }
+
+  /**
+   * Updates single instance of an Entity Type.
+   *
+   * @param entitySet
+   *     Entity Set to update in
+   * @param keyPredicates
+   *     contains entity primary key
+   * @param entity
+   *     properties to write
+   * @param replace
+   *     true to replace the whole entity, false to change only the given properties
+   * @param ifMatch
+   *     If-Match header values, to write only if the entity has the version the client read
+   * @return entity tag of the updated entity
+   * @throws ODataApplicationException
+   *     if the precondition failed, or Elasticsearch rejected the write
+   */
+  public String update(
+      EdmEntitySet entitySet,
+      List<UriParameter> keyPredicates,
+      Entity entity,
+      boolean replace,
+      List<String> ifMatch) throws ODataApplicationException {
+
+    return await(updateAsync(entitySet, keyPredicates, entity, replace, ifMatch));
+  }
+
+  /**
+   * Updates single instance of an Entity Type without waiting for Elasticsearch to respond. The
+   * write is sent in a bulk request with other concurrent writes.
+   *
+   * @param entitySet
+   *     Entity Set to update in
+   * @param keyPredicates
+   *     contains entity primary key
+   * @param entity
+   *     properties to write
+   * @param replace
+   *     true to replace the whole entity, false to change only the given properties
+   * @param ifMatch
+   *     If-Match header values, to write only if the entity has the version the client read
+   * @return future entity tag of the updated entity
+   * @throws ODataApplicationException
+   *     if If-Match is not supported
+   */
+  public CompletableFuture<String> updateAsync(
+      EdmEntitySet entitySet,
+      List<UriParameter> keyPredicates,
+      Entity entity,
+      boolean replace,
+      List<String> ifMatch) throws ODataApplicationException {
+
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.UPDATE_ENTITY);
+    String indexName = toIndexName(entitySet);
+    String documentId = toDocumentId(keyPredicates);
+    byte[] source = toJson(toSource(entitySet, entity));
+    DocWriteRequest<?> request = replace
+        ? Requests.indexRequest(indexName).id(documentId).source(source, XContentType.JSON)
+        : new UpdateRequest(indexName, documentId).doc(source, XContentType.JSON);
+    setIfMatch(ifMatch, request, metrics);
+
+    return write(request, metrics)
+        .thenApply(EntityRepository::toETag);
+  }
+
+  /**
+   * Deletes single instance of an Entity Type.
+   *
+   * @param entitySet
+   *     Entity Set to delete from
+   * @param keyPredicates
+   *     contains entity primary key
+   * @param ifMatch
+   *     If-Match header values, to delete only if the entity has the version the client read
+   * @throws ODataApplicationException
+   *     if the entity was not found, the precondition failed, or Elasticsearch rejected the write
+   */
+  public void delete(
+      EdmEntitySet entitySet, List<UriParameter> keyPredicates, List<String> ifMatch)
+      throws ODataApplicationException {
+
+    await(deleteAsync(entitySet, keyPredicates, ifMatch));
+  }
+
+  /**
+   * Deletes single instance of an Entity Type without waiting for Elasticsearch to respond. The
+   * write is sent in a bulk request with other concurrent writes.
+   *
+   * @param entitySet
+   *     Entity Set to delete from
+   * @param keyPredicates
+   *     contains entity primary key
+   * @param ifMatch
+   *     If-Match header values, to delete only if the entity has the version the client read
+   * @return future completed when the entity is deleted
+   * @throws ODataApplicationException
+   *     if If-Match is not supported
+   */
+  public CompletableFuture<Void> deleteAsync(
+      EdmEntitySet entitySet, List<UriParameter> keyPredicates, List<String> ifMatch)
+      throws ODataApplicationException {
+
+    OperationMetrics metrics = Meters.operation(entitySet, Meters.DELETE_ENTITY);
+    DeleteRequest deleteRequest = Requests.deleteRequest(toIndexName(entitySet))
+        .id(toDocumentId(keyPredicates));
+    setIfMatch(ifMatch, deleteRequest, metrics);
+
+    return write(deleteRequest, metrics)
+        .thenAccept(response -> {
+          if (response.getResult() == DocWriteResponse.Result.NOT_FOUND) {
+            throw new CompletionException(toNotFoundException());
+          }
+        });
+  }
+
+  private static UriResourceEntitySet toEntitySetResource(UriInfo uriInfo) {
+    if (uriInfo.getKind() != UriInfoKind.resource || uriInfo.getUriResourceParts().size() != 1) {
+      return null;
+    }
+
+    UriResource uriResource = uriInfo.getUriResourceParts().get(0);
+    return (uriResource instanceof UriResourceEntitySet)
+        ? (UriResourceEntitySet) uriResource : null;
+  }
+
+  private void addSearchRequests(
+      Map<ODataRequest, UriInfo> requestToUriInfoMap,
+      Map<ODataRequest, SearchRequest> requestToSearchRequestMap,
+      OperationMetrics metrics) throws ODataApplicationException {
+
+    for (Map.Entry<ODataRequest, UriInfo> entry : requestToUriInfoMap.entrySet()) {
+      // Searches continuing with a point in time search no index, so leave them to run
+      // individually.
+      UriResourceEntitySet uriResource = toEntitySetResource(entry.getValue());
+      if (uriResource != null &&
+          uriResource.getKeyPredicates().isEmpty() &&
+          entry.getValue().getApplyOption() == null &&
+          !(properties.getPaging().isPointInTime() &&
+              entry.getValue().getSkipTokenOption() != null)) {
+        requestToSearchRequestMap.put(
+            entry.getKey(),
+            toSearchRequest(uriResource.getEntitySet(), entry.getValue(), metrics));
+      }
+    }
+  }
+
+  private void addGetRequests(
+      Map<ODataRequest, UriInfo> requestToUriInfoMap,
+      Map<ODataRequest, GetRequest> requestToGetRequestMap,
+      OperationMetrics metrics) throws ODataApplicationException {
+
+    for (Map.Entry<ODataRequest, UriInfo> entry : requestToUriInfoMap.entrySet()) {
+      UriResourceEntitySet uriResource = toEntitySetResource(entry.getValue());
+      if (uriResource != null && !uriResource.getKeyPredicates().isEmpty()) {
+        EdmEntitySet entitySet = uriResource.getEntitySet();
+        requestToGetRequestMap.put(
+            entry.getKey(),
+            toGetRequest(
+                entitySet,
+                uriResource.getKeyPredicates(),
+                entry.getValue().getSelectOption(),
+                toExpansions(entitySet, entry.getValue().getExpandOption(), metrics)));
+      }
+    }
+  }
+
+  private void multiSearch(
+      Map<ODataRequest, SearchRequest> requestToSearchRequestMap,
+      BatchReads batchReads,
+      OperationMetrics metrics) {
+
+    if (requestToSearchRequestMap.isEmpty()) {
+      return;
+    }
+
+    MultiSearchRequest multiSearchRequest = new MultiSearchRequest();
+    requestToSearchRequestMap.values().forEach(multiSearchRequest::add);
+    MultiSearchResponse multiSearchResponse;
+    try {
+      long startNanos = System.nanoTime();
+      multiSearchResponse = elasticsearchClient.msearch(
+          multiSearchRequest, RequestOptions.DEFAULT);
+      Meters.recordRoundTrip(metrics, startNanos, multiSearchResponse.getTook());
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot multi search", e);
+    }
+
+    // Responses are in the same order as the requests. A failed search is left for the batch
+    // part to repeat, so the failure is reported in its response.
+    Iterator<MultiSearchResponse.Item> items = multiSearchResponse.iterator();
+    for (Map.Entry<ODataRequest, SearchRequest> entry : requestToSearchRequestMap.entrySet()) {
+      MultiSearchResponse.Item item = items.next();
+      if (!item.isFailure()) {
+        batchReads.putSearchResponse(entry.getKey(), item.getResponse());
+      }
+    }
+  }
+
+  private void multiGet(
+      Map<ODataRequest, GetRequest> requestToGetRequestMap,
+      BatchReads batchReads,
+      OperationMetrics metrics) {
+
+    if (requestToGetRequestMap.isEmpty()) {
+      return;
+    }
+
+    MultiGetRequest multiGetRequest = new MultiGetRequest();
+    for (GetRequest getRequest : requestToGetRequestMap.values()) {
+      multiGetRequest.add(new MultiGetRequest.Item(getRequest.index(), getRequest.id())
+          .fetchSourceContext(getRequest.fetchSourceContext()));
+    }
+
+    MultiGetResponse multiGetResponse;
+    try {
+      long startNanos = System.nanoTime();
+      multiGetResponse = elasticsearchClient.mget(multiGetRequest, RequestOptions.DEFAULT);
+      Meters.recordRoundTrip(metrics, startNanos, null);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot multi get", e);
+    }
+
+    // Responses are in the same order as the requests. A document not found is kept, so the
+    // batch part responds with 404 Not Found.
+    Iterator<MultiGetItemResponse> items = multiGetResponse.iterator();
+    for (ODataRequest request : requestToGetRequestMap.keySet()) {
+      MultiGetItemResponse item = items.next();
+      if (!item.isFailed()) {
+        batchReads.putGetResponse(request, item.getResponse());
+      }
+    }
+  }
+
+  /**
+   * Sends the read requests in a batch to Elasticsearch, all collection reads in one multi
+   * search request and all reads by key in one multi get request.
+   *
+   * @param requestToUriInfoMap
+   *     batch part request to parsed URI, in batch order
+   * @return responses, to be activated while processing the batch parts
+   * @throws ODataApplicationException
+   *     if error occurred handling filter option
+   */
+  BatchReads prefetch(Map<ODataRequest, UriInfo> requestToUriInfoMap)
+      throws ODataApplicationException {
+
+    OperationMetrics metrics = RequestMetrics.current().operation(MetricTags.NONE, Meters.BATCH);
+    Map<ODataRequest, SearchRequest> requestToSearchRequestMap = new LinkedHashMap<>();
+    addSearchRequests(requestToUriInfoMap, requestToSearchRequestMap, metrics);
+
+    Map<ODataRequest, GetRequest> requestToGetRequestMap = new LinkedHashMap<>();
+    addGetRequests(requestToUriInfoMap, requestToGetRequestMap, metrics);
+
+    BatchReads batchReads = new BatchReads();
+    multiSearch(requestToSearchRequestMap, batchReads, metrics);
+    multiGet(requestToGetRequestMap, batchReads, metrics);
+    return batchReads;
+  }
 }
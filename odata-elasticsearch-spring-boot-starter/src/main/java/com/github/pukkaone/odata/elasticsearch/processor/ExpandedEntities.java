@@ -0,0 +1,64 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.Link;
+
+/**
+ * Related entities read for a page, by navigation property and key, to link inline into each
+ * entity of the page.
+ */
+class ExpandedEntities {
+
+  /** No navigation properties expanded. */
+  static final ExpandedEntities NONE = new ExpandedEntities();
+
+  private final Map<NavigationExpansion, Map<String, List<Entity>>> expansionToRelatedMap =
+      new LinkedHashMap<>();
+
+  /**
+   * Adds related entities of a navigation property.
+   *
+   * @param expansion
+   *     navigation property
+   * @param keyToEntitiesMap
+   *     key matched by foreign key to related entities
+   */
+  void put(NavigationExpansion expansion, Map<String, List<Entity>> keyToEntitiesMap) {
+    expansionToRelatedMap.put(expansion, keyToEntitiesMap);
+  }
+
+  /**
+   * Links related entities inline into an entity.
+   *
+   * @param entity
+   *     entity to link from
+   * @param source
+   *     document source the entity was converted from, having the foreign keys
+   */
+  void link(Entity entity, Map<String, Object> source) {
+    expansionToRelatedMap.forEach((expansion, keyToEntitiesMap) -> {
+      List<Entity> relatedEntities = new ArrayList<>();
+      for (String key : expansion.toForeignKeys(source)) {
+        relatedEntities.addAll(keyToEntitiesMap.getOrDefault(key, Collections.emptyList()));
+      }
+
+      Link link = new Link();
+      link.setTitle(expansion.getName());
+      if (expansion.isCollection()) {
+        EntityCollection entityCollection = new EntityCollection();
+        entityCollection.getEntities().addAll(relatedEntities);
+        link.setInlineEntitySet(entityCollection);
+      } else if (!relatedEntities.isEmpty()) {
+        link.setInlineEntity(relatedEntities.get(0));
+      }
+
+      entity.getNavigationLinks().add(link);
+    });
+  }
+}
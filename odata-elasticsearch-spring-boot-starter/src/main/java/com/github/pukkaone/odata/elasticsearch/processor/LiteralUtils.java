@@ -1,5 +1,7 @@
 package com.github.pukkaone.odata.elasticsearch.processor;
 
+import org.apache.olingo.server.api.uri.queryoption.expression.Literal;
+
 /**
  * Converts literal value.
  */
@@ -9,6 +11,17 @@ public final class LiteralUtils {
   private LiteralUtils() {
   }
 
+  /**
+   * Checks if literal is the null literal, which has no type.
+   *
+   * @param literal
+   *     literal
+   * @return true if literal is null
+   */
+  public static boolean isNull(Literal literal) {
+    return literal.getType() == null && "null".equals(literal.getText());
+  }
+
   /**
    * Removes quotes at start and end of literal string.
    *
@@ -13,6 +13,36 @@ public final class MemberMapper {
   private MemberMapper() {
   }
 
+  /**
+   * Checks if the member path reaches a property without going through a navigation property.
+   * Related entities are in another index, which a query cannot reach.
+   *
+   * @param member
+   *     to check
+   * @return true if every path segment is a property
+   */
+  public static boolean isPropertyPath(Member member) {
+    return member.getResourcePath()
+        .getUriResourceParts()
+        .stream()
+        .allMatch(UriResourceProperty.class::isInstance);
+  }
+
+  /**
+   * Checks the member path reaches a property without going through a navigation property.
+   *
+   * @param member
+   *     to check
+   * @throws NotImplementedException
+   *     if the member path goes through a navigation property
+   */
+  public static void checkPropertyPath(Member member) throws NotImplementedException {
+    if (!isPropertyPath(member)) {
+      throw new NotImplementedException(
+          "Member through navigation property not implemented", "navigation");
+    }
+  }
+
   /**
    * Converts to Elasticsearch field name.
    *
@@ -0,0 +1,99 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import com.github.pukkaone.odata.web.metrics.OperationMetrics;
+import com.github.pukkaone.odata.web.metrics.RequestMetrics;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Names the measurements recorded while processing requests backed by Elasticsearch.
+ */
+public final class Meters {
+
+  /** Time to translate request options to an Elasticsearch query. */
+  public static final String QUERY_TRANSLATION = "odata.query.translation";
+
+  /** Time from sending an Elasticsearch request to receiving its response. */
+  public static final String ELASTICSEARCH_REQUEST = "odata.elasticsearch.request";
+
+  /** Time Elasticsearch reported it spent executing a search. */
+  public static final String ELASTICSEARCH_TOOK = "odata.elasticsearch.took";
+
+  /** Round trip time Elasticsearch did not account for as search execution. */
+  public static final String ELASTICSEARCH_NETWORK = "odata.elasticsearch.network";
+
+  /** Time to convert search hits to entities. */
+  public static final String HIT_CONVERSION = "odata.hit.conversion";
+
+  /** Count of requests rejected because they use an unimplemented operator. */
+  public static final String NOT_IMPLEMENTED = "odata.not.implemented";
+
+  /** Tag key for the unimplemented operator. */
+  public static final String OPERATOR_TAG = "operator";
+
+  /** Name of the query plan cache in cache meters. */
+  public static final String QUERY_PLAN_CACHE = "odata.query.plan";
+
+  static final String READ_ENTITY = "readEntity";
+  static final String READ_ENTITY_COLLECTION = "readEntityCollection";
+  static final String COUNT_ENTITY_COLLECTION = "countEntityCollection";
+  static final String AGGREGATE_ENTITY_COLLECTION = "aggregateEntityCollection";
+  static final String CREATE_ENTITY = "createEntity";
+  static final String UPDATE_ENTITY = "updateEntity";
+  static final String DELETE_ENTITY = "deleteEntity";
+  static final String BATCH = "batch";
+
+  // Private constructor disallows creating instances of this class.
+  private Meters() {
+  }
+
+  /**
+   * Gets metrics of an operation in the request the current thread is processing.
+   *
+   * @param entitySet
+   *     Entity Set the operation accesses
+   * @param operation
+   *     operation name
+   * @return operation metrics
+   */
+  static OperationMetrics operation(EdmEntitySet entitySet, String operation) {
+    return RequestMetrics.current().operation(entitySet.getName(), operation);
+  }
+
+  /**
+   * Counts request rejected because it uses an unimplemented operator.
+   *
+   * @param metrics
+   *     operation metrics
+   * @param exception
+   *     exception to count
+   * @return the exception, for the caller to throw
+   */
+  static NotImplementedException countNotImplemented(
+      OperationMetrics metrics, NotImplementedException exception) {
+
+    metrics.increment(NOT_IMPLEMENTED, OPERATOR_TAG, exception.getOperator());
+    return exception;
+  }
+
+  /**
+   * Records Elasticsearch round trip time, and splits it into the time Elasticsearch reported
+   * and the remainder, which is mostly network transfer and response parsing.
+   *
+   * @param metrics
+   *     operation metrics
+   * @param startNanos
+   *     time the request was sent, from {@link System#nanoTime()}
+   * @param took
+   *     time Elasticsearch reported, or null if not reported
+   */
+  static void recordRoundTrip(OperationMetrics metrics, long startNanos, TimeValue took) {
+    long roundTripNanos = System.nanoTime() - startNanos;
+    metrics.recordTime(ELASTICSEARCH_REQUEST, roundTripNanos);
+    if (took != null) {
+      long tookNanos = took.nanos();
+      metrics.recordTime(ELASTICSEARCH_TOOK, tookNanos);
+      metrics.recordTime(ELASTICSEARCH_NETWORK, Math.max(0, roundTripNanos - tookNanos));
+    }
+  }
+}
@@ -0,0 +1,209 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.Getter;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edm.EdmNavigationProperty;
+import org.apache.olingo.commons.api.edm.EdmReferentialConstraint;
+import org.apache.olingo.server.api.uri.UriResource;
+import org.apache.olingo.server.api.uri.UriResourceNavigation;
+import org.apache.olingo.server.api.uri.queryoption.ExpandItem;
+import org.apache.olingo.server.api.uri.queryoption.ExpandOption;
+import org.apache.olingo.server.api.uri.queryoption.SelectOption;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+
+/**
+ * Navigation property requested by the expand option, resolved to the fields linking the
+ * Elasticsearch documents. The related entities of a whole page are read in one request, by
+ * document ID or by searching the target key field for all the foreign keys in the page.
+ */
+@Getter
+class NavigationExpansion {
+
+  private static final String ID_FIELD_NAME = "_id";
+  private static final String OPERATOR = "expand";
+
+  /** Navigation property name. */
+  private final String name;
+
+  /** True if the navigation property is a collection of related entities. */
+  private final boolean collection;
+
+  /** Field of the source documents holding the key of the related documents. */
+  private final String foreignKey;
+
+  /** Entity Set of the related entities. */
+  private final EdmEntitySet targetEntitySet;
+
+  /** Field of the related documents matching the foreign key. */
+  private final String targetKey;
+
+  /** Source filter of the related documents. */
+  private final FetchSourceContext fetchSourceContext;
+
+  /** Names of related entity properties to convert, or null to convert all properties. */
+  private final Set<String> selectedPropertyNames;
+
+  private NavigationExpansion(
+      EdmEntitySet entitySet,
+      EdmNavigationProperty navigationProperty,
+      SelectOption selectOption) throws NotImplementedException {
+
+    List<EdmReferentialConstraint> referentialConstraints =
+        navigationProperty.getReferentialConstraints();
+    if (referentialConstraints.size() != 1) {
+      throw new NotImplementedException(
+          "Navigation property without a foreign key not implemented", OPERATOR);
+    }
+
+    this.name = navigationProperty.getName();
+    this.collection = navigationProperty.isCollection();
+    this.foreignKey = referentialConstraints.get(0).getPropertyName();
+    this.targetEntitySet = (EdmEntitySet) entitySet.getRelatedBindingTarget(name);
+    this.targetKey = referentialConstraints.get(0).getReferencedPropertyName();
+    this.fetchSourceContext = SelectOptionMapper.toFetchSourceContext(
+        selectOption,
+        isTargetKeyDocumentId()
+            ? Collections.emptyList() : Collections.singletonList(targetKey));
+    this.selectedPropertyNames = SelectOptionMapper.toSelectedPropertyNames(selectOption);
+  }
+
+  private static boolean hasOptionsOtherThanSelect(ExpandItem expandItem) {
+    return expandItem.getLevelsOption() != null ||
+        expandItem.getExpandOption() != null ||
+        expandItem.getFilterOption() != null ||
+        expandItem.getOrderByOption() != null ||
+        expandItem.getSearchOption() != null ||
+        expandItem.getSkipOption() != null ||
+        expandItem.getTopOption() != null ||
+        expandItem.getCountOption() != null ||
+        expandItem.getApplyOption() != null;
+  }
+
+  private static EdmNavigationProperty toNavigationProperty(ExpandItem expandItem)
+      throws NotImplementedException {
+
+    List<UriResource> resourceParts = (expandItem.getResourcePath() == null)
+        ? Collections.emptyList() : expandItem.getResourcePath().getUriResourceParts();
+    if (resourceParts.size() != 1 || !(resourceParts.get(0) instanceof UriResourceNavigation)) {
+      throw new NotImplementedException(
+          "$expand of navigation property in Complex Type not implemented", OPERATOR);
+    }
+
+    return ((UriResourceNavigation) resourceParts.get(0)).getProperty();
+  }
+
+  /**
+   * Resolves navigation properties requested by expand option.
+   *
+   * @param entitySet
+   *     Entity Set the request reads from
+   * @param expandOption
+   *     expand option, may be null
+   * @return navigation properties to expand, empty if expand option is not specified
+   * @throws NotImplementedException
+   *     if the expand option uses an unimplemented feature
+   */
+  static List<NavigationExpansion> of(EdmEntitySet entitySet, ExpandOption expandOption)
+      throws NotImplementedException {
+
+    if (expandOption == null) {
+      return Collections.emptyList();
+    }
+
+    List<NavigationExpansion> expansions = new ArrayList<>();
+    for (ExpandItem expandItem : expandOption.getExpandItems()) {
+      if (expandItem.isRef()) {
+        throw new NotImplementedException("$expand with $ref not implemented", OPERATOR);
+      }
+
+      if (hasOptionsOtherThanSelect(expandItem)) {
+        throw new NotImplementedException(
+            "$expand options other than $select not implemented", OPERATOR);
+      }
+
+      if (expandItem.isStar()) {
+        for (String propertyName : entitySet.getEntityType().getNavigationPropertyNames()) {
+          expansions.add(new NavigationExpansion(
+              entitySet,
+              entitySet.getEntityType().getNavigationProperty(propertyName),
+              expandItem.getSelectOption()));
+        }
+      } else {
+        expansions.add(new NavigationExpansion(
+            entitySet, toNavigationProperty(expandItem), expandItem.getSelectOption()));
+      }
+    }
+
+    return expansions;
+  }
+
+  /**
+   * Gets names of source fields needed to expand navigation properties.
+   *
+   * @param expansions
+   *     navigation properties to expand
+   * @return foreign key field names
+   */
+  static List<String> toForeignKeyFields(List<NavigationExpansion> expansions) {
+    List<String> foreignKeys = new ArrayList<>();
+    for (NavigationExpansion expansion : expansions) {
+      foreignKeys.add(expansion.getForeignKey());
+    }
+
+    return foreignKeys;
+  }
+
+  /**
+   * Converts field value to keys. A field can hold an array of values.
+   *
+   * @param value
+   *     field value, may be null
+   * @return keys
+   */
+  static Collection<String> toKeys(Object value) {
+    if (value == null) {
+      return Collections.emptyList();
+    }
+
+    if (value instanceof Collection) {
+      Set<String> keys = new LinkedHashSet<>();
+      for (Object element : (Collection<?>) value) {
+        if (element != null) {
+          keys.add(element.toString());
+        }
+      }
+
+      return keys;
+    }
+
+    return Collections.singletonList(value.toString());
+  }
+
+  /**
+   * Checks if the foreign key matches the document ID of the related documents, so they can be
+   * read by multi get instead of search.
+   *
+   * @return true if target key is document ID
+   */
+  boolean isTargetKeyDocumentId() {
+    return ID_FIELD_NAME.equals(targetKey);
+  }
+
+  /**
+   * Gets foreign keys of a source document.
+   *
+   * @param source
+   *     document source, may be null
+   * @return keys of related documents
+   */
+  Collection<String> toForeignKeys(Map<String, Object> source) {
+    return (source == null) ? Collections.emptyList() : toKeys(source.get(foreignKey));
+  }
+}
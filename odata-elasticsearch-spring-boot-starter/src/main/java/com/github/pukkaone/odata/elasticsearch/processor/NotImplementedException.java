@@ -1,5 +1,6 @@
 package com.github.pukkaone.odata.elasticsearch.processor;
 
+import lombok.Getter;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.ODataApplicationException;
 
@@ -8,6 +9,12 @@ import org.apache.olingo.server.api.ODataApplicationException;
  */
 public class NotImplementedException extends ODataApplicationException {
 
+  private static final String OTHER_OPERATOR = "other";
+
+  /** Operator, method or transformation which is not implemented. */
+  @Getter
+  private final String operator;
+
   /**
    * Constructor.
    *
@@ -15,6 +22,19 @@ public class NotImplementedException extends ODataApplicationException {
    *     message
    */
   public NotImplementedException(String message) {
+    this(message, OTHER_OPERATOR);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param message
+   *     message
+   * @param operator
+   *     operator, method or transformation which is not implemented
+   */
+  public NotImplementedException(String message, String operator) {
     super(message, HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), null);
+    this.operator = operator;
   }
 }
@@ -0,0 +1,132 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+
+/**
+ * Elasticsearch query translated from the filter, order by and select options of a request.
+ * The filter query is kept as JSON text with a parameter in place of each literal, so a request
+ * with the same {@link QueryShape} only binds its literal values.
+ */
+class QueryPlan {
+
+  // Unique prefix, so a parameter cannot be mistaken for a value in the query.
+  private static final String PARAMETER_PREFIX = "odata-parameter-" + UUID.randomUUID() + "-";
+  private static final Pattern PARAMETER_PATTERN = Pattern.compile(
+      '"' + Pattern.quote(PARAMETER_PREFIX) + "(\\d+)\"");
+
+  /** JSON text around the parameters, or null if there is no filter. */
+  private final List<String> filterFragments;
+
+  /** Index of literal bound to each parameter. */
+  private final List<Integer> filterParameterIndexes;
+
+  /** Sorts requested by order by option, or null if order by option is not specified. */
+  private final List<FieldSortBuilder> sorts;
+
+  /** Source filter requested by select option, including foreign keys to expand. */
+  @Getter
+  private final FetchSourceContext fetchSourceContext;
+
+  /**
+   * Constructor.
+   *
+   * @param filterQuery
+   *     filter query having parameters in place of literals, or null if there is no filter
+   * @param sorts
+   *     sorts, or null if order by option is not specified
+   * @param fetchSourceContext
+   *     source filter
+   */
+  QueryPlan(
+      QueryBuilder filterQuery,
+      List<FieldSortBuilder> sorts,
+      FetchSourceContext fetchSourceContext) {
+
+    this.sorts = sorts;
+    this.fetchSourceContext = fetchSourceContext;
+
+    if (filterQuery == null) {
+      this.filterFragments = null;
+      this.filterParameterIndexes = null;
+      return;
+    }
+
+    this.filterFragments = new ArrayList<>();
+    this.filterParameterIndexes = new ArrayList<>();
+    String json = Strings.toString(filterQuery);
+    Matcher matcher = PARAMETER_PATTERN.matcher(json);
+    int start = 0;
+    while (matcher.find()) {
+      filterFragments.add(json.substring(start, matcher.start()));
+      filterParameterIndexes.add(Integer.parseInt(matcher.group(1)));
+      start = matcher.end();
+    }
+
+    filterFragments.add(json.substring(start));
+  }
+
+  /**
+   * Gets parameter to use in place of a literal.
+   *
+   * @param index
+   *     literal index in visiting order
+   * @return parameter
+   */
+  static String toParameter(int index) {
+    return PARAMETER_PREFIX + index;
+  }
+
+  /**
+   * Creates sorts requested by order by option. Sort builders are mutable, so each request gets
+   * its own copies instead of sharing the cached ones.
+   *
+   * @return sorts, or null if order by option is not specified
+   */
+  List<SortBuilder<?>> createSorts() {
+    if (sorts == null) {
+      return null;
+    }
+
+    return sorts.stream()
+        .map(FieldSortBuilder::new)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Binds literal values to the filter query parameters.
+   *
+   * @param literals
+   *     literal values, in visiting order
+   * @return filter query, or null if there is no filter
+   */
+  QueryBuilder bindFilter(List<Object> literals) {
+    if (filterFragments == null) {
+      return null;
+    }
+
+    JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+    StringBuilder json = new StringBuilder(filterFragments.get(0));
+    for (int i = 0; i < filterParameterIndexes.size(); ++i) {
+      json.append('"');
+      encoder.quoteAsString(literals.get(filterParameterIndexes.get(i)).toString(), json);
+      json.append('"')
+          .append(filterFragments.get(i + 1));
+    }
+
+    // Elasticsearch parses the query, so it is not built again on this side.
+    return QueryBuilders.wrapperQuery(json.toString());
+  }
+}
@@ -0,0 +1,180 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.pukkaone.odata.elasticsearch.autoconfigure.ODataElasticsearchProperties;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Value;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.api.uri.queryoption.FilterOption;
+import org.apache.olingo.server.api.uri.queryoption.OrderByItem;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import org.apache.olingo.server.api.uri.queryoption.expression.Literal;
+import org.apache.olingo.server.api.uri.queryoption.expression.Member;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caches query plans translated from request options. Most requests repeat a small number of
+ * query shapes, so a cache hit skips translating the filter expression and only binds the
+ * literal values.
+ */
+@Component
+public class QueryPlanCache {
+
+  private final int maxTerms;
+  private final Cache<Key, QueryPlan> keyToQueryPlanCache;
+
+  /**
+   * Identifies query plan. Entity Set instance identifies the schema version, because a mapping
+   * change builds a new Entity Data Model.
+   */
+  @Value
+  private static class Key {
+    private EdmEntitySet entitySet;
+    private String shape;
+  }
+
+  /**
+   * Converts literals to parameters instead of values.
+   */
+  private static class ParameterizingExpressionVisitor extends ElasticsearchExpressionVisitor {
+
+    private int literalCount;
+
+    ParameterizingExpressionVisitor(int maxTerms) {
+      super(maxTerms);
+    }
+
+    @Override
+    public Object visitLiteral(Literal literal) {
+      // Query shape does not collect null literals, so they are not parameters.
+      if (LiteralUtils.isNull(literal)) {
+        return null;
+      }
+
+      return QueryPlan.toParameter(literalCount++);
+    }
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param properties
+   *     configuration properties
+   */
+  public QueryPlanCache(ODataElasticsearchProperties properties) {
+    this.maxTerms = properties.getFilter().getMaxTerms();
+    this.keyToQueryPlanCache = Caffeine.newBuilder()
+        .maximumSize(properties.getQueryPlan().getCacheSize())
+        .recordStats()
+        .build();
+  }
+
+  private QueryBuilder toFilterQuery(FilterOption filterOption)
+      throws ODataApplicationException {
+
+    if (filterOption == null) {
+      return null;
+    }
+
+    try {
+      return (QueryBuilder) filterOption.getExpression()
+          .accept(new ParameterizingExpressionVisitor(maxTerms));
+    } catch (ExpressionVisitException e) {
+      throw new ODataApplicationException(
+          "accept failed", HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(), null, e);
+    }
+  }
+
+  private static List<FieldSortBuilder> toSorts(UriInfo uriInfo) throws NotImplementedException {
+    if (uriInfo.getOrderByOption() == null) {
+      return null;
+    }
+
+    List<FieldSortBuilder> sorts = new ArrayList<>();
+    for (OrderByItem orderByItem : uriInfo.getOrderByOption().getOrders()) {
+      Member member = (Member) orderByItem.getExpression();
+      MemberMapper.checkPropertyPath(member);
+
+      String fieldName = MemberMapper.toFieldName(member);
+      sorts.add(SortBuilders.fieldSort(fieldName)
+          .order(orderByItem.isDescending() ? SortOrder.DESC : SortOrder.ASC));
+    }
+
+    return sorts;
+  }
+
+  private QueryPlan createQueryPlan(EdmEntitySet entitySet, UriInfo uriInfo)
+      throws ODataApplicationException {
+
+    // Foreign keys are fetched even if not selected, to read the entities they link to.
+    List<NavigationExpansion> expansions =
+        NavigationExpansion.of(entitySet, uriInfo.getExpandOption());
+    return new QueryPlan(
+        toFilterQuery(uriInfo.getFilterOption()),
+        toSorts(uriInfo),
+        SelectOptionMapper.toFetchSourceContext(
+            uriInfo.getSelectOption(), NavigationExpansion.toForeignKeyFields(expansions)));
+  }
+
+  /**
+   * Gets query plan for request options, translating them if the query shape is not cached.
+   *
+   * @param entitySet
+   *     Entity Set to query
+   * @param uriInfo
+   *     contains filter, order by, select and expand arguments
+   * @param queryShape
+   *     normalized request options
+   * @return query plan
+   * @throws ODataApplicationException
+   *     if error occurred handling filter or expand option
+   */
+  QueryPlan get(EdmEntitySet entitySet, UriInfo uriInfo, QueryShape queryShape)
+      throws ODataApplicationException {
+
+    Key key = new Key(entitySet, queryShape.getKey());
+    QueryPlan queryPlan = keyToQueryPlanCache.getIfPresent(key);
+    if (queryPlan == null) {
+      // Translation errors are reported to the request, so translate outside the cache loader.
+      queryPlan = createQueryPlan(entitySet, uriInfo);
+      keyToQueryPlanCache.put(key, queryPlan);
+    }
+
+    return queryPlan;
+  }
+
+  /**
+   * Gets underlying cache, to bind cache meters to it.
+   *
+   * @return cache
+   */
+  public Cache<?, ?> getCache() {
+    return keyToQueryPlanCache;
+  }
+
+  /**
+   * Gets cache statistics, including hit rate.
+   *
+   * @return statistics
+   */
+  public CacheStats stats() {
+    return keyToQueryPlanCache.stats();
+  }
+
+  /**
+   * Discards all query plans.
+   */
+  public void invalidateAll() {
+    keyToQueryPlanCache.invalidateAll();
+  }
+}
@@ -0,0 +1,187 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.apache.olingo.commons.api.edm.EdmEnumType;
+import org.apache.olingo.commons.api.edm.EdmType;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.commons.core.edm.primitivetype.EdmString;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.api.uri.UriResource;
+import org.apache.olingo.server.api.uri.queryoption.ExpandOption;
+import org.apache.olingo.server.api.uri.queryoption.FilterOption;
+import org.apache.olingo.server.api.uri.queryoption.OrderByItem;
+import org.apache.olingo.server.api.uri.queryoption.OrderByOption;
+import org.apache.olingo.server.api.uri.queryoption.SelectOption;
+import org.apache.olingo.server.api.uri.queryoption.expression.BinaryOperatorKind;
+import org.apache.olingo.server.api.uri.queryoption.expression.Expression;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitor;
+import org.apache.olingo.server.api.uri.queryoption.expression.Literal;
+import org.apache.olingo.server.api.uri.queryoption.expression.Member;
+import org.apache.olingo.server.api.uri.queryoption.expression.MethodKind;
+import org.apache.olingo.server.api.uri.queryoption.expression.UnaryOperatorKind;
+
+/**
+ * Filter, order by, select and expand options of a request, normalized to a key with each literal
+ * replaced by a parameter. Requests differing only in literal values have the same key.
+ */
+@Getter
+@RequiredArgsConstructor
+class QueryShape {
+
+  private static final String NULL = "null";
+  private static final String PARAMETER = "?";
+
+  /** Normalized options. */
+  private final String key;
+
+  /** Literal values, in the order the filter expression visits them. */
+  private final List<Object> literals;
+
+  /**
+   * Normalizes expression, and collects literal values in visiting order.
+   */
+  private static class ShapeVisitor implements ExpressionVisitor<String> {
+
+    private final List<Object> literals = new ArrayList<>();
+
+    @Override
+    public String visitBinaryOperator(
+        BinaryOperatorKind operator, String left, String right) {
+
+      return operator + "(" + left + "," + right + ")";
+    }
+
+    @Override
+    public String visitBinaryOperator(
+        BinaryOperatorKind operator, String left, List<String> right) {
+
+      return operator + "(" + left + ",[" + String.join(",", right) + "])";
+    }
+
+    @Override
+    public String visitUnaryOperator(UnaryOperatorKind operator, String operand) {
+      return operator + "(" + operand + ")";
+    }
+
+    @Override
+    public String visitMethodCall(MethodKind method, List<String> parameters) {
+      return method + "(" + String.join(",", parameters) + ")";
+    }
+
+    @Override
+    public String visitLambdaExpression(
+        String lambdaFunction, String lambdaVariable, Expression expression) {
+
+      return lambdaFunction + "(" + lambdaVariable + ")";
+    }
+
+    @Override
+    public String visitLiteral(Literal literal) {
+      if (LiteralUtils.isNull(literal)) {
+        // Null translates to a different query than a value, so it is part of the key.
+        return NULL;
+      }
+
+      // Same value the filter expression visitor converts the literal to.
+      String value = literal.getText();
+      if (literal.getType() instanceof EdmString) {
+        value = LiteralUtils.unquote(value);
+      }
+
+      literals.add(value);
+      return PARAMETER;
+    }
+
+    @Override
+    public String visitMember(Member member) {
+      StringBuilder path = new StringBuilder();
+      for (UriResource uriResource : member.getResourcePath().getUriResourceParts()) {
+        if (path.length() > 0) {
+          path.append('/');
+        }
+
+        path.append(uriResource.getSegmentValue());
+      }
+
+      return path.toString();
+    }
+
+    @Override
+    public String visitAlias(String aliasName) {
+      return aliasName;
+    }
+
+    @Override
+    public String visitTypeLiteral(EdmType type) {
+      return type.getFullQualifiedName().getFullQualifiedNameAsString();
+    }
+
+    @Override
+    public String visitLambdaReference(String variableName) {
+      return variableName;
+    }
+
+    @Override
+    public String visitEnum(EdmEnumType type, List<String> enumValues) {
+      return type.getFullQualifiedName().getFullQualifiedNameAsString() + enumValues;
+    }
+  }
+
+  private static String accept(Expression expression, ShapeVisitor visitor)
+      throws ODataApplicationException {
+
+    try {
+      return expression.accept(visitor);
+    } catch (ExpressionVisitException e) {
+      throw new ODataApplicationException(
+          "accept failed", HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(), null, e);
+    }
+  }
+
+  /**
+   * Normalizes request options.
+   *
+   * @param uriInfo
+   *     contains filter, order by, select and expand arguments
+   * @return query shape
+   * @throws ODataApplicationException
+   *     if error occurred visiting filter expression
+   */
+  static QueryShape of(UriInfo uriInfo) throws ODataApplicationException {
+    ShapeVisitor visitor = new ShapeVisitor();
+    StringBuilder key = new StringBuilder();
+
+    FilterOption filterOption = uriInfo.getFilterOption();
+    if (filterOption != null) {
+      key.append(accept(filterOption.getExpression(), visitor));
+    }
+
+    key.append('|');
+    OrderByOption orderByOption = uriInfo.getOrderByOption();
+    if (orderByOption != null) {
+      for (OrderByItem orderByItem : orderByOption.getOrders()) {
+        key.append(accept(orderByItem.getExpression(), visitor))
+            .append(orderByItem.isDescending() ? " desc," : " asc,");
+      }
+    }
+
+    key.append('|');
+    SelectOption selectOption = uriInfo.getSelectOption();
+    if (selectOption != null) {
+      key.append(selectOption.getText());
+    }
+
+    key.append('|');
+    ExpandOption expandOption = uriInfo.getExpandOption();
+    if (expandOption != null) {
+      key.append(expandOption.getText());
+    }
+
+    return new QueryShape(key.toString(), visitor.literals);
+  }
+}
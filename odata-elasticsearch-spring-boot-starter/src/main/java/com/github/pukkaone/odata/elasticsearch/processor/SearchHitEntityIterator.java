@@ -0,0 +1,87 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import com.github.pukkaone.odata.web.metrics.OperationMetrics;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import lombok.Getter;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityIterator;
+import org.elasticsearch.search.SearchHit;
+
+/**
+ * Converts each search hit to an entity only when the iterator reaches it. The entity tag of the
+ * page is computed up front from the hit versions, so the response can be answered with 304 Not
+ * Modified without converting any hit.
+ */
+public class SearchHitEntityIterator extends EntityIterator {
+
+  private final Iterator<SearchHit> hits;
+  private final Function<SearchHit, Entity> converter;
+  private final OperationMetrics metrics;
+  private long conversionNanos;
+  private boolean conversionRecorded;
+
+  /** Entity tag of the page. */
+  @Getter
+  private final String etag;
+
+  /**
+   * Constructor.
+   *
+   * @param hits
+   *     search hits
+   * @param converter
+   *     converts search hit to entity
+   * @param count
+   *     total count, or null if not requested
+   * @param next
+   *     link to next page, or null if there is no next page
+   * @param entityVersion
+   *     gets ID and entity tag of search hit, as {@link ETags#toEntityVersion} builds it
+   * @param metrics
+   *     records total conversion time when the iterator is exhausted
+   */
+  SearchHitEntityIterator(
+      Iterable<SearchHit> hits,
+      Function<SearchHit, Entity> converter,
+      Integer count,
+      URI next,
+      Function<SearchHit, String> entityVersion,
+      OperationMetrics metrics) {
+
+    this.hits = hits.iterator();
+    this.converter = converter;
+    this.metrics = metrics;
+    setCount(count);
+    setNext(next);
+
+    List<String> entityVersions = new ArrayList<>();
+    hits.forEach(hit -> entityVersions.add(entityVersion.apply(hit)));
+    this.etag = ETags.toCollectionETag(entityVersions, count, next);
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (hits.hasNext()) {
+      return true;
+    }
+
+    if (!conversionRecorded) {
+      conversionRecorded = true;
+      metrics.recordTime(Meters.HIT_CONVERSION, conversionNanos);
+    }
+
+    return false;
+  }
+
+  @Override
+  public Entity next() {
+    long startNanos = System.nanoTime();
+    Entity entity = converter.apply(hits.next());
+    conversionNanos += System.nanoTime() - startNanos;
+    return entity;
+  }
+}
@@ -0,0 +1,110 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import com.github.pukkaone.odata.elasticsearch.provider.ElasticsearchFieldMapping;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.olingo.commons.api.edm.EdmElement;
+import org.apache.olingo.commons.api.edm.EdmProperty;
+import org.apache.olingo.commons.api.edm.EdmStructuredType;
+import org.apache.olingo.commons.api.edm.constants.EdmTypeKind;
+import org.apache.olingo.server.api.uri.queryoption.SearchOption;
+import org.apache.olingo.server.api.uri.queryoption.search.SearchBinary;
+import org.apache.olingo.server.api.uri.queryoption.search.SearchBinaryOperatorKind;
+import org.apache.olingo.server.api.uri.queryoption.search.SearchExpression;
+import org.elasticsearch.index.mapper.TextFieldMapper;
+import org.elasticsearch.index.query.MultiMatchQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+
+/**
+ * Converts search option to Elasticsearch full text query.
+ */
+public final class SearchOptionMapper {
+
+  // Private constructor disallows creating instances of this class.
+  private SearchOptionMapper() {
+  }
+
+  private static void addTextFieldNames(
+      EdmStructuredType structuredType, String prefix, List<String> fieldNames) {
+
+    for (String propertyName : structuredType.getPropertyNames()) {
+      EdmElement element = structuredType.getProperty(propertyName);
+      if (!(element instanceof EdmProperty)) {
+        continue;
+      }
+
+      EdmProperty property = (EdmProperty) element;
+      if (property.getType().getKind() == EdmTypeKind.COMPLEX) {
+        // Fields in nested documents can only be searched by a nested query.
+        if (!property.isCollection()) {
+          addTextFieldNames(
+              (EdmStructuredType) property.getType(), prefix + propertyName + '.', fieldNames);
+        }
+      } else if (property.getMapping() instanceof ElasticsearchFieldMapping &&
+          TextFieldMapper.CONTENT_TYPE.equals(
+              ((ElasticsearchFieldMapping) property.getMapping()).getType())) {
+        fieldNames.add(prefix + propertyName);
+      }
+    }
+  }
+
+  /**
+   * Finds full text fields of an Entity Type.
+   *
+   * @param structuredType
+   *     type to search
+   * @return Elasticsearch field names
+   */
+  public static String[] toTextFieldNames(EdmStructuredType structuredType) {
+    List<String> fieldNames = new ArrayList<>();
+    addTextFieldNames(structuredType, "", fieldNames);
+    return fieldNames.toArray(new String[0]);
+  }
+
+  private static QueryBuilder toQueryBuilder(SearchExpression expression, String[] fieldNames) {
+    if (expression.isSearchTerm()) {
+      // Terms enclosed in double quotes are a phrase.
+      return QueryBuilders.multiMatchQuery(
+              expression.asSearchTerm().getSearchTerm(), fieldNames)
+          .type(MultiMatchQueryBuilder.Type.PHRASE);
+    }
+
+    if (expression.isSearchUnary()) {
+      // NOT is the only unary operator.
+      return QueryBuilders.boolQuery()
+          .mustNot(toQueryBuilder(expression.asSearchUnary().getOperand(), fieldNames));
+    }
+
+    SearchBinary binary = expression.asSearchBinary();
+    QueryBuilder left = toQueryBuilder(binary.getLeftOperand(), fieldNames);
+    QueryBuilder right = toQueryBuilder(binary.getRightOperand(), fieldNames);
+    if (binary.getOperator() == SearchBinaryOperatorKind.AND) {
+      return QueryBuilders.boolQuery()
+          .must(left)
+          .must(right);
+    }
+
+    return QueryBuilders.boolQuery()
+        .should(left)
+        .should(right)
+        .minimumShouldMatch(1);
+  }
+
+  /**
+   * Converts search option to query matching the search terms in full text fields. Matching
+   * documents are scored by relevance.
+   *
+   * @param searchOption
+   *     search option
+   * @param structuredType
+   *     type to search
+   * @return query
+   */
+  public static QueryBuilder toQueryBuilder(
+      SearchOption searchOption, EdmStructuredType structuredType) {
+
+    // Without text fields, search the fields in the index.query.default_field index setting.
+    return toQueryBuilder(searchOption.getSearchExpression(), toTextFieldNames(structuredType));
+  }
+}
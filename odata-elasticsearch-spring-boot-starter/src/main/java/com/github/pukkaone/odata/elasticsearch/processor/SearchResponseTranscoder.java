@@ -0,0 +1,343 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiFunction;
+import lombok.Getter;
+import org.apache.olingo.commons.api.Constants;
+import org.apache.olingo.commons.api.ex.ODataRuntimeException;
+import org.apache.olingo.server.api.ODataContent;
+import org.elasticsearch.index.seqno.SequenceNumbers;
+
+/**
+ * Writes an Elasticsearch search response as an OData JSON entity collection with minimal
+ * metadata. The response is read with a streaming parser and each hit is written directly to the
+ * response, so no search hit, map or entity objects are built. A first pass over the response
+ * reads only the hit versions, total and sort values, so the entity tag of the page is known
+ * before the response is written.
+ */
+class SearchResponseTranscoder implements ODataContent {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final String ID_FIELD_NAME = "_id";
+
+  private final byte[] searchResponse;
+  private final String contextUrl;
+  private final StructuredTypeConverter converter;
+  private final Set<String> selectedPropertyNames;
+  private final int pageSize;
+  private Integer count;
+  private URI next;
+
+  /** Entity tag of the page. */
+  @Getter
+  private final String etag;
+
+  /**
+   * Builds link to next page from the last hit of the page.
+   */
+  @FunctionalInterface
+  interface NextLinkBuilder {
+
+    /**
+     * Builds link to next page.
+     *
+     * @param hitCount
+     *     number of hits in the search response, which is more than the page size if there is a
+     *     next page
+     * @param lastSortValues
+     *     sort values of the last hit of the page, or null if the page is empty
+     * @param pointInTimeId
+     *     point in time ID, or null if the search does not use a point in time
+     * @return link to next page, or null if there is no next page
+     */
+    URI build(int hitCount, Object[] lastSortValues, String pointInTimeId);
+  }
+
+  /**
+   * State of the hit being transcoded.
+   */
+  private static class Hit {
+
+    private String id;
+    private long seqNo = SequenceNumbers.UNASSIGNED_SEQ_NO;
+    private long primaryTerm;
+    private Object[] sortValues;
+    private boolean written;
+  }
+
+  /**
+   * Constructor. Reads the response once to compute the entity tag and link to next page.
+   *
+   * @param searchResponse
+   *     Elasticsearch search response body
+   * @param contextUrl
+   *     context URL to write in response
+   * @param converter
+   *     converter for the Entity Type of the Entity Set searched
+   * @param selectedPropertyNames
+   *     names of properties to write, or null to write all properties
+   * @param countRequested
+   *     true to write the total count
+   * @param pageSize
+   *     maximum number of hits to write
+   * @param nextLinkBuilder
+   *     builds link to next page, or null if paging is not server-driven
+   * @param entityVersion
+   *     gets version of entity from document ID and entity tag, as
+   *     {@link ETags#toEntityVersion} builds it
+   */
+  SearchResponseTranscoder(
+      byte[] searchResponse,
+      String contextUrl,
+      StructuredTypeConverter converter,
+      Set<String> selectedPropertyNames,
+      boolean countRequested,
+      int pageSize,
+      NextLinkBuilder nextLinkBuilder,
+      BiFunction<String, String, String> entityVersion) {
+
+    this.searchResponse = searchResponse;
+    this.contextUrl = contextUrl;
+    this.converter = converter;
+    this.selectedPropertyNames = selectedPropertyNames;
+    this.pageSize = pageSize;
+
+    List<String> entityVersions = new ArrayList<>();
+    try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(searchResponse)) {
+      scan(parser, countRequested, nextLinkBuilder, entityVersion, entityVersions);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot read search response", e);
+    }
+
+    this.etag = ETags.toCollectionETag(entityVersions, count, next);
+  }
+
+  private void scan(
+      JsonParser parser,
+      boolean countRequested,
+      NextLinkBuilder nextLinkBuilder,
+      BiFunction<String, String, String> entityVersion,
+      List<String> entityVersions) throws IOException {
+
+    String pointInTimeId = null;
+    int hitCount = 0;
+    Object[] lastSortValues = null;
+    parser.nextToken();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.getCurrentName();
+      parser.nextToken();
+      switch (fieldName) {
+        case "pit_id":
+          pointInTimeId = parser.getText();
+          break;
+        case "hits":
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String hitsFieldName = parser.getCurrentName();
+            parser.nextToken();
+            if ("total".equals(hitsFieldName) && countRequested) {
+              count = readCount(parser);
+            } else if ("hits".equals(hitsFieldName)) {
+              while (parser.nextToken() == JsonToken.START_OBJECT) {
+                if (hitCount < pageSize) {
+                  Hit hit = readHit(parser);
+                  entityVersions.add(entityVersion.apply(
+                      hit.id, ETags.toETag(hit.primaryTerm, hit.seqNo)));
+                  lastSortValues = hit.sortValues;
+                } else {
+                  // Hit fetched to find out if there is a next page.
+                  parser.skipChildren();
+                }
+
+                ++hitCount;
+              }
+            } else {
+              parser.skipChildren();
+            }
+          }
+          break;
+        default:
+          parser.skipChildren();
+          break;
+      }
+    }
+
+    if (nextLinkBuilder != null) {
+      next = nextLinkBuilder.build(hitCount, lastSortValues, pointInTimeId);
+    }
+  }
+
+  private static Integer readCount(JsonParser parser) throws IOException {
+    long count = 0;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.getCurrentName();
+      parser.nextToken();
+      if ("value".equals(fieldName)) {
+        count = parser.getLongValue();
+      }
+    }
+
+    return (int) Math.min(count, Integer.MAX_VALUE);
+  }
+
+  private static Hit readHit(JsonParser parser) throws IOException {
+    Hit hit = new Hit();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.getCurrentName();
+      parser.nextToken();
+      switch (fieldName) {
+        case ID_FIELD_NAME:
+          hit.id = parser.getText();
+          break;
+        case "_seq_no":
+          hit.seqNo = parser.getLongValue();
+          break;
+        case "_primary_term":
+          hit.primaryTerm = parser.getLongValue();
+          break;
+        case "sort":
+          hit.sortValues = readSortValues(parser);
+          break;
+        default:
+          parser.skipChildren();
+          break;
+      }
+    }
+
+    return hit;
+  }
+
+  @Override
+  public void write(WritableByteChannel channel) {
+    write(Channels.newOutputStream(channel));
+  }
+
+  @Override
+  public void write(OutputStream output) {
+    try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(searchResponse);
+        JsonGenerator generator = OBJECT_MAPPER.getFactory().createGenerator(output)) {
+      // Leave closing the response to the servlet container.
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      transcode(parser, generator);
+    } catch (IOException e) {
+      throw new ODataRuntimeException("Cannot write response content", e);
+    }
+  }
+
+  private void transcode(JsonParser parser, JsonGenerator generator) throws IOException {
+    generator.writeStartObject();
+    generator.writeStringField(Constants.JSON_CONTEXT, contextUrl);
+
+    int hitCount = 0;
+    parser.nextToken();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.getCurrentName();
+      parser.nextToken();
+      if ("hits".equals(fieldName)) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String hitsFieldName = parser.getCurrentName();
+          parser.nextToken();
+          if ("total".equals(hitsFieldName)) {
+            parser.skipChildren();
+            if (count != null) {
+              generator.writeNumberField(Constants.JSON_COUNT, count);
+            }
+          } else if ("hits".equals(hitsFieldName)) {
+            generator.writeArrayFieldStart(Constants.VALUE);
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+              if (hitCount < pageSize) {
+                transcodeHit(parser, generator);
+              } else {
+                // Hit fetched to find out if there is a next page.
+                parser.skipChildren();
+              }
+
+              ++hitCount;
+            }
+            generator.writeEndArray();
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+
+    if (next != null) {
+      generator.writeStringField(Constants.JSON_NEXT_LINK, next.toASCIIString());
+    }
+
+    generator.writeEndObject();
+  }
+
+  private void transcodeHit(JsonParser parser, JsonGenerator generator) throws IOException {
+    Hit hit = new Hit();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.getCurrentName();
+      parser.nextToken();
+      switch (fieldName) {
+        case ID_FIELD_NAME:
+          hit.id = parser.getText();
+          break;
+        case "_seq_no":
+          hit.seqNo = parser.getLongValue();
+          break;
+        case "_primary_term":
+          hit.primaryTerm = parser.getLongValue();
+          break;
+        case "_source":
+          writeEntity(hit, parser, generator);
+          break;
+        default:
+          parser.skipChildren();
+          break;
+      }
+    }
+
+    if (!hit.written) {
+      // Source was not fetched because only document ID was selected.
+      writeEntity(hit, null, generator);
+    }
+  }
+
+  private void writeEntity(Hit hit, JsonParser sourceParser, JsonGenerator generator)
+      throws IOException {
+
+    generator.writeStartObject();
+    String etag = ETags.toETag(hit.primaryTerm, hit.seqNo);
+    if (etag != null) {
+      generator.writeStringField(Constants.JSON_ETAG, etag);
+    }
+
+    String writtenPropertyName = null;
+    if (selectedPropertyNames == null || selectedPropertyNames.contains(ID_FIELD_NAME)) {
+      generator.writeStringField(ID_FIELD_NAME, hit.id);
+      writtenPropertyName = ID_FIELD_NAME;
+    }
+
+    converter.transcodeProperties(
+        sourceParser, generator, selectedPropertyNames, writtenPropertyName);
+    generator.writeEndObject();
+    hit.written = true;
+  }
+
+  private static Object[] readSortValues(JsonParser parser) throws IOException {
+    List<Object> sortValues = new ArrayList<>();
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      sortValues.add(parser.readValueAs(Object.class));
+    }
+
+    return sortValues.toArray();
+  }
+}
@@ -0,0 +1,119 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.olingo.server.api.uri.UriResource;
+import org.apache.olingo.server.api.uri.UriResourceProperty;
+import org.apache.olingo.server.api.uri.queryoption.SelectItem;
+import org.apache.olingo.server.api.uri.queryoption.SelectOption;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+
+/**
+ * Converts select option to Elasticsearch source filtering.
+ */
+public final class SelectOptionMapper {
+
+  private static final String ID_PROPERTY_NAME = "_id";
+
+  // Private constructor disallows creating instances of this class.
+  private SelectOptionMapper() {
+  }
+
+  private static boolean isSelectAll(SelectOption selectOption) {
+    return selectOption == null ||
+        selectOption.getSelectItems().isEmpty() ||
+        selectOption.getSelectItems().stream().anyMatch(SelectItem::isStar);
+  }
+
+  private static List<String> toPropertyNames(SelectItem selectItem) {
+    if (selectItem.getResourcePath() == null) {
+      return null;
+    }
+
+    List<UriResource> resourceParts = selectItem.getResourcePath().getUriResourceParts();
+    if (resourceParts.isEmpty() ||
+        !resourceParts.stream().allMatch(UriResourceProperty.class::isInstance)) {
+      return null;
+    }
+
+    return resourceParts.stream()
+        .map(uriResource -> ((UriResourceProperty) uriResource).getProperty().getName())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Converts select option to fields to include from the document source.
+   *
+   * @param selectOption
+   *     select option, may be null
+   * @return source filter, or null to fetch entire source
+   */
+  public static FetchSourceContext toFetchSourceContext(SelectOption selectOption) {
+    if (isSelectAll(selectOption)) {
+      return null;
+    }
+
+    String[] includes = selectOption.getSelectItems()
+        .stream()
+        .map(SelectOptionMapper::toPropertyNames)
+        .filter(propertyNames ->
+            propertyNames != null && !ID_PROPERTY_NAME.equals(propertyNames.get(0)))
+        .map(propertyNames -> String.join(".", propertyNames))
+        .distinct()
+        .toArray(String[]::new);
+    if (includes.length == 0) {
+      // Only document ID is selected.
+      return FetchSourceContext.DO_NOT_FETCH_SOURCE;
+    }
+
+    return new FetchSourceContext(true, includes, null);
+  }
+
+  /**
+   * Converts select option to fields to include from the document source, adding fields
+   * required to process the request even if they are not selected.
+   *
+   * @param selectOption
+   *     select option, may be null
+   * @param requiredFieldNames
+   *     names of fields to include anyway
+   * @return source filter, or null to fetch entire source
+   */
+  public static FetchSourceContext toFetchSourceContext(
+      SelectOption selectOption, Collection<String> requiredFieldNames) {
+
+    FetchSourceContext fetchSourceContext = toFetchSourceContext(selectOption);
+    if (fetchSourceContext == null || requiredFieldNames.isEmpty()) {
+      return fetchSourceContext;
+    }
+
+    Set<String> includes = new LinkedHashSet<>(Arrays.asList(fetchSourceContext.includes()));
+    includes.addAll(requiredFieldNames);
+    return new FetchSourceContext(true, includes.toArray(new String[0]), null);
+  }
+
+  /**
+   * Converts select option to names of top level properties to convert from the document
+   * source.
+   *
+   * @param selectOption
+   *     select option, may be null
+   * @return property names, or null to convert all properties
+   */
+  public static Set<String> toSelectedPropertyNames(SelectOption selectOption) {
+    if (isSelectAll(selectOption)) {
+      return null;
+    }
+
+    return selectOption.getSelectItems()
+        .stream()
+        .map(SelectOptionMapper::toPropertyNames)
+        .filter(propertyNames -> propertyNames != null)
+        .map(propertyNames -> propertyNames.get(0))
+        .collect(Collectors.toCollection(LinkedHashSet::new));
+  }
+}
@@ -0,0 +1,67 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.ODataApplicationException;
+
+/**
+ * Opaque continuation token identifying where the next page of a server-driven paged response
+ * starts.
+ */
+@AllArgsConstructor
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@NoArgsConstructor
+public class SkipToken {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  /** Sort values of the last hit on the previous page, passed to search_after. */
+  private Object[] sortValues;
+
+  /** Point in time ID, or null if the search does not use a point in time. */
+  private String pointInTimeId;
+
+  /** Key of the last group on the previous page, passed to composite aggregation after. */
+  private Map<String, Object> afterKey;
+
+  /**
+   * Converts to string which can be used in a URI.
+   *
+   * @return encoded string
+   */
+  public String encode() {
+    try {
+      return Base64.getUrlEncoder()
+          .withoutPadding()
+          .encodeToString(OBJECT_MAPPER.writeValueAsBytes(this));
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot encode skip token", e);
+    }
+  }
+
+  /**
+   * Converts from string produced by {@link #encode()}.
+   *
+   * @param input
+   *     encoded string
+   * @return skip token
+   * @throws ODataApplicationException
+   *     if input is not a valid skip token
+   */
+  public static SkipToken decode(String input) throws ODataApplicationException {
+    try {
+      return OBJECT_MAPPER.readValue(Base64.getUrlDecoder().decode(input), SkipToken.class);
+    } catch (IllegalArgumentException | IOException e) {
+      throw new ODataApplicationException(
+          "Invalid $skiptoken " + input, HttpStatusCode.BAD_REQUEST.getStatusCode(), null, e);
+    }
+  }
+}
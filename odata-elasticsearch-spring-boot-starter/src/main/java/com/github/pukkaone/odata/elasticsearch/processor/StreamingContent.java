@@ -0,0 +1,66 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import lombok.RequiredArgsConstructor;
+import org.apache.olingo.commons.api.ex.ODataRuntimeException;
+import org.apache.olingo.server.api.ODataContent;
+
+/**
+ * Writes streamed content to response in chunks of a configured size, so memory used by the
+ * response does not depend on the number of entities.
+ */
+@RequiredArgsConstructor
+class StreamingContent implements ODataContent {
+
+  private final ODataContent content;
+  private final int flushThreshold;
+
+  /**
+   * Passes writes to the response, but leaves closing the response to the servlet container.
+   */
+  @RequiredArgsConstructor
+  private static class UnclosableOutputStream extends OutputStream {
+
+    private final OutputStream output;
+
+    @Override
+    public void write(int b) throws IOException {
+      output.write(b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      output.write(bytes, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      output.flush();
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  @Override
+  public void write(WritableByteChannel channel) {
+    write(Channels.newOutputStream(channel));
+  }
+
+  @Override
+  public void write(OutputStream output) {
+    BufferedOutputStream bufferedOutput =
+        new BufferedOutputStream(new UnclosableOutputStream(output), flushThreshold);
+    content.write(bufferedOutput);
+    try {
+      bufferedOutput.flush();
+    } catch (IOException e) {
+      throw new ODataRuntimeException("Cannot write response content", e);
+    }
+  }
+}
@@ -0,0 +1,594 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.pukkaone.odata.elasticsearch.provider.ElasticsearchDateFormat;
+import com.github.pukkaone.odata.elasticsearch.provider.ElasticsearchFieldMapping;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.olingo.commons.api.data.ComplexValue;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.EdmComplexType;
+import org.apache.olingo.commons.api.edm.EdmElement;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveType;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeException;
+import org.apache.olingo.commons.api.edm.EdmProperty;
+import org.apache.olingo.commons.api.edm.EdmStructuredType;
+import org.apache.olingo.commons.api.edm.EdmType;
+import org.apache.olingo.commons.api.edm.constants.EdmTypeKind;
+import org.apache.olingo.commons.api.edm.geo.Geospatial;
+import org.apache.olingo.commons.api.edm.geo.Point;
+import org.apache.olingo.commons.core.edm.primitivetype.EdmBinary;
+import org.apache.olingo.commons.core.edm.primitivetype.EdmDate;
+import org.apache.olingo.commons.core.edm.primitivetype.EdmDateTimeOffset;
+import org.apache.olingo.commons.core.edm.primitivetype.EdmGeographyPoint;
+import org.apache.olingo.commons.core.edm.primitivetype.EdmString;
+
+/**
+ * Converts Elasticsearch document source to the properties of a structured type, and back. The
+ * property types are examined once when the converter is built, so converting a document runs a
+ * converter specialized for each property without looking up metadata again.
+ */
+@Slf4j
+class StructuredTypeConverter {
+
+  // A changed mapping builds a new Entity Data Model, so the converters built for the previous
+  // one are discarded with it.
+  private static final Cache<EdmStructuredType, StructuredTypeConverter> CONVERTER_CACHE =
+      Caffeine.newBuilder()
+          .weakKeys()
+          .build();
+
+  private static final ElasticsearchDateFormat DEFAULT_DATE_FORMAT =
+      ElasticsearchDateFormat.of(null);
+
+  private final PropertyConverter[] propertyConverters;
+  private final Map<String, PropertyConverter> nameToPropertyConverterMap = new HashMap<>();
+
+  /**
+   * Writes JSON value read from document source as OData JSON value.
+   */
+  @FunctionalInterface
+  private interface ValueTranscoder {
+
+    void transcode(JsonParser parser, JsonGenerator generator) throws IOException;
+  }
+
+  /**
+   * Converts source value of one property.
+   */
+  @RequiredArgsConstructor
+  private static class PropertyConverter {
+
+    private final int index;
+    private final String propertyName;
+    private final boolean collection;
+    private final ValueType valueType;
+    private final Function<Object, Object> valueConverter;
+    private final ValueTranscoder valueTranscoder;
+    private final Function<Object, Object> sourceValueConverter;
+
+    Property convert(Object sourceValue) {
+      return new Property(null, propertyName, valueType, valueConverter.apply(sourceValue));
+    }
+
+    Object toSourceValue(Object value) {
+      return (value == null) ? null : sourceValueConverter.apply(value);
+    }
+
+    void writeNull(JsonGenerator generator) throws IOException {
+      // Olingo writes a null collection as an empty array.
+      if (collection) {
+        generator.writeStartArray();
+        generator.writeEndArray();
+      } else {
+        generator.writeNull();
+      }
+    }
+
+    void transcode(JsonParser parser, JsonGenerator generator) throws IOException {
+      if (parser.currentToken() == JsonToken.VALUE_NULL) {
+        writeNull(generator);
+      } else {
+        valueTranscoder.transcode(parser, generator);
+      }
+    }
+  }
+
+  private StructuredTypeConverter(EdmStructuredType structuredType) {
+    List<PropertyConverter> converters = new ArrayList<>();
+    for (String propertyName : structuredType.getPropertyNames()) {
+      EdmElement description = structuredType.getProperty(propertyName);
+      if (description instanceof EdmProperty) {
+        PropertyConverter converter = toPropertyConverter(
+            converters.size(), propertyName, (EdmProperty) description);
+        converters.add(converter);
+        nameToPropertyConverterMap.put(propertyName, converter);
+      } else {
+        log.debug("Skipping property name {}, description {}", propertyName, description);
+      }
+    }
+
+    this.propertyConverters = converters.toArray(new PropertyConverter[0]);
+  }
+
+  /**
+   * Gets converter for structured type, building it on first use.
+   *
+   * @param structuredType
+   *     structured type to convert to
+   * @return converter
+   */
+  static StructuredTypeConverter of(EdmStructuredType structuredType) {
+    return CONVERTER_CACHE.get(structuredType, StructuredTypeConverter::new);
+  }
+
+  private static ComplexValue toComplexValue(
+      StructuredTypeConverter converter, Map<String, Object> source) {
+
+    if (source == null) {
+      return null;
+    }
+
+    ComplexValue complexValue = new ComplexValue();
+    converter.addProperties(source, null, complexValue.getValue());
+    return complexValue;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<ComplexValue> toCollection(
+      StructuredTypeConverter converter, Object source) {
+
+    if (source == null) {
+      return null;
+    }
+
+    if (source instanceof List) {
+      return ((List<Map<String, Object>>) source).stream()
+          .map(element -> toComplexValue(converter, element))
+          .collect(Collectors.toList());
+    }
+
+    return Collections.singletonList(toComplexValue(converter, (Map<String, Object>) source));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ComplexValue toFirstComplexValue(
+      String propertyName, StructuredTypeConverter converter, Object source) {
+
+    if (source instanceof List) {
+      List<Map<String, Object>> list = (List<Map<String, Object>>) source;
+      if (list.isEmpty()) {
+        return null;
+      }
+
+      log.warn("Discarded all elements from list {} except first", propertyName);
+      return toComplexValue(converter, list.get(0));
+    }
+
+    return toComplexValue(converter, (Map<String, Object>) source);
+  }
+
+  private static byte[] toByteArray(String sourceValue) {
+    try {
+      return EdmBinary.getInstance().valueOfString(
+          sourceValue,
+          true,
+          null,
+          null,
+          null,
+          null,
+          byte[].class);
+    } catch (EdmPrimitiveTypeException e) {
+      throw new IllegalStateException("Cannot convert to EdmBinary", e);
+    }
+  }
+
+  private static ElasticsearchDateFormat toDateFormat(EdmProperty description) {
+    if (description.getMapping() instanceof ElasticsearchFieldMapping) {
+      ElasticsearchDateFormat dateFormat =
+          ((ElasticsearchFieldMapping) description.getMapping()).getDateFormat();
+      if (dateFormat != null) {
+        return dateFormat;
+      }
+    }
+
+    return DEFAULT_DATE_FORMAT;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Point toPoint(Object source) {
+    if (source == null) {
+      return null;
+    }
+
+    Map<String, Double> sourcePoint = (Map<String, Double>) source;
+    Point point = new Point(Geospatial.Dimension.GEOGRAPHY, null);
+    point.setY(sourcePoint.get("lat"));
+    point.setX(sourcePoint.get("lon"));
+    return point;
+  }
+
+  private static void transcodeComplexValue(
+      StructuredTypeConverter converter, JsonParser parser, JsonGenerator generator)
+      throws IOException {
+
+    if (parser.currentToken() == JsonToken.VALUE_NULL) {
+      generator.writeNull();
+      return;
+    }
+
+    generator.writeStartObject();
+    converter.transcodeProperties(parser, generator, null, null);
+    generator.writeEndObject();
+  }
+
+  private static void transcodeCollection(
+      StructuredTypeConverter converter, JsonParser parser, JsonGenerator generator)
+      throws IOException {
+
+    generator.writeStartArray();
+    if (parser.currentToken() == JsonToken.START_ARRAY) {
+      while (parser.nextToken() != JsonToken.END_ARRAY) {
+        transcodeComplexValue(converter, parser, generator);
+      }
+    } else {
+      transcodeComplexValue(converter, parser, generator);
+    }
+
+    generator.writeEndArray();
+  }
+
+  private static void transcodeFirstComplexValue(
+      String propertyName,
+      StructuredTypeConverter converter,
+      JsonParser parser,
+      JsonGenerator generator) throws IOException {
+
+    if (parser.currentToken() != JsonToken.START_ARRAY) {
+      transcodeComplexValue(converter, parser, generator);
+      return;
+    }
+
+    if (parser.nextToken() == JsonToken.END_ARRAY) {
+      generator.writeNull();
+      return;
+    }
+
+    transcodeComplexValue(converter, parser, generator);
+    if (parser.nextToken() != JsonToken.END_ARRAY) {
+      log.warn("Discarded all elements from list {} except first", propertyName);
+      do {
+        parser.skipChildren();
+      } while (parser.nextToken() != JsonToken.END_ARRAY);
+    }
+  }
+
+  private static void transcodeString(JsonParser parser, JsonGenerator generator)
+      throws IOException {
+
+    if (parser.currentToken().isScalarValue()) {
+      // Olingo writes the string representation of a value of any type.
+      generator.writeString(parser.getText());
+    } else {
+      generator.copyCurrentStructure(parser);
+    }
+  }
+
+  private static ValueTranscoder toConvertingTranscoder(
+      EdmProperty description, Function<Object, Object> valueConverter) {
+
+    EdmPrimitiveType type = (EdmPrimitiveType) description.getType();
+    return (parser, generator) -> {
+      Object value = valueConverter.apply(parser.readValueAs(Object.class));
+      try {
+        generator.writeString(type.valueToString(
+            value,
+            description.isNullable(),
+            description.getMaxLength(),
+            description.getPrecision(),
+            description.getScale(),
+            description.isUnicode()));
+      } catch (EdmPrimitiveTypeException e) {
+        throw new IllegalStateException("Cannot convert to " + type.getName(), e);
+      }
+    };
+  }
+
+  private static ValueTranscoder toPrimitiveTranscoder(
+      EdmProperty description, Function<Object, Object> valueConverter) {
+
+    EdmType type = description.getType();
+    if (type instanceof EdmString) {
+      return StructuredTypeConverter::transcodeString;
+    } else if (type instanceof EdmBinary ||
+        type instanceof EdmDate ||
+        type instanceof EdmDateTimeOffset ||
+        type instanceof EdmGeographyPoint) {
+      return toConvertingTranscoder(description, valueConverter);
+    }
+
+    // Numbers and booleans have the same representation in both.
+    return (parser, generator) -> generator.copyCurrentStructure(parser);
+  }
+
+  private static Function<Object, Object> toPrimitiveConverter(EdmProperty description) {
+    EdmType type = description.getType();
+    if (type instanceof EdmBinary) {
+      return sourceValue -> toByteArray((String) sourceValue);
+    } else if (type instanceof EdmDate) {
+      return toDateFormat(description)::toLocalDate;
+    } else if (type instanceof EdmDateTimeOffset) {
+      return toDateFormat(description)::toInstant;
+    } else if (type instanceof EdmGeographyPoint) {
+      return StructuredTypeConverter::toPoint;
+    }
+
+    return Function.identity();
+  }
+
+  private static Instant toInstant(Object value) {
+    if (value instanceof Calendar) {
+      return ((Calendar) value).toInstant();
+    } else if (value instanceof Timestamp) {
+      return ((Timestamp) value).toInstant();
+    } else if (value instanceof Date) {
+      // A java.sql.Date does not support toInstant.
+      return Instant.ofEpochMilli(((Date) value).getTime());
+    }
+
+    return Instant.from((TemporalAccessor) value);
+  }
+
+  private static LocalDate toLocalDate(Object value) {
+    if (value instanceof Calendar) {
+      Calendar calendar = (Calendar) value;
+      return LocalDate.of(
+          calendar.get(Calendar.YEAR),
+          calendar.get(Calendar.MONTH) + 1,
+          calendar.get(Calendar.DAY_OF_MONTH));
+    } else if (value instanceof java.sql.Date) {
+      return ((java.sql.Date) value).toLocalDate();
+    } else if (value instanceof Date) {
+      return Instant.ofEpochMilli(((Date) value).getTime()).atZone(ZoneOffset.UTC).toLocalDate();
+    }
+
+    return LocalDate.from((TemporalAccessor) value);
+  }
+
+  private static Map<String, Object> toSourcePoint(Object value) {
+    Point point = (Point) value;
+    Map<String, Object> sourcePoint = new LinkedHashMap<>();
+    sourcePoint.put("lat", point.getY());
+    sourcePoint.put("lon", point.getX());
+    return sourcePoint;
+  }
+
+  private static Function<Object, Object> toSourcePrimitiveConverter(EdmProperty description) {
+    EdmType type = description.getType();
+    if (type instanceof EdmBinary) {
+      return value -> Base64.getEncoder().encodeToString((byte[]) value);
+    } else if (type instanceof EdmDate) {
+      ElasticsearchDateFormat dateFormat = toDateFormat(description);
+      return value -> dateFormat.format(toLocalDate(value));
+    } else if (type instanceof EdmDateTimeOffset) {
+      ElasticsearchDateFormat dateFormat = toDateFormat(description);
+      return value -> dateFormat.format(toInstant(value));
+    } else if (type instanceof EdmGeographyPoint) {
+      return StructuredTypeConverter::toSourcePoint;
+    }
+
+    // Jackson writes strings, numbers and booleans as Elasticsearch reads them.
+    return Function.identity();
+  }
+
+  private static Object toSourceObject(StructuredTypeConverter converter, Object value) {
+    return converter.toSource(((ComplexValue) value).getValue());
+  }
+
+  private static Function<Object, Object> toSourceCollection(
+      Function<Object, Object> elementConverter) {
+
+    return value -> ((Collection<?>) value).stream()
+        .map(element -> (element == null) ? null : elementConverter.apply(element))
+        .collect(Collectors.toList());
+  }
+
+  private static PropertyConverter toPropertyConverter(
+      int index, String propertyName, EdmProperty description) {
+
+    EdmTypeKind kind = description.getType().getKind();
+    switch (kind) {
+      case COMPLEX:
+        // Complex types are built directly, so building does not update the cache recursively.
+        StructuredTypeConverter converter =
+            new StructuredTypeConverter((EdmComplexType) description.getType());
+        if (description.isCollection()) {
+          return new PropertyConverter(
+              index,
+              propertyName,
+              true,
+              ValueType.COLLECTION_COMPLEX,
+              sourceValue -> toCollection(converter, sourceValue),
+              (parser, generator) -> transcodeCollection(converter, parser, generator),
+              toSourceCollection(value -> toSourceObject(converter, value)));
+        }
+
+        return new PropertyConverter(
+            index,
+            propertyName,
+            false,
+            ValueType.COMPLEX,
+            sourceValue -> toFirstComplexValue(propertyName, converter, sourceValue),
+            (parser, generator) ->
+                transcodeFirstComplexValue(propertyName, converter, parser, generator),
+            value -> toSourceObject(converter, value));
+      case PRIMITIVE:
+        Function<Object, Object> valueConverter = toPrimitiveConverter(description);
+        return new PropertyConverter(
+            index,
+            propertyName,
+            description.isCollection(),
+            ValueType.PRIMITIVE,
+            valueConverter,
+            toPrimitiveTranscoder(description, valueConverter),
+            description.isCollection()
+                ? toSourceCollection(toSourcePrimitiveConverter(description))
+                : toSourcePrimitiveConverter(description));
+      default:
+        return new PropertyConverter(
+            index,
+            propertyName,
+            description.isCollection(),
+            ValueType.PRIMITIVE,
+            sourceValue -> {
+              throw new UnsupportedOperationException("Cannot convert from EdmTypeKind " + kind);
+            },
+            (parser, generator) -> {
+              throw new UnsupportedOperationException("Cannot convert from EdmTypeKind " + kind);
+            },
+            value -> {
+              throw new UnsupportedOperationException("Cannot convert to EdmTypeKind " + kind);
+            });
+    }
+  }
+
+  /**
+   * Converts source value of a single property. Prefer {@link #addProperties} to convert a
+   * document, which does not examine the property type for each value.
+   *
+   * @param propertyName
+   *     property name
+   * @param sourceValue
+   *     value from document source
+   * @param description
+   *     property description
+   * @return property
+   */
+  static Property toProperty(String propertyName, Object sourceValue, EdmProperty description) {
+    return toPropertyConverter(0, propertyName, description).convert(sourceValue);
+  }
+
+  /**
+   * Converts document source to properties.
+   *
+   * @param source
+   *     document source
+   * @param selectedPropertyNames
+   *     names of properties to convert, or null to convert all properties
+   * @param properties
+   *     list to add converted properties to
+   */
+  void addProperties(
+      Map<String, Object> source, Set<String> selectedPropertyNames, List<Property> properties) {
+
+    for (PropertyConverter propertyConverter : propertyConverters) {
+      if (selectedPropertyNames != null &&
+          !selectedPropertyNames.contains(propertyConverter.propertyName)) {
+        continue;
+      }
+
+      properties.add(propertyConverter.convert(source.get(propertyConverter.propertyName)));
+    }
+  }
+
+  /**
+   * Converts properties to document source. Properties which are not declared by the structured
+   * type are skipped.
+   *
+   * @param properties
+   *     properties to convert
+   * @return document source
+   */
+  Map<String, Object> toSource(List<Property> properties) {
+    Map<String, Object> source = new LinkedHashMap<>();
+    for (Property property : properties) {
+      PropertyConverter propertyConverter = nameToPropertyConverterMap.get(property.getName());
+      if (propertyConverter != null) {
+        source.put(property.getName(), propertyConverter.toSourceValue(property.getValue()));
+      }
+    }
+
+    return source;
+  }
+
+  /**
+   * Writes document source as OData JSON properties, reading the source with a streaming parser
+   * so no intermediate objects are built for most values. Properties missing from the source are
+   * written as null.
+   *
+   * @param parser
+   *     positioned at start of document source object, or null if the source was not fetched
+   * @param generator
+   *     writes properties into the current object
+   * @param selectedPropertyNames
+   *     names of properties to write, or null to write all properties
+   * @param writtenPropertyName
+   *     name of property the caller already wrote, or null
+   * @throws IOException
+   *     if read or write failed
+   */
+  void transcodeProperties(
+      JsonParser parser,
+      JsonGenerator generator,
+      Set<String> selectedPropertyNames,
+      String writtenPropertyName) throws IOException {
+
+    boolean[] written = new boolean[propertyConverters.length];
+    PropertyConverter writtenConverter = nameToPropertyConverterMap.get(writtenPropertyName);
+    if (writtenConverter != null) {
+      written[writtenConverter.index] = true;
+    }
+
+    if (parser != null) {
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        PropertyConverter propertyConverter =
+            nameToPropertyConverterMap.get(parser.getCurrentName());
+        parser.nextToken();
+        if (propertyConverter == null ||
+            written[propertyConverter.index] ||
+            (selectedPropertyNames != null &&
+                !selectedPropertyNames.contains(propertyConverter.propertyName))) {
+          parser.skipChildren();
+          continue;
+        }
+
+        generator.writeFieldName(propertyConverter.propertyName);
+        propertyConverter.transcode(parser, generator);
+        written[propertyConverter.index] = true;
+      }
+    }
+
+    for (PropertyConverter propertyConverter : propertyConverters) {
+      if (!written[propertyConverter.index] &&
+          (selectedPropertyNames == null ||
+              selectedPropertyNames.contains(propertyConverter.propertyName))) {
+        generator.writeFieldName(propertyConverter.propertyName);
+        propertyConverter.writeNull(generator);
+      }
+    }
+  }
+}
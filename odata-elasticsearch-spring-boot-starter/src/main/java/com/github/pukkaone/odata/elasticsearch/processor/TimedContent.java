@@ -0,0 +1,38 @@
+package com.github.pukkaone.odata.elasticsearch.processor;
+
+import com.github.pukkaone.odata.web.metrics.ODataMetrics;
+import com.github.pukkaone.odata.web.metrics.OperationMetrics;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import lombok.RequiredArgsConstructor;
+import org.apache.olingo.server.api.ODataContent;
+
+/**
+ * Records the time to write content which is serialized while it is written to the response.
+ */
+@RequiredArgsConstructor
+class TimedContent implements ODataContent {
+
+  private final ODataContent content;
+  private final OperationMetrics metrics;
+
+  @Override
+  public void write(WritableByteChannel channel) {
+    long startNanos = System.nanoTime();
+    try {
+      content.write(channel);
+    } finally {
+      metrics.recordSince(ODataMetrics.SERIALIZATION, startNanos);
+    }
+  }
+
+  @Override
+  public void write(OutputStream output) {
+    long startNanos = System.nanoTime();
+    try {
+      content.write(output);
+    } finally {
+      metrics.recordSince(ODataMetrics.SERIALIZATION, startNanos);
+    }
+  }
+}
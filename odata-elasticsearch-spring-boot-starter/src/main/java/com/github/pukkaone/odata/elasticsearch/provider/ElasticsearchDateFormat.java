@@ -0,0 +1,473 @@
+package com.github.pukkaone.odata.elasticsearch.provider;
+
+import static java.time.temporal.ChronoField.DAY_OF_MONTH;
+import static java.time.temporal.ChronoField.HOUR_OF_DAY;
+import static java.time.temporal.ChronoField.MINUTE_OF_HOUR;
+import static java.time.temporal.ChronoField.MONTH_OF_YEAR;
+import static java.time.temporal.ChronoField.NANO_OF_SECOND;
+import static java.time.temporal.ChronoField.SECOND_OF_MINUTE;
+import static java.time.temporal.ChronoField.YEAR;
+import static java.time.temporal.ChronoField.YEAR_OF_ERA;
+
+import java.text.ParsePosition;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.SignStyle;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalField;
+import java.time.temporal.TemporalQueries;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Parses values of an Elasticsearch date field according to the field mapping format. The format
+ * is compiled once when the schema is built. Each alternative format reports a mismatch by
+ * returning null instead of throwing an exception, so trying alternatives in order is cheap.
+ * Values written to the field are formatted in the first alternative format which can format.
+ */
+@Slf4j
+public final class ElasticsearchDateFormat {
+
+  private static final Pattern FORMAT_SEPARATOR = Pattern.compile("\\|\\|");
+  private static final String DEFAULT_FORMAT = "strict_date_optional_time||epoch_millis";
+  private static final String EPOCH_MILLIS = "epoch_millis";
+  private static final String EPOCH_SECOND = "epoch_second";
+
+  // Pattern letters which parse only fields the resolve method reads directly.
+  private static final String DIRECTLY_RESOLVED_PATTERN_LETTERS = "uyMdHmsSXxZV";
+  private static final String TIME_PATTERN_LETTERS = "aBhKkHmsSAnN";
+
+  private static final DateTimeFormatter DATE_OPTIONAL_TIME = new DateTimeFormatterBuilder()
+      .appendValue(YEAR, 4, 9, SignStyle.EXCEEDS_PAD)
+      .optionalStart()
+      .appendLiteral('-')
+      .appendValue(MONTH_OF_YEAR, 2)
+      .optionalStart()
+      .appendLiteral('-')
+      .appendValue(DAY_OF_MONTH, 2)
+      .optionalStart()
+      .appendLiteral('T')
+      .appendValue(HOUR_OF_DAY, 2)
+      .optionalStart()
+      .appendLiteral(':')
+      .appendValue(MINUTE_OF_HOUR, 2)
+      .optionalStart()
+      .appendLiteral(':')
+      .appendValue(SECOND_OF_MINUTE, 2)
+      .optionalStart()
+      .appendFraction(NANO_OF_SECOND, 1, 9, true)
+      .optionalEnd()
+      .optionalEnd()
+      .optionalEnd()
+      .appendPattern("[XXX][XX][X]")
+      .toFormatter(Locale.ROOT);
+  private static final DateTimeFormatter DATE_TIME = new DateTimeFormatterBuilder()
+      .append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+      .appendPattern("[XXX][XX][X]")
+      .toFormatter(Locale.ROOT);
+
+  private static final Map<String, DateTimeFormatter> NAME_TO_FORMATTER_MAP = new HashMap<>();
+  private static final Map<String, DateTimeFormatter> NAME_TO_PRINTER_MAP = new HashMap<>();
+  private static final Set<String> DATE_ONLY_NAMES = new HashSet<>(Arrays.asList(
+      "basic_date",
+      "date",
+      "strict_date",
+      "strict_year_month_day",
+      "year_month_day"));
+
+  static {
+    NAME_TO_FORMATTER_MAP.put("basic_date", DateTimeFormatter.BASIC_ISO_DATE);
+    NAME_TO_FORMATTER_MAP.put("date", DateTimeFormatter.ISO_LOCAL_DATE);
+    NAME_TO_FORMATTER_MAP.put("date_hour_minute_second", DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+    NAME_TO_FORMATTER_MAP.put("date_optional_time", DATE_OPTIONAL_TIME);
+    NAME_TO_FORMATTER_MAP.put("date_time", DATE_TIME);
+    NAME_TO_FORMATTER_MAP.put("date_time_no_millis", DATE_TIME);
+    NAME_TO_FORMATTER_MAP.put("strict_date", DateTimeFormatter.ISO_LOCAL_DATE);
+    NAME_TO_FORMATTER_MAP.put(
+        "strict_date_hour_minute_second", DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+    NAME_TO_FORMATTER_MAP.put("strict_date_optional_time", DATE_OPTIONAL_TIME);
+    NAME_TO_FORMATTER_MAP.put("strict_date_optional_time_nanos", DATE_OPTIONAL_TIME);
+    NAME_TO_FORMATTER_MAP.put("strict_date_time", DATE_TIME);
+    NAME_TO_FORMATTER_MAP.put("strict_date_time_no_millis", DATE_TIME);
+    NAME_TO_FORMATTER_MAP.put("strict_year_month_day", DateTimeFormatter.ISO_LOCAL_DATE);
+    NAME_TO_FORMATTER_MAP.put("year_month_day", DateTimeFormatter.ISO_LOCAL_DATE);
+
+    DateTimeFormatter dateTimeMillis =
+        DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSSXXX", Locale.ROOT);
+    DateTimeFormatter dateTimeNoMillis =
+        DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ssXXX", Locale.ROOT);
+    DateTimeFormatter dateHourMinuteSecond =
+        DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss", Locale.ROOT);
+    NAME_TO_PRINTER_MAP.putAll(NAME_TO_FORMATTER_MAP);
+    NAME_TO_PRINTER_MAP.put("date_hour_minute_second", dateHourMinuteSecond);
+    NAME_TO_PRINTER_MAP.put("strict_date_hour_minute_second", dateHourMinuteSecond);
+
+    // The basic ISO date formatter also prints the offset, which basic_date does not parse.
+    NAME_TO_PRINTER_MAP.put("basic_date", DateTimeFormatter.ofPattern("uuuuMMdd", Locale.ROOT));
+    NAME_TO_PRINTER_MAP.put("date_optional_time", DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+    NAME_TO_PRINTER_MAP.put("date_time", dateTimeMillis);
+    NAME_TO_PRINTER_MAP.put("date_time_no_millis", dateTimeNoMillis);
+    NAME_TO_PRINTER_MAP.put("strict_date_optional_time", DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+    NAME_TO_PRINTER_MAP.put(
+        "strict_date_optional_time_nanos", DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+    NAME_TO_PRINTER_MAP.put("strict_date_time", dateTimeMillis);
+    NAME_TO_PRINTER_MAP.put("strict_date_time_no_millis", dateTimeNoMillis);
+  }
+
+  private final Parser[] parsers;
+
+  // First epoch format, used to convert a number without formatting it to text.
+  private final String epochFormat;
+
+  // Formats a value written to the field, as text or epoch number.
+  private final Function<ZonedDateTime, Object> printer;
+
+  /** true if every alternative text format has only date fields, and no time of day. */
+  @Getter
+  private final boolean dateOnly;
+
+  /**
+   * Parses text in one alternative format.
+   */
+  @FunctionalInterface
+  private interface Parser {
+
+    /**
+     * Parses text.
+     *
+     * @param text
+     *     text to parse
+     * @return parsed value, or null if the text is not in this format
+     */
+    ZonedDateTime parse(String text);
+  }
+
+  private ElasticsearchDateFormat(
+      List<Parser> parsers,
+      String epochFormat,
+      Function<ZonedDateTime, Object> printer,
+      boolean dateOnly) {
+
+    this.parsers = parsers.toArray(new Parser[0]);
+    this.epochFormat = epochFormat;
+    this.printer = printer;
+    this.dateOnly = dateOnly;
+  }
+
+  /**
+   * Compiles Elasticsearch date field mapping format.
+   *
+   * @param format
+   *     format from field mapping, or null if the mapping does not specify a format
+   * @return compiled format
+   */
+  public static ElasticsearchDateFormat of(String format) {
+    if (format == null || format.isEmpty()) {
+      format = DEFAULT_FORMAT;
+    }
+
+    List<Parser> parsers = new ArrayList<>();
+    String epochFormat = null;
+    Function<ZonedDateTime, Object> printer = null;
+    boolean dateOnly = true;
+    boolean formatted = false;
+    for (String alternative : FORMAT_SEPARATOR.split(format)) {
+      boolean epoch = EPOCH_MILLIS.equals(alternative) || EPOCH_SECOND.equals(alternative);
+      Parser parser;
+      if (EPOCH_MILLIS.equals(alternative)) {
+        parser = text -> parseEpoch(text, false);
+      } else if (EPOCH_SECOND.equals(alternative)) {
+        parser = text -> parseEpoch(text, true);
+      } else {
+        parser = toFormatterParser(alternative);
+        if (parser == null) {
+          continue;
+        }
+      }
+
+      if (epochFormat == null && epoch) {
+        epochFormat = alternative;
+      }
+
+      if (printer == null) {
+        printer = toPrinter(alternative);
+      }
+
+      if (!epoch) {
+        // An epoch value converts to the date in UTC, so only text formats decide if the field
+        // has a time of day.
+        dateOnly &= isDateOnly(alternative);
+        formatted = true;
+      }
+
+      parsers.add(parser);
+    }
+
+    if (parsers.isEmpty()) {
+      log.warn("Parsing dates in default format instead of unsupported format {}", format);
+      return of(DEFAULT_FORMAT);
+    }
+
+    if (printer == null) {
+      printer = DateTimeFormatter.ISO_OFFSET_DATE_TIME::format;
+    }
+
+    return new ElasticsearchDateFormat(parsers, epochFormat, printer, dateOnly && formatted);
+  }
+
+  private static Function<ZonedDateTime, Object> toPrinter(String alternative) {
+    if (EPOCH_MILLIS.equals(alternative)) {
+      return dateTime -> dateTime.toInstant().toEpochMilli();
+    } else if (EPOCH_SECOND.equals(alternative)) {
+      return ZonedDateTime::toEpochSecond;
+    } else if (isBuiltInName(alternative)) {
+      DateTimeFormatter formatter = NAME_TO_PRINTER_MAP.get(alternative);
+      return (formatter == null) ? null : formatter::format;
+    }
+
+    // The pattern already compiled when its parser was built.
+    return DateTimeFormatter.ofPattern(alternative, Locale.ROOT)::format;
+  }
+
+  private static boolean isBuiltInName(String alternative) {
+    // Built-in format names have an underscore, except date, which is also a valid pattern.
+    return NAME_TO_FORMATTER_MAP.containsKey(alternative) ||
+        (alternative.indexOf('_') >= 0 &&
+            alternative.chars().allMatch(ch -> (ch >= 'a' && ch <= 'z') || ch == '_'));
+  }
+
+  private static boolean isDateOnly(String alternative) {
+    if (isBuiltInName(alternative)) {
+      return DATE_ONLY_NAMES.contains(alternative);
+    }
+
+    return !containsPatternLetter(alternative, TIME_PATTERN_LETTERS);
+  }
+
+  private static boolean containsPatternLetter(String pattern, String letters) {
+    boolean quoted = false;
+    for (int i = 0; i < pattern.length(); ++i) {
+      char ch = pattern.charAt(i);
+      if (ch == '\'') {
+        quoted = !quoted;
+      } else if (!quoted && letters.indexOf(ch) >= 0) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean containsOnlyPatternLetters(String pattern, String letters) {
+    boolean quoted = false;
+    for (int i = 0; i < pattern.length(); ++i) {
+      char ch = pattern.charAt(i);
+      if (ch == '\'') {
+        quoted = !quoted;
+      } else if (!quoted &&
+          ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z')) &&
+          letters.indexOf(ch) < 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static Parser toFormatterParser(String alternative) {
+    if (isBuiltInName(alternative)) {
+      DateTimeFormatter formatter = NAME_TO_FORMATTER_MAP.get(alternative);
+      if (formatter == null) {
+        log.warn("Ignoring unsupported built-in date format {}", alternative);
+        return null;
+      }
+
+      return text -> parseFormatted(formatter, false, text);
+    }
+
+    DateTimeFormatter formatter;
+    try {
+      formatter = DateTimeFormatter.ofPattern(alternative, Locale.ROOT);
+    } catch (IllegalArgumentException e) {
+      log.warn("Ignoring invalid date format {}", alternative, e);
+      return null;
+    }
+
+    boolean resolveRequired =
+        !containsOnlyPatternLetters(alternative, DIRECTLY_RESOLVED_PATTERN_LETTERS);
+    return text -> parseFormatted(formatter, resolveRequired, text);
+  }
+
+  private static ZonedDateTime parseFormatted(
+      DateTimeFormatter formatter, boolean resolveRequired, String text) {
+
+    ParsePosition position = new ParsePosition(0);
+    TemporalAccessor parsed = formatter.parseUnresolved(text, position);
+    if (parsed == null || position.getIndex() < text.length()) {
+      return null;
+    }
+
+    if (resolveRequired) {
+      // The text is known to match, so resolving the fields does not fail on well-formed dates.
+      parsed = formatter.parse(text);
+    }
+
+    int year = (int) (parsed.isSupported(YEAR)
+        ? parsed.getLong(YEAR)
+        : getOrDefault(parsed, YEAR_OF_ERA, 1970));
+    ZoneId zone = parsed.query(TemporalQueries.zone());
+    return ZonedDateTime.of(
+        year,
+        (int) getOrDefault(parsed, MONTH_OF_YEAR, 1),
+        (int) getOrDefault(parsed, DAY_OF_MONTH, 1),
+        (int) getOrDefault(parsed, HOUR_OF_DAY, 0),
+        (int) getOrDefault(parsed, MINUTE_OF_HOUR, 0),
+        (int) getOrDefault(parsed, SECOND_OF_MINUTE, 0),
+        (int) getOrDefault(parsed, NANO_OF_SECOND, 0),
+        (zone == null) ? ZoneOffset.UTC : zone);
+  }
+
+  private static long getOrDefault(TemporalAccessor parsed, TemporalField field, long value) {
+    return parsed.isSupported(field) ? parsed.getLong(field) : value;
+  }
+
+  private static ZonedDateTime parseEpoch(String text, boolean seconds) {
+    int length = text.length();
+    int i = 0;
+    boolean negative = false;
+    if (i < length && text.charAt(i) == '-') {
+      negative = true;
+      ++i;
+    }
+
+    int start = i;
+    long whole = 0;
+    while (i < length && Character.isDigit(text.charAt(i)) && i - start < 18) {
+      whole = whole * 10 + (text.charAt(i) - '0');
+      ++i;
+    }
+
+    if (i == start) {
+      return null;
+    }
+
+    // The fraction is nanoseconds of a second, or nanoseconds of a millisecond.
+    int fractionDigits = seconds ? 9 : 6;
+    long fraction = 0;
+    if (i < length && text.charAt(i) == '.') {
+      ++i;
+      int fractionStart = i;
+      while (i < length && Character.isDigit(text.charAt(i))) {
+        if (i - fractionStart < fractionDigits) {
+          fraction = fraction * 10 + (text.charAt(i) - '0');
+        }
+        ++i;
+      }
+
+      for (int digits = i - fractionStart; digits < fractionDigits; ++digits) {
+        fraction *= 10;
+      }
+    }
+
+    if (i < length) {
+      return null;
+    }
+
+    if (negative) {
+      whole = -whole;
+      fraction = -fraction;
+    }
+
+    Instant instant = seconds
+        ? Instant.ofEpochSecond(whole, fraction)
+        : Instant.ofEpochMilli(whole).plusNanos(fraction);
+    return instant.atZone(ZoneOffset.UTC);
+  }
+
+  private static boolean isIntegral(Object value) {
+    return value instanceof Long ||
+        value instanceof Integer ||
+        value instanceof Short ||
+        value instanceof Byte;
+  }
+
+  private ZonedDateTime parse(Object value) {
+    if (epochFormat != null && isIntegral(value)) {
+      long number = ((Number) value).longValue();
+      Instant instant = EPOCH_SECOND.equals(epochFormat)
+          ? Instant.ofEpochSecond(number)
+          : Instant.ofEpochMilli(number);
+      return instant.atZone(ZoneOffset.UTC);
+    }
+
+    String text = value.toString();
+    for (Parser parser : parsers) {
+      ZonedDateTime dateTime = parser.parse(text);
+      if (dateTime != null) {
+        return dateTime;
+      }
+    }
+
+    throw new IllegalArgumentException("Cannot parse date " + text);
+  }
+
+  /**
+   * Parses value of a date field.
+   *
+   * @param value
+   *     value from document source or aggregation
+   * @return instant, or null if the value is null
+   */
+  public Instant toInstant(Object value) {
+    return (value == null) ? null : parse(value).toInstant();
+  }
+
+  /**
+   * Parses value of a date field having only date fields. The time of day is discarded, and an
+   * epoch value is converted to the date in UTC.
+   *
+   * @param value
+   *     value from document source or aggregation
+   * @return date, or null if the value is null
+   */
+  public LocalDate toLocalDate(Object value) {
+    return (value == null) ? null : parse(value).toLocalDate();
+  }
+
+  /**
+   * Formats value to write to a date field.
+   *
+   * @param instant
+   *     instant to format
+   * @return text, or number if the format is an epoch format, or null if the value is null
+   */
+  public Object format(Instant instant) {
+    return (instant == null) ? null : printer.apply(instant.atZone(ZoneOffset.UTC));
+  }
+
+  /**
+   * Formats value to write to a date field, as the start of the day in UTC.
+   *
+   * @param date
+   *     date to format
+   * @return text, or number if the format is an epoch format, or null if the value is null
+   */
+  public Object format(LocalDate date) {
+    return (date == null) ? null : printer.apply(date.atStartOfDay(ZoneOffset.UTC));
+  }
+}
@@ -1,5 +1,8 @@
 package com.github.pukkaone.odata.elasticsearch.provider;
 
+import java.util.Collections;
+import java.util.List;
+import lombok.Getter;
 import org.apache.olingo.commons.api.edm.provider.CsdlSchema;
 import org.apache.olingo.server.core.SchemaBasedEdmProvider;
 
@@ -8,13 +11,39 @@ import org.apache.olingo.server.core.SchemaBasedEdmProvider;
  */
 public class ElasticsearchEdmProvider extends SchemaBasedEdmProvider {
 
+  @Getter
+  private final List<Index> indices;
+
+  @Getter
+  private final List<IndexNavigation> navigations;
+
   /**
    * Constructor.
    *
+   * @param index
+   *     index the schema was built from
    * @param schema
    *     schema
    */
-  public ElasticsearchEdmProvider(CsdlSchema schema) {
+  public ElasticsearchEdmProvider(Index index, CsdlSchema schema) {
+    this(Collections.singletonList(index), Collections.emptyList(), schema);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param indices
+   *     indices the schema was built from
+   * @param navigations
+   *     links to related indices the schema was built from
+   * @param schema
+   *     schema
+   */
+  public ElasticsearchEdmProvider(
+      List<Index> indices, List<IndexNavigation> navigations, CsdlSchema schema) {
+
+    this.indices = indices;
+    this.navigations = navigations;
     addSchema(schema);
   }
 }
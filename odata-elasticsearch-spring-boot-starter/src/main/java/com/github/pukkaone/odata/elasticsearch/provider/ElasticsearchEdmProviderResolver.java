@@ -1,80 +1,396 @@
 package com.github.pukkaone.odata.elasticsearch.provider;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.pukkaone.odata.elasticsearch.autoconfigure.ODataElasticsearchProperties;
 import com.github.pukkaone.odata.web.provider.CsdlEdmProviderResolver;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Stream;
-import lombok.RequiredArgsConstructor;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.olingo.commons.api.edm.provider.CsdlEdmProvider;
 import org.apache.olingo.commons.api.edm.provider.CsdlSchema;
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.GetMappingsRequest;
 import org.elasticsearch.cluster.metadata.AliasMetadata;
 import org.elasticsearch.cluster.metadata.MappingMetadata;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 
 /**
  * Provides Entity Data Model from Elasticsearch mappings.
  */
 @Component
-@RequiredArgsConstructor
+@Slf4j
 public class ElasticsearchEdmProviderResolver implements CsdlEdmProviderResolver {
 
   private final RestHighLevelClient elasticsearchClient;
+  private final List<ODataElasticsearchProperties.Service> servicePropertiesList;
+  private final List<ODataElasticsearchProperties.Navigation> navigationPropertiesList;
+  private final ExecutorService loaderExecutor;
+  private final AsyncLoadingCache<String, Optional<ElasticsearchEdmProvider>>
+      nameToEdmProviderCache;
 
-  private ConcurrentHashMap<String, CsdlEdmProvider> nameToEdmProviderMap =
-      new ConcurrentHashMap<>();
+  /**
+   * Expires found Entity Data Models when not accessed for a while, and expires service names not
+   * found after a short time.
+   */
+  private static class EdmProviderExpiry
+      implements Expiry<String, Optional<ElasticsearchEdmProvider>> {
 
-  private Stream<Map.Entry<String, Set<AliasMetadata>>> streamIndicesByAlias(String aliasName) {
-    Map<String, Set<AliasMetadata>> indexToAliasesMap;
+    private final long expireAfterAccessNanos;
+    private final long negativeTtlNanos;
+
+    EdmProviderExpiry(ODataElasticsearchProperties.Schema schemaProperties) {
+      this.expireAfterAccessNanos = schemaProperties.getExpireAfterAccess().toNanos();
+      this.negativeTtlNanos = schemaProperties.getNegativeTtl().toNanos();
+    }
+
+    @Override
+    public long expireAfterCreate(
+        String serviceName, Optional<ElasticsearchEdmProvider> edmProvider, long currentTime) {
+
+      return edmProvider.isPresent() ? expireAfterAccessNanos : negativeTtlNanos;
+    }
+
+    @Override
+    public long expireAfterUpdate(
+        String serviceName,
+        Optional<ElasticsearchEdmProvider> edmProvider,
+        long currentTime,
+        long currentDuration) {
+
+      return expireAfterCreate(serviceName, edmProvider, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(
+        String serviceName,
+        Optional<ElasticsearchEdmProvider> edmProvider,
+        long currentTime,
+        long currentDuration) {
+
+      return edmProvider.isPresent() ? expireAfterAccessNanos : currentDuration;
+    }
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param elasticsearchClient
+   *     Elasticsearch client
+   * @param properties
+   *     configuration properties
+   */
+  public ElasticsearchEdmProviderResolver(
+      RestHighLevelClient elasticsearchClient, ODataElasticsearchProperties properties) {
+
+    this.elasticsearchClient = elasticsearchClient;
+    this.servicePropertiesList = properties.getServices();
+    this.navigationPropertiesList = properties.getNavigations();
+
+    ODataElasticsearchProperties.Schema schemaProperties = properties.getSchema();
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("odata-schema-");
+    threadFactory.setDaemon(true);
+    this.loaderExecutor = Executors.newFixedThreadPool(
+        schemaProperties.getLoaderThreads(), threadFactory);
+
+    // Loads run on the loader executor, outside any map lock. Concurrent requests for the same
+    // service name wait for the same future, so only one request goes to Elasticsearch.
+    this.nameToEdmProviderCache = Caffeine.newBuilder()
+        .executor(loaderExecutor)
+        .maximumSize(schemaProperties.getCacheSize())
+        .expireAfter(new EdmProviderExpiry(schemaProperties))
+        .refreshAfterWrite(schemaProperties.getRefreshAfterWrite())
+        .buildAsync(new CacheLoader<String, Optional<ElasticsearchEdmProvider>>() {
+          @Override
+          public Optional<ElasticsearchEdmProvider> load(String serviceName) {
+            return createEdmProvider(serviceName);
+          }
+
+          @Override
+          public Optional<ElasticsearchEdmProvider> reload(
+              String serviceName, Optional<ElasticsearchEdmProvider> oldEdmProvider) {
+
+            return oldEdmProvider.isPresent()
+                ? refreshEdmProvider(serviceName, oldEdmProvider.get())
+                : createEdmProvider(serviceName);
+          }
+        });
+  }
+
+  /**
+   * Stops threads loading Entity Data Models.
+   */
+  @PreDestroy
+  public void close() {
+    loaderExecutor.shutdownNow();
+  }
+
+  private static boolean isNotFound(ElasticsearchException e) {
+    return e.status() == RestStatus.NOT_FOUND;
+  }
+
+  // The name of a service not configured goes to Elasticsearch unchanged, so an expression would
+  // match indices the service does not name.
+  private static boolean isExpression(String aliasOrIndexName) {
+    return aliasOrIndexName.isEmpty() ||
+        aliasOrIndexName.startsWith("_") ||
+        aliasOrIndexName.contains(",") ||
+        Regex.isSimpleMatchPattern(aliasOrIndexName);
+  }
+
+  private List<Index> describeIndices(IndicesOptions indicesOptions, String... names) {
     try {
-      indexToAliasesMap = elasticsearchClient.indices()
-          .getAlias(new GetAliasesRequest(aliasName), RequestOptions.DEFAULT)
-          .getAliases();
+      // The mapping API resolves aliases and wildcard patterns to indices, so one request
+      // describes all the indices.
+      Map<String, MappingMetadata> indexToMappingMap = elasticsearchClient.indices()
+          .getMapping(
+              new GetMappingsRequest().indices(names).indicesOptions(indicesOptions),
+              RequestOptions.DEFAULT)
+          .mappings();
+
+      // Sorted, so the Entity Sets are listed in a stable order.
+      List<Index> indices = new ArrayList<>();
+      new TreeMap<>(indexToMappingMap).forEach((indexName, mapping) -> {
+        if (mapping != null) {
+          indices.add(new Index(indexName, mapping));
+        }
+      });
+      return indices;
+    } catch (ElasticsearchException e) {
+      if (isNotFound(e)) {
+        return Collections.emptyList();
+      }
+
+      throw e;
     } catch (IOException e) {
-      throw new IllegalStateException("Cannot get alias " + aliasName, e);
+      throw new IllegalStateException("Cannot get mapping, index " + String.join(",", names), e);
     }
+  }
 
-    return indexToAliasesMap.entrySet()
+  private Optional<Index> describeIndex(String aliasOrIndexName) {
+    if (isExpression(aliasOrIndexName)) {
+      return Optional.empty();
+    }
+
+    return describeIndices(IndicesOptions.strictExpandOpen(), aliasOrIndexName)
         .stream()
-        .filter(entry ->
-            entry.getValue()
-                .stream()
-                .anyMatch(aliasMetaData -> aliasMetaData.getAlias().equals(aliasName)));
+        .findFirst();
   }
 
-  private Optional<String> findIndexByAlias(String aliasName) {
-    return streamIndicesByAlias(aliasName)
-        .findFirst()
-        .map(Map.Entry::getKey);
+  private Optional<ODataElasticsearchProperties.Service> findService(String serviceName) {
+    return servicePropertiesList.stream()
+        .filter(serviceProperties -> serviceName.equals(serviceProperties.getName()))
+        .findFirst();
   }
 
-  private Index describeIndex(String aliasOrIndexName) {
-    String indexName = findIndexByAlias(aliasOrIndexName).orElse(aliasOrIndexName);
-    try {
-      MappingMetadata mappingMetadata = elasticsearchClient.indices()
-          .getMapping(new GetMappingsRequest().indices(indexName), RequestOptions.DEFAULT)
-          .mappings()
-          .get(indexName);
-      return new Index(indexName, mappingMetadata);
-    } catch (IOException e) {
-      throw new IllegalStateException("Cannot get mapping, index " + indexName, e);
+  private List<Index> describeService(String serviceName) {
+    Optional<ODataElasticsearchProperties.Service> serviceProperties = findService(serviceName);
+    if (!serviceProperties.isPresent()) {
+      return describeIndex(serviceName)
+          .map(Collections::singletonList)
+          .orElse(Collections.emptyList());
+    }
+
+    List<String> names = serviceProperties.get().getIndices();
+    if (names.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    // Names not matching any index are ignored, so one missing index does not hide the others.
+    return describeIndices(IndicesOptions.lenientExpandOpen(), names.toArray(new String[0]));
+  }
+
+  private List<IndexNavigation> describeNavigations(String serviceName, List<Index> indices) {
+    Map<String, Index> nameToSourceMap = new HashMap<>();
+    for (Index index : indices) {
+      nameToSourceMap.put(index.getName(), index);
     }
+
+    if (indices.size() == 1) {
+      nameToSourceMap.put(serviceName, indices.get(0));
+    }
+
+    // Targets in the service are not described again.
+    Map<String, Optional<Index>> nameToTargetMap = new HashMap<>();
+    nameToSourceMap.forEach((name, index) -> nameToTargetMap.put(name, Optional.of(index)));
+
+    List<IndexNavigation> navigations = new ArrayList<>();
+    for (ODataElasticsearchProperties.Navigation navigationProperties :
+        navigationPropertiesList) {
+      Index source = nameToSourceMap.get(navigationProperties.getSource());
+      if (source == null) {
+        continue;
+      }
+
+      String targetName = navigationProperties.getTarget();
+      Optional<Index> target = nameToTargetMap.computeIfAbsent(targetName, this::describeIndex);
+      if (!target.isPresent()) {
+        log.warn(
+            "Ignoring navigation {} of service {} having target {} not found",
+            navigationProperties.getName(),
+            serviceName,
+            targetName);
+        continue;
+      }
+
+      navigations.add(new IndexNavigation(
+          source.getName(),
+          navigationProperties.getName(),
+          navigationProperties.getForeignKey(),
+          target.get(),
+          navigationProperties.getTargetKey(),
+          navigationProperties.isCollection()));
+    }
+
+    return navigations;
   }
 
-  private CsdlEdmProvider createEdmProvider(String indexName) {
-    Index index = describeIndex(indexName);
-    CsdlSchema schema = new IndexToCsdlSchemaMapper().toSchema(index);
-    return new ElasticsearchEdmProvider(schema);
+  private ElasticsearchEdmProvider createEdmProvider(
+      String serviceName, List<Index> indices, List<IndexNavigation> navigations) {
+
+    // A service not configured keeps the namespace of its index.
+    String namespace = findService(serviceName).isPresent()
+        ? serviceName
+        : indices.get(0).getName();
+    CsdlSchema schema = new IndexToCsdlSchemaMapper().toSchema(namespace, indices, navigations);
+    return new ElasticsearchEdmProvider(indices, navigations, schema);
+  }
+
+  private Optional<ElasticsearchEdmProvider> createEdmProvider(String serviceName) {
+    List<Index> indices = describeService(serviceName);
+    if (indices.isEmpty()) {
+      log.debug("Service name {} not found", serviceName);
+      return Optional.empty();
+    }
+
+    return Optional.of(
+        createEdmProvider(serviceName, indices, describeNavigations(serviceName, indices)));
+  }
+
+  private Optional<ElasticsearchEdmProvider> refreshEdmProvider(
+      String serviceName, ElasticsearchEdmProvider oldEdmProvider) {
+
+    // Comparing the mappings is much cheaper than building the schema and Entity Data Model.
+    List<Index> indices = describeService(serviceName);
+    List<IndexNavigation> navigations = describeNavigations(serviceName, indices);
+    if (!indices.isEmpty() &&
+        indices.equals(oldEdmProvider.getIndices()) &&
+        navigations.equals(oldEdmProvider.getNavigations())) {
+      return Optional.of(oldEdmProvider);
+    }
+
+    log.info("Mapping changed, rebuilding Entity Data Model for service {}", serviceName);
+    return indices.isEmpty()
+        ? Optional.empty()
+        : Optional.of(createEdmProvider(serviceName, indices, navigations));
   }
 
   @Override
   public CsdlEdmProvider findByServiceName(String serviceName) {
-    return nameToEdmProviderMap.computeIfAbsent(serviceName, this::createEdmProvider);
+    try {
+      return nameToEdmProviderCache.get(serviceName)
+          .join()
+          .orElse(null);
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+
+      throw e;
+    }
+  }
+
+  /**
+   * Finds configured services, aliases and indices matching a pattern. One request gets the
+   * names of all aliases and indices.
+   *
+   * @param pattern
+   *     service name, or pattern where {@code *} matches any characters
+   * @return service names
+   */
+  @Override
+  public Collection<String> findServiceNames(String pattern) {
+    if (!Regex.isSimpleMatchPattern(pattern)) {
+      return Collections.singletonList(pattern);
+    }
+
+    Set<String> serviceNames = new TreeSet<>();
+    for (ODataElasticsearchProperties.Service serviceProperties : servicePropertiesList) {
+      if (Regex.simpleMatch(pattern, serviceProperties.getName())) {
+        serviceNames.add(serviceProperties.getName());
+      }
+    }
+
+    Map<String, Set<AliasMetadata>> indexToAliasesMap;
+    try {
+      indexToAliasesMap = elasticsearchClient.indices()
+          .getAlias(new GetAliasesRequest(), RequestOptions.DEFAULT)
+          .getAliases();
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot get aliases", e);
+    }
+
+    indexToAliasesMap.forEach((indexName, aliases) -> {
+      if (Regex.simpleMatch(pattern, indexName)) {
+        serviceNames.add(indexName);
+      }
+
+      for (AliasMetadata alias : aliases) {
+        if (Regex.simpleMatch(pattern, alias.alias())) {
+          serviceNames.add(alias.alias());
+        }
+      }
+    });
+    return serviceNames;
+  }
+
+  /**
+   * Reloads Entity Data Model of service in the background. Requests continue to use the current
+   * Entity Data Model until the reload completes.
+   *
+   * @param serviceName
+   *     service name
+   */
+  public void refresh(String serviceName) {
+    nameToEdmProviderCache.synchronous().refresh(serviceName);
+  }
+
+  /**
+   * Discards Entity Data Model of service, so the next request loads it again.
+   *
+   * @param serviceName
+   *     service name
+   */
+  public void invalidate(String serviceName) {
+    nameToEdmProviderCache.synchronous().invalidate(serviceName);
+  }
+
+  /**
+   * Discards Entity Data Models of all services.
+   */
+  public void invalidateAll() {
+    nameToEdmProviderCache.synchronous().invalidateAll();
   }
 }
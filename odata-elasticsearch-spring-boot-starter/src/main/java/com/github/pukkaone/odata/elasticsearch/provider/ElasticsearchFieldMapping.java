@@ -0,0 +1,41 @@
+package com.github.pukkaone.odata.elasticsearch.provider;
+
+import lombok.Getter;
+import org.apache.olingo.commons.api.edm.provider.CsdlMapping;
+
+/**
+ * Describes the Elasticsearch field a property is mapped from. Processors get it from
+ * {@code EdmProperty.getMapping()}. It does not appear in the metadata document.
+ */
+@Getter
+public class ElasticsearchFieldMapping extends CsdlMapping {
+
+  /** Elasticsearch field type. */
+  private final String type;
+
+  /** Format of date field, or null if the field is not a date. */
+  private final ElasticsearchDateFormat dateFormat;
+
+  /**
+   * Constructor.
+   *
+   * @param type
+   *     Elasticsearch field type
+   */
+  public ElasticsearchFieldMapping(String type) {
+    this(type, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param type
+   *     Elasticsearch field type
+   * @param dateFormat
+   *     format of date field, or null if the field is not a date
+   */
+  public ElasticsearchFieldMapping(String type, ElasticsearchDateFormat dateFormat) {
+    this.type = type;
+    this.dateFormat = dateFormat;
+  }
+}
@@ -0,0 +1,19 @@
+package com.github.pukkaone.odata.elasticsearch.provider;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Link from a field of documents in an index to the related documents in a target index.
+ */
+@AllArgsConstructor
+@Data
+public class IndexNavigation {
+
+  private String source;
+  private String name;
+  private String foreignKey;
+  private Index target;
+  private String targetKey;
+  private boolean collection;
+}
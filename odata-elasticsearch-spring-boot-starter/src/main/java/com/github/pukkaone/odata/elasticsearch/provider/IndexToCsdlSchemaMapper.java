@@ -15,8 +15,11 @@ import org.apache.olingo.commons.api.edm.provider.CsdlComplexType;
 import org.apache.olingo.commons.api.edm.provider.CsdlEntityContainer;
 import org.apache.olingo.commons.api.edm.provider.CsdlEntitySet;
 import org.apache.olingo.commons.api.edm.provider.CsdlEntityType;
+import org.apache.olingo.commons.api.edm.provider.CsdlNavigationProperty;
+import org.apache.olingo.commons.api.edm.provider.CsdlNavigationPropertyBinding;
 import org.apache.olingo.commons.api.edm.provider.CsdlProperty;
 import org.apache.olingo.commons.api.edm.provider.CsdlPropertyRef;
+import org.apache.olingo.commons.api.edm.provider.CsdlReferentialConstraint;
 import org.apache.olingo.commons.api.edm.provider.CsdlSchema;
 import org.elasticsearch.index.mapper.BinaryFieldMapper;
 import org.elasticsearch.index.mapper.BooleanFieldMapper;
@@ -36,6 +39,7 @@ public class IndexToCsdlSchemaMapper {
   private static final String ID_PROPERTY_NAME = "_id";
   private static final String NESTED = "nested";
   private static final String OBJECT = "object";
+  private static final int NANOSECOND_PRECISION = 9;
   private static final Map<String, EdmPrimitiveTypeKind> TO_PRIMITIVE_TYPE_MAP = new HashMap<>();
 
   static {
@@ -44,6 +48,8 @@ public class IndexToCsdlSchemaMapper {
     TO_PRIMITIVE_TYPE_MAP.put(
         NumberFieldMapper.NumberType.BYTE.typeName(), EdmPrimitiveTypeKind.Byte);
     TO_PRIMITIVE_TYPE_MAP.put(DateFieldMapper.CONTENT_TYPE, EdmPrimitiveTypeKind.DateTimeOffset);
+    TO_PRIMITIVE_TYPE_MAP.put(
+        DateFieldMapper.DATE_NANOS_CONTENT_TYPE, EdmPrimitiveTypeKind.DateTimeOffset);
     TO_PRIMITIVE_TYPE_MAP.put(
         NumberFieldMapper.NumberType.DOUBLE.typeName(), EdmPrimitiveTypeKind.Double);
     TO_PRIMITIVE_TYPE_MAP.put(
@@ -66,6 +72,10 @@ public class IndexToCsdlSchemaMapper {
   private Map<FullQualifiedName, CsdlEntityType> nameToEntityTypeMap = new LinkedHashMap<>();
   private Map<FullQualifiedName, CsdlComplexType> nameToComplexTypeMap = new LinkedHashMap<>();
 
+  // Complex Types of related indices, and of each index in a service having many indices, are
+  // prefixed by the index name, so they do not collide with each other.
+  private String complexTypeNamePrefix = "";
+
   private FullQualifiedName toPrimitiveType(String elasticsearchType) {
     EdmPrimitiveTypeKind type = TO_PRIMITIVE_TYPE_MAP.get(elasticsearchType);
     return (type == null) ? null : type.getFullQualifiedName();
@@ -77,7 +87,7 @@ public class IndexToCsdlSchemaMapper {
     List<CsdlProperty> properties = toProperties(nameToAttributeMap);
 
     CsdlComplexType complexType = new CsdlComplexType()
-        .setName(propertyName)
+        .setName(complexTypeNamePrefix + propertyName)
         .setProperties(properties);
 
     FullQualifiedName complexTypeFqn =
@@ -114,10 +124,36 @@ public class IndexToCsdlSchemaMapper {
       return Optional.empty();
     }
 
+    if (DateFieldMapper.CONTENT_TYPE.equals(elasticsearchType) ||
+        DateFieldMapper.DATE_NANOS_CONTENT_TYPE.equals(elasticsearchType)) {
+      return Optional.of(toDateProperty(propertyName, elasticsearchType, nameToAttributeMap));
+    }
+
     return Optional.of(new CsdlProperty()
         .setCollection(isCollection)
         .setName(propertyName)
-        .setType(type));
+        .setType(type)
+        .setMapping(new ElasticsearchFieldMapping(
+            (elasticsearchType == null) ? OBJECT : elasticsearchType)));
+  }
+
+  private CsdlProperty toDateProperty(
+      String propertyName, String elasticsearchType, Map<String, Object> nameToAttributeMap) {
+
+    ElasticsearchDateFormat dateFormat =
+        ElasticsearchDateFormat.of((String) nameToAttributeMap.get("format"));
+    CsdlProperty property = new CsdlProperty()
+        .setName(propertyName)
+        .setMapping(new ElasticsearchFieldMapping(elasticsearchType, dateFormat));
+    if (dateFormat.isDateOnly()) {
+      return property.setType(EdmPrimitiveTypeKind.Date.getFullQualifiedName());
+    }
+
+    if (DateFieldMapper.DATE_NANOS_CONTENT_TYPE.equals(elasticsearchType)) {
+      property.setPrecision(NANOSECOND_PRECISION);
+    }
+
+    return property.setType(EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName());
   }
 
   @SuppressWarnings("unchecked")
@@ -167,14 +203,85 @@ public class IndexToCsdlSchemaMapper {
         .setType(entityTypeFqn);
   }
 
-  private List<CsdlEntitySet> toEntitySets(Index index) {
-    return Collections.singletonList(toEntitySet(index));
+  private void addNavigation(
+      CsdlEntitySet entitySet, IndexNavigation navigation, CsdlEntitySet targetEntitySet) {
+
+    CsdlEntityType entityType = nameToEntityTypeMap.get(entitySet.getTypeFQN());
+    CsdlEntityType targetEntityType = nameToEntityTypeMap.get(targetEntitySet.getTypeFQN());
+    if (entityType.getProperty(navigation.getName()) != null ||
+        entityType.getNavigationProperty(navigation.getName()) != null) {
+      log.warn(
+          "Ignoring navigation {} having same name as a property of index {}",
+          navigation.getName(),
+          entitySet.getName());
+      return;
+    }
+
+    if (entityType.getProperty(navigation.getForeignKey()) == null) {
+      log.warn(
+          "Ignoring navigation {} having foreign key {} not found in index {}",
+          navigation.getName(),
+          navigation.getForeignKey(),
+          entitySet.getName());
+      return;
+    }
+
+    if (targetEntityType.getProperty(navigation.getTargetKey()) == null) {
+      log.warn(
+          "Ignoring navigation {} having target key {} not found in index {}",
+          navigation.getName(),
+          navigation.getTargetKey(),
+          targetEntitySet.getName());
+      return;
+    }
+
+    // The referential constraint names the fields linking the documents, so requests resolve
+    // $expand from the Entity Data Model alone.
+    entityType.getNavigationProperties().add(new CsdlNavigationProperty()
+        .setName(navigation.getName())
+        .setType(targetEntitySet.getTypeFQN())
+        .setCollection(navigation.isCollection())
+        .setReferentialConstraints(Collections.singletonList(new CsdlReferentialConstraint()
+            .setProperty(navigation.getForeignKey())
+            .setReferencedProperty(navigation.getTargetKey()))));
+    entitySet.getNavigationPropertyBindings().add(new CsdlNavigationPropertyBinding()
+        .setPath(navigation.getName())
+        .setTarget(targetEntitySet.getName()));
   }
 
-  private CsdlEntityContainer toEntityContainer(Index index) {
+  private List<CsdlEntitySet> toEntitySets(
+      List<Index> indices, List<IndexNavigation> navigations) {
+
+    Map<String, CsdlEntitySet> nameToEntitySetMap = new LinkedHashMap<>();
+    for (Index index : indices) {
+      complexTypeNamePrefix = (indices.size() > 1) ? index.getName() + "_" : "";
+      CsdlEntitySet entitySet = toEntitySet(index);
+      nameToEntitySetMap.put(entitySet.getName(), entitySet);
+    }
+
+    for (IndexNavigation navigation : navigations) {
+      Index target = navigation.getTarget();
+      CsdlEntitySet targetEntitySet = nameToEntitySetMap.get(target.getName());
+      if (targetEntitySet == null) {
+        complexTypeNamePrefix = target.getName() + "_";
+        targetEntitySet = toEntitySet(target);
+        nameToEntitySetMap.put(targetEntitySet.getName(), targetEntitySet);
+      }
+
+      addNavigation(
+          nameToEntitySetMap.get(navigation.getSource()), navigation, targetEntitySet);
+    }
+
+    complexTypeNamePrefix = "";
+    return new ArrayList<>(nameToEntitySetMap.values());
+  }
+
+  private CsdlEntityContainer toEntityContainer(
+      String namespace, List<Index> indices, List<IndexNavigation> navigations) {
+
     return new CsdlEntityContainer()
-        .setName(index.getName() + "Container")
-        .setEntitySets(toEntitySets(index));
+        .setName(namespace + "Container")
+        .setEntitySets(toEntitySets(indices, navigations));
   }
 
   /**
@@ -185,9 +292,41 @@ public class IndexToCsdlSchemaMapper {
    * @return schema
    */
   public CsdlSchema toSchema(Index index) {
+    return toSchema(index, Collections.emptyList());
+  }
+
+  /**
+   * Converts Elasticsearch index to CSDL Schema, with an Entity Set for each related index and
+   * a navigation property for each link to a related index.
+   *
+   * @param index
+   *     index description
+   * @param navigations
+   *     links to related indices
+   * @return schema
+   */
+  public CsdlSchema toSchema(Index index, List<IndexNavigation> navigations) {
+    return toSchema(index.getName(), Collections.singletonList(index), navigations);
+  }
+
+  /**
+   * Converts Elasticsearch indices to CSDL Schema having one entity container, with an Entity
+   * Set for each index and each related index.
+   *
+   * @param namespace
+   *     schema namespace
+   * @param indices
+   *     index descriptions
+   * @param navigations
+   *     links from the indices to related indices
+   * @return schema
+   */
+  public CsdlSchema toSchema(
+      String namespace, List<Index> indices, List<IndexNavigation> navigations) {
+
     schema = new CsdlSchema()
-        .setNamespace(index.getName());
-    return schema.setEntityContainer(toEntityContainer(index))
+        .setNamespace(namespace);
+    return schema.setEntityContainer(toEntityContainer(namespace, indices, navigations))
         .setEntityTypes(new ArrayList<>(nameToEntityTypeMap.values()))
         .setComplexTypes(new ArrayList<>(nameToComplexTypeMap.values()));
   }
@@ -4,18 +4,52 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.pukkaone.odata.elasticsearch.autoconfigure.ODataElasticsearchProperties;
+import com.github.pukkaone.odata.elasticsearch.processor.BulkWriter;
+import com.github.pukkaone.odata.elasticsearch.processor.EntityRepository;
+import com.github.pukkaone.odata.elasticsearch.processor.Meters;
+import com.github.pukkaone.odata.elasticsearch.processor.QueryPlanCache;
+import com.github.pukkaone.odata.elasticsearch.provider.ElasticsearchEdmProviderResolver;
+import com.github.pukkaone.odata.web.ODataServlet;
+import com.github.pukkaone.odata.web.ODataWarmUp;
+import com.github.pukkaone.odata.web.provider.CsdlEdmProviderResolver;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+import org.apache.http.HttpHost;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edm.provider.CsdlEdmProvider;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ServiceMetadata;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.core.uri.parser.Parser;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.PutMappingRequest;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.context.TestConfiguration;
@@ -27,6 +61,9 @@ import org.springframework.context.annotation.Primary;
 import org.springframework.core.ResolvableType;
 import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
 import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.StreamUtils;
@@ -47,6 +84,11 @@ public class ODataIntegrationTest {
       return new JacksonTester<>(
           ODataIntegrationTest.class, ResolvableType.forClass(JsonNode.class), objectMapper);
     }
+
+    @Bean
+    public MeterRegistry meterRegistry() {
+      return new SimpleMeterRegistry();
+    }
   }
 
   private static final String INDEX_NAME = "customer";
@@ -63,8 +105,23 @@ public class ODataIntegrationTest {
   @Autowired
   private JacksonTester<JsonNode> json;
 
-  private boolean createIndex(String mappings) throws Exception {
-    CreateIndexRequest createIndexRequest = new CreateIndexRequest(INDEX_NAME)
+  @Autowired
+  private QueryPlanCache queryPlanCache;
+
+  @Autowired
+  private ODataElasticsearchProperties properties;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private ElasticsearchEdmProviderResolver edmProviderResolver;
+
+  @Autowired
+  private BulkWriter bulkWriter;
+
+  private boolean createIndex(String indexName, String mappings) throws Exception {
+    CreateIndexRequest createIndexRequest = new CreateIndexRequest(indexName)
         .source(mappings, XContentType.JSON);
     return elasticsearchClient.indices()
         .create(createIndexRequest, RequestOptions.DEFAULT)
@@ -104,7 +161,7 @@ public class ODataIntegrationTest {
     String mappings = StreamUtils.copyToString(
         ODataIntegrationTest.class.getResourceAsStream("mappings.json"),
         StandardCharsets.UTF_8);
-    createIndex(mappings);
+    createIndex(INDEX_NAME, mappings);
     waitForGreenStatus();
 
     indexDocument("entityId1", "entity1-source.json");
@@ -140,6 +197,323 @@ public class ODataIntegrationTest {
     assertEquals("metadata-expected.json", metadata);
   }
 
+  @Test
+  public void should_get_metadata_with_format_parameter() throws Exception {
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.ACCEPT, "application/json;charset=utf-8");
+    ResponseEntity<JsonNode> response = testRestTemplate.exchange(
+        joinPathSegments("/$metadata"),
+        HttpMethod.GET,
+        new HttpEntity<>(headers),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertEquals("metadata-expected.json", response.getBody());
+  }
+
+  private static List<Object> toReadinessStates(List<Object> events) {
+    synchronized (events) {
+      return events.stream()
+          .map(event -> ((AvailabilityChangeEvent<?>) event).getState())
+          .collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  public void should_warm_up_services() throws Exception {
+    List<Object> events = Collections.synchronizedList(new ArrayList<>());
+    List<String> resolvedServiceNames = Collections.synchronizedList(new ArrayList<>());
+    List<Object> readinessStatesDuringWarmUp = new ArrayList<>();
+    CsdlEdmProviderResolver recordingResolver = serviceName -> {
+      resolvedServiceNames.add(serviceName);
+      readinessStatesDuringWarmUp.addAll(toReadinessStates(events));
+      return edmProviderResolver.findByServiceName(serviceName);
+    };
+    ODataWarmUp warmUp = new ODataWarmUp(
+        new ODataServlet(Collections.singletonList(recordingResolver), Collections.emptyList()),
+        Collections.singletonList(recordingResolver),
+        Collections.singletonList(INDEX_NAME),
+        1,
+        Duration.ofSeconds(30),
+        events::add);
+
+    warmUp.run(null);
+
+    assertThat(resolvedServiceNames).containsExactly(INDEX_NAME);
+    assertThat(readinessStatesDuringWarmUp).containsExactly(ReadinessState.REFUSING_TRAFFIC);
+    assertThat(toReadinessStates(events))
+        .containsExactly(ReadinessState.REFUSING_TRAFFIC, ReadinessState.ACCEPTING_TRAFFIC);
+  }
+
+  @Test
+  public void should_accept_traffic_when_warm_up_times_out() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CsdlEdmProviderResolver blockingResolver = serviceName -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      return null;
+    };
+    List<Object> events = Collections.synchronizedList(new ArrayList<>());
+    ODataWarmUp warmUp = new ODataWarmUp(
+        new ODataServlet(Collections.singletonList(blockingResolver), Collections.emptyList()),
+        Collections.singletonList(blockingResolver),
+        Collections.singletonList(INDEX_NAME),
+        1,
+        Duration.ofMillis(100),
+        events::add);
+
+    long startMillis = System.currentTimeMillis();
+    try {
+      warmUp.run(null);
+    } finally {
+      release.countDown();
+    }
+
+    assertThat(System.currentTimeMillis() - startMillis).isLessThan(10000);
+    assertThat(toReadinessStates(events))
+        .containsExactly(ReadinessState.REFUSING_TRAFFIC, ReadinessState.ACCEPTING_TRAFFIC);
+  }
+
+  private CsdlEdmProvider awaitNewEdmProvider(String serviceName, CsdlEdmProvider oldEdmProvider)
+      throws Exception {
+
+    long deadlineMillis = System.currentTimeMillis() + 10000;
+    CsdlEdmProvider edmProvider = edmProviderResolver.findByServiceName(serviceName);
+    while (edmProvider == oldEdmProvider && System.currentTimeMillis() < deadlineMillis) {
+      Thread.sleep(100);
+      edmProvider = edmProviderResolver.findByServiceName(serviceName);
+    }
+
+    return edmProvider;
+  }
+
+  @Test
+  public void should_reuse_entity_data_model() throws Exception {
+    CsdlEdmProvider edmProvider = edmProviderResolver.findByServiceName(INDEX_NAME);
+
+    assertThat(edmProviderResolver.findByServiceName(INDEX_NAME)).isSameAs(edmProvider);
+  }
+
+  @Test
+  public void should_get_metadata_after_mapping_change() throws Exception {
+    String indexName = "mapping_change";
+    createIndex(indexName, "{\"mappings\":{\"properties\":{\"a\":{\"type\":\"keyword\"}}}}");
+    try {
+      JsonNode metadata = testRestTemplate.getForObject(
+          "/odata/" + indexName + "/$metadata", JsonNode.class);
+      assertThat(metadata.at("/mapping_change/mapping_change/a").isMissingNode()).isFalse();
+      assertThat(metadata.at("/mapping_change/mapping_change/b").isMissingNode()).isTrue();
+
+      CsdlEdmProvider oldEdmProvider = edmProviderResolver.findByServiceName(indexName);
+      PutMappingRequest putMappingRequest = new PutMappingRequest(indexName)
+          .source("{\"properties\":{\"b\":{\"type\":\"integer\"}}}", XContentType.JSON);
+      elasticsearchClient.indices()
+          .putMapping(putMappingRequest, RequestOptions.DEFAULT);
+      edmProviderResolver.refresh(indexName);
+      assertThat(awaitNewEdmProvider(indexName, oldEdmProvider)).isNotSameAs(oldEdmProvider);
+
+      metadata = testRestTemplate.getForObject(
+          "/odata/" + indexName + "/$metadata", JsonNode.class);
+      assertThat(metadata.at("/mapping_change/mapping_change/b/$Type").asText())
+          .isEqualTo("Edm.Int32");
+    } finally {
+      elasticsearchTemplate.indexOps(IndexCoordinates.of(indexName))
+          .delete();
+      edmProviderResolver.invalidate(indexName);
+    }
+  }
+
+  @Test
+  public void should_find_alias_after_invalidate() throws Exception {
+    String aliasName = "customer_alias";
+    ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+        "/odata/" + aliasName + "/", JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+
+    IndicesAliasesRequest addAliasRequest = new IndicesAliasesRequest()
+        .addAliasAction(IndicesAliasesRequest.AliasActions.add()
+            .index(INDEX_NAME)
+            .alias(aliasName));
+    elasticsearchClient.indices()
+        .updateAliases(addAliasRequest, RequestOptions.DEFAULT);
+    try {
+      // Service name not found is cached for a while.
+      response = testRestTemplate.getForEntity("/odata/" + aliasName + "/", JsonNode.class);
+      assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+
+      edmProviderResolver.invalidate(aliasName);
+      response = testRestTemplate.getForEntity("/odata/" + aliasName + "/", JsonNode.class);
+
+      assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+      assertThat(json.write(response.getBody()))
+          .extractingJsonPathArrayValue("$.value[*].name")
+          .containsExactly(INDEX_NAME);
+    } finally {
+      IndicesAliasesRequest removeAliasRequest = new IndicesAliasesRequest()
+          .addAliasAction(IndicesAliasesRequest.AliasActions.remove()
+              .index(INDEX_NAME)
+              .alias(aliasName));
+      elasticsearchClient.indices()
+          .updateAliases(removeAliasRequest, RequestOptions.DEFAULT);
+      edmProviderResolver.invalidate(aliasName);
+    }
+  }
+
+  @Test
+  public void should_get_entity_sets_of_configured_service() throws Exception {
+    ODataElasticsearchProperties.Service service = new ODataElasticsearchProperties.Service();
+    service.setName("all");
+    service.getIndices().add(INDEX_NAME + "*");
+    service.getIndices().add("missing");
+    properties.getServices().add(service);
+    try {
+      ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+          "/odata/all/", JsonNode.class);
+
+      assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+      assertThat(json.write(response.getBody()))
+          .extractingJsonPathArrayValue("$.value[*].name")
+          .containsExactly(INDEX_NAME);
+
+      response = testRestTemplate.getForEntity(
+          "/odata/all/" + INDEX_NAME + "('entityId1')", JsonNode.class);
+
+      assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    } finally {
+      properties.getServices().remove(service);
+      edmProviderResolver.invalidate("all");
+    }
+  }
+
+  @Test
+  public void should_process_batch() throws Exception {
+    String body = String.join("\r\n",
+        "--batch_1",
+        "Content-Type: application/http",
+        "Content-Transfer-Encoding: binary",
+        "",
+        "GET customer('entityId1') HTTP/1.1",
+        "Accept: application/json",
+        "",
+        "",
+        "--batch_1",
+        "Content-Type: application/http",
+        "Content-Transfer-Encoding: binary",
+        "",
+        "GET customer?$filter=integerProperty%20eq%2020 HTTP/1.1",
+        "Accept: application/json",
+        "",
+        "",
+        "--batch_1--",
+        "");
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.CONTENT_TYPE, "multipart/mixed;boundary=batch_1");
+
+    ResponseEntity<String> response = testRestTemplate.postForEntity(
+        joinPathSegments("/$batch"),
+        new HttpEntity<>(body, headers),
+        String.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(response.getBody())
+        .contains("\"integerProperty\":10")
+        .contains("\"integerProperty\":20");
+  }
+
+  @Test
+  public void should_not_find_missing_entity_in_batch() throws Exception {
+    String body = String.join("\r\n",
+        "--batch_1",
+        "Content-Type: application/http",
+        "Content-Transfer-Encoding: binary",
+        "",
+        "GET customer('missing') HTTP/1.1",
+        "Accept: application/json",
+        "",
+        "",
+        "--batch_1",
+        "Content-Type: application/http",
+        "Content-Transfer-Encoding: binary",
+        "",
+        "GET customer('entityId1') HTTP/1.1",
+        "Accept: application/json",
+        "",
+        "",
+        "--batch_1--",
+        "");
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.CONTENT_TYPE, "multipart/mixed;boundary=batch_1");
+
+    ResponseEntity<String> response = testRestTemplate.postForEntity(
+        joinPathSegments("/$batch"),
+        new HttpEntity<>(body, headers),
+        String.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(response.getBody())
+        .contains("HTTP/1.1 404 Not Found")
+        .contains("\"integerProperty\":10");
+  }
+
+  @Test
+  public void should_read_after_write_in_batch() throws Exception {
+    String body = String.join("\r\n",
+        "--batch_1",
+        "Content-Type: application/http",
+        "Content-Transfer-Encoding: binary",
+        "",
+        "GET customer('entityId5') HTTP/1.1",
+        "Accept: application/json",
+        "",
+        "",
+        "--batch_1",
+        "Content-Type: application/http",
+        "Content-Transfer-Encoding: binary",
+        "",
+        "POST customer HTTP/1.1",
+        "Accept: application/json",
+        "Content-Type: application/json",
+        "",
+        "{\"_id\":\"entityId5\",\"integerProperty\":50}",
+        "--batch_1",
+        "Content-Type: application/http",
+        "Content-Transfer-Encoding: binary",
+        "",
+        "GET customer('entityId5') HTTP/1.1",
+        "Accept: application/json",
+        "",
+        "",
+        "--batch_1--",
+        "");
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.CONTENT_TYPE, "multipart/mixed;boundary=batch_1");
+
+    ResponseEntity<String> response = testRestTemplate.postForEntity(
+        joinPathSegments("/$batch"),
+        new HttpEntity<>(body, headers),
+        String.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    String responseBody = response.getBody();
+    int readBeforeWrite = responseBody.indexOf("HTTP/1.1 404 Not Found");
+    int write = responseBody.indexOf("HTTP/1.1 201 Created");
+    int readAfterWrite = responseBody.indexOf("HTTP/1.1 200 OK");
+    assertThat(readBeforeWrite).isNotNegative();
+    assertThat(write).isGreaterThan(readBeforeWrite);
+    assertThat(readAfterWrite).isGreaterThan(write);
+    assertThat(responseBody.substring(readAfterWrite)).contains("\"integerProperty\":50");
+
+    testRestTemplate.delete(joinPathSegments("/customer('entityId5')"));
+
+    // Remove the deleted document from searches by other tests.
+    refresh();
+  }
+
   @Test
   public void should_read_entity() throws Exception {
     ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
@@ -150,6 +524,152 @@ public class ODataIntegrationTest {
     assertEquals("entity1-expected.json", response.getBody());
   }
 
+  @Test
+  public void should_read_entity_asynchronously() throws Exception {
+    properties.getAsync().setEnabled(true);
+    try {
+      ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+          joinPathSegments("/customer('entityId1')"),
+          JsonNode.class);
+
+      assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+      assertEquals("entity1-expected.json", response.getBody());
+    } finally {
+      properties.getAsync().setEnabled(false);
+    }
+  }
+
+  @Test
+  public void should_cancel_pending_request() throws Exception {
+    OData odata = OData.newInstance();
+    ServiceMetadata serviceMetadata = odata.createServiceMetadata(
+        edmProviderResolver.findByServiceName(INDEX_NAME), Collections.emptyList());
+    EdmEntitySet entitySet = serviceMetadata.getEdm()
+        .getEntityContainer()
+        .getEntitySet(INDEX_NAME);
+    UriInfo uriInfo = new Parser(serviceMetadata.getEdm(), odata)
+        .parseUri(INDEX_NAME + "/$count", null, null, null);
+
+    // Server accepts the connection and never responds.
+    try (ServerSocket server = new ServerSocket(0);
+        RestHighLevelClient pendingClient = new RestHighLevelClient(
+            RestClient.builder(new HttpHost("localhost", server.getLocalPort())))) {
+      EntityRepository entityRepository =
+          new EntityRepository(pendingClient, properties, queryPlanCache, bulkWriter);
+      CompletableFuture<Integer> future = entityRepository.countAsync(entitySet, uriInfo);
+      try (Socket connection = server.accept()) {
+        future.cancel(true);
+
+        // Cancelling the Elasticsearch request closes the connection, so reading reaches the end
+        // of the stream instead of timing out.
+        connection.setSoTimeout(10000);
+        InputStream input = connection.getInputStream();
+        while (input.read() >= 0) {
+          // Skip request.
+        }
+      }
+    }
+  }
+
+  @Test
+  public void should_not_find_missing_entity() throws Exception {
+    ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer('missing')"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+  }
+
+  @Test
+  public void should_not_modify_entity_when_etag_matches() throws Exception {
+    ResponseEntity<String> response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer('entityId1')"),
+        String.class);
+    String etag = response.getHeaders().getETag();
+    assertThat(etag).startsWith("W/");
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.setIfNoneMatch(etag);
+    response = testRestTemplate.exchange(
+        joinPathSegments("/customer('entityId1')"),
+        HttpMethod.GET,
+        new HttpEntity<>(headers),
+        String.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+    assertThat(response.getHeaders().getETag()).isEqualTo(etag);
+    assertThat(response.getBody()).isNull();
+  }
+
+  @Test
+  public void should_not_modify_entity_collection_when_etag_matches() throws Exception {
+    ResponseEntity<String> response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer?$filter=integerProperty gt 10"),
+        String.class);
+    String etag = response.getHeaders().getETag();
+    assertThat(etag).startsWith("W/");
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.setIfNoneMatch(etag);
+    response = testRestTemplate.exchange(
+        joinPathSegments("/customer?$filter=integerProperty gt 10"),
+        HttpMethod.GET,
+        new HttpEntity<>(headers),
+        String.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+  }
+
+  @Test
+  public void should_create_update_delete_entity() throws Exception {
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.CONTENT_TYPE, "application/json");
+    ResponseEntity<JsonNode> response = testRestTemplate.postForEntity(
+        joinPathSegments("/customer"),
+        new HttpEntity<>(
+            "{\"_id\":\"entityId4\",\"integerProperty\":40,\"keywordProperty\":\"e\"}",
+            headers),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathNumberValue("$.integerProperty")
+        .isEqualTo(40);
+    String createdETag = response.getHeaders().getETag();
+    assertThat(createdETag).startsWith("W/");
+
+    headers.setIfMatch(createdETag);
+    ResponseEntity<String> updateResponse = testRestTemplate.exchange(
+        joinPathSegments("/customer('entityId4')"),
+        HttpMethod.PATCH,
+        new HttpEntity<>("{\"integerProperty\":41}", headers),
+        String.class);
+
+    assertThat(updateResponse.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+    String updatedETag = updateResponse.getHeaders().getETag();
+    assertThat(updatedETag).isNotEqualTo(createdETag);
+
+    updateResponse = testRestTemplate.exchange(
+        joinPathSegments("/customer('entityId4')"),
+        HttpMethod.PATCH,
+        new HttpEntity<>("{\"integerProperty\":42}", headers),
+        String.class);
+
+    assertThat(updateResponse.getStatusCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+
+    headers.setIfMatch(updatedETag);
+    ResponseEntity<String> deleteResponse = testRestTemplate.exchange(
+        joinPathSegments("/customer('entityId4')"),
+        HttpMethod.DELETE,
+        new HttpEntity<>(headers),
+        String.class);
+
+    assertThat(deleteResponse.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+
+    // Remove the deleted document from searches by other tests.
+    refresh();
+  }
+
   @Test
   public void should_find_all_entities() throws Exception {
     ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
@@ -165,6 +685,201 @@ public class ODataIntegrationTest {
         .containsExactly(10, 20, 30);
   }
 
+  @Test
+  public void should_find_entities_asynchronously() throws Exception {
+    properties.getAsync().setEnabled(true);
+    try {
+      ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+          joinPathSegments("/customer?$filter=integerProperty gt 10"),
+          JsonNode.class);
+
+      assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+      assertThat(json.write(response.getBody()))
+          .extractingJsonPathArrayValue("$.value[*].integerProperty")
+          .containsExactly(20, 30);
+    } finally {
+      properties.getAsync().setEnabled(false);
+    }
+  }
+
+  @Test
+  public void should_expand_navigation_property() throws Exception {
+    ODataElasticsearchProperties.Navigation navigation =
+        new ODataElasticsearchProperties.Navigation();
+    navigation.setSource(INDEX_NAME);
+    navigation.setName("sameKeyword");
+    navigation.setForeignKey("keywordProperty");
+    navigation.setTarget(INDEX_NAME);
+    navigation.setTargetKey("keywordProperty");
+    navigation.setCollection(true);
+    properties.getNavigations().add(navigation);
+    edmProviderResolver.invalidate(INDEX_NAME);
+    try {
+      ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+          joinPathSegments("/customer?$expand=sameKeyword($select=integerProperty)"),
+          JsonNode.class);
+
+      assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+      assertThat(json.write(response.getBody()))
+          .extractingJsonPathArrayValue("$.value[*].sameKeyword[*].integerProperty")
+          .containsExactly(10, 20, 30);
+    } finally {
+      properties.getNavigations().remove(navigation);
+      edmProviderResolver.invalidate(INDEX_NAME);
+    }
+  }
+
+  @Test
+  public void should_not_expand_more_than_max_results() throws Exception {
+    ODataElasticsearchProperties.Navigation navigation =
+        new ODataElasticsearchProperties.Navigation();
+    navigation.setSource(INDEX_NAME);
+    navigation.setName("sameKeyword");
+    navigation.setForeignKey("keywordProperty");
+    navigation.setTarget(INDEX_NAME);
+    navigation.setTargetKey("keywordProperty");
+    navigation.setCollection(true);
+    properties.getNavigations().add(navigation);
+    edmProviderResolver.invalidate(INDEX_NAME);
+    properties.getExpand().setMaxResults(2);
+    try {
+      ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+          joinPathSegments("/customer?$expand=sameKeyword"),
+          JsonNode.class);
+
+      assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    } finally {
+      properties.getExpand().setMaxResults(1000);
+      properties.getNavigations().remove(navigation);
+      edmProviderResolver.invalidate(INDEX_NAME);
+    }
+  }
+
+  @Test
+  public void should_transcode_same_as_serialize() throws Exception {
+    String uri = joinPathSegments("/customer?$filter=integerProperty ge 10&$count=true");
+    JsonNode serialized = testRestTemplate.getForObject(uri, JsonNode.class);
+
+    properties.getTranscoding().setEnabled(true);
+    try {
+      ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(uri, JsonNode.class);
+
+      assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+      assertThat(response.getBody()).isEqualTo(serialized);
+    } finally {
+      properties.getTranscoding().setEnabled(false);
+    }
+  }
+
+  @Test
+  public void should_not_modify_transcoded_entity_collection_when_etag_matches()
+      throws Exception {
+
+    String uri = joinPathSegments("/customer?$filter=integerProperty ge 10&$count=true");
+    String etag = testRestTemplate.getForEntity(uri, String.class).getHeaders().getETag();
+
+    properties.getTranscoding().setEnabled(true);
+    try {
+      ResponseEntity<String> response = testRestTemplate.getForEntity(uri, String.class);
+      assertThat(response.getHeaders().getETag()).isEqualTo(etag);
+
+      HttpHeaders headers = new HttpHeaders();
+      headers.setIfNoneMatch(etag);
+      response = testRestTemplate.exchange(
+          uri,
+          HttpMethod.GET,
+          new HttpEntity<>(headers),
+          String.class);
+
+      assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+    } finally {
+      properties.getTranscoding().setEnabled(false);
+    }
+  }
+
+  @Test
+  public void should_stream_same_as_buffer() throws Exception {
+    String uri = joinPathSegments("/customer?$filter=integerProperty ge 10&$count=true");
+    JsonNode buffered = testRestTemplate.getForObject(uri, JsonNode.class);
+
+    properties.getStreaming().setEnabled(true);
+    // Flush after every write, so the response is sent in many chunks.
+    properties.getStreaming().setFlushThreshold(1);
+    try {
+      ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(uri, JsonNode.class);
+
+      assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+      assertThat(response.getBody()).isEqualTo(buffered);
+    } finally {
+      properties.getStreaming().setEnabled(false);
+      properties.getStreaming().setFlushThreshold(8192);
+    }
+  }
+
+  @Test
+  public void should_count_entities() throws Exception {
+    ResponseEntity<String> response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer/$count?$filter=integerProperty gt 10"),
+        String.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(response.getBody()).isEqualTo("2");
+  }
+
+  @Test
+  public void should_count_entities_asynchronously() throws Exception {
+    properties.getAsync().setEnabled(true);
+    try {
+      ResponseEntity<String> response = testRestTemplate.getForEntity(
+          joinPathSegments("/customer/$count?$filter=integerProperty gt 10"),
+          String.class);
+
+      assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+      assertThat(response.getBody()).isEqualTo("2");
+    } finally {
+      properties.getAsync().setEnabled(false);
+    }
+  }
+
+  @Test
+  public void should_include_count() throws Exception {
+    ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer?$count=true&$top=1"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathNumberValue("$['@odata.count']")
+        .isEqualTo(3);
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathArrayValue("$.value[*].integerProperty")
+        .containsExactly(10);
+  }
+
+  @Test
+  public void should_read_date_in_epoch_millis() throws Exception {
+    ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer('entityId2')"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathStringValue("$.dateProperty")
+        .isEqualTo("2018-01-01T00:00:00Z");
+  }
+
+  @Test
+  public void should_filter_date_only_property_eq() throws Exception {
+    ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer?$filter=localDateProperty eq 2017-12-31"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathArrayValue("$.value[*].localDateProperty")
+        .containsExactly("2017-12-31");
+  }
+
   @Test
   public void should_filter_integer_property_and() throws Exception {
     ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
@@ -177,6 +892,20 @@ public class ODataIntegrationTest {
         .containsExactly(20);
   }
 
+  @Test
+  public void should_filter_integer_property_and_not_or() throws Exception {
+    ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+        joinPathSegments(
+            "/customer?$filter=integerProperty gt 5 and integerProperty lt 35 and " +
+                "not (integerProperty eq 20 or integerProperty eq 25 or integerProperty eq 40)"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathArrayValue("$.value[*].integerProperty")
+        .containsExactly(10, 30);
+  }
+
   @Test
   public void should_filter_integer_property_eq() throws Exception {
     ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
@@ -189,6 +918,42 @@ public class ODataIntegrationTest {
         .containsExactly(20);
   }
 
+  @Test
+  public void should_filter_integer_property_in() throws Exception {
+    ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer?$filter=integerProperty in (10, 30)"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathArrayValue("$.value[*].integerProperty")
+        .containsExactly(10, 30);
+  }
+
+  @Test
+  public void should_filter_property_eq_null() throws Exception {
+    ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer?$filter=byteProperty eq null"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathArrayValue("$.value[*].integerProperty")
+        .containsExactly(20, 30);
+  }
+
+  @Test
+  public void should_filter_property_ne_null() throws Exception {
+    ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer?$filter=byteProperty ne null"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathArrayValue("$.value[*].integerProperty")
+        .containsExactly(10);
+  }
+
   @Test
   public void should_filter_integer_property_ne() throws Exception {
     ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
@@ -225,6 +990,18 @@ public class ODataIntegrationTest {
         .containsExactly(20);
   }
 
+  @Test
+  public void should_filter_id_in() throws Exception {
+    ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer?$filter=_id in ('entityId2', 'entityId3')"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathArrayValue("$.value[*].integerProperty")
+        .containsExactly(20, 30);
+  }
+
   @Test
   public void should_filter_keyword_property_ne() throws Exception {
     ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
@@ -285,6 +1062,130 @@ public class ODataIntegrationTest {
         .containsExactly(10, 30, 20);
   }
 
+  @Test
+  public void should_search_text_properties() throws Exception {
+    ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer?$search=delta OR hotel"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathArrayValue("$.value[*].integerProperty")
+        .containsExactlyInAnyOrder(20, 30);
+  }
+
+  @Test
+  public void should_aggregate_groups() throws Exception {
+    ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+        joinPathSegments(
+            "/customer?$apply=filter(integerProperty gt 10)" +
+                "/groupby((keywordProperty),aggregate(integerProperty with sum as Total))"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathArrayValue("$.value[*].keywordProperty")
+        .containsExactly("alpha bravo", "echo foxtrot");
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathArrayValue("$.value[*].Total")
+        .containsExactly(20.0, 30.0);
+  }
+
+  @Test
+  public void should_reuse_query_plan_for_different_literals() throws Exception {
+    ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer?$filter=keywordProperty eq 'a' or integerProperty gt 25"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathArrayValue("$.value[*].integerProperty")
+        .containsExactly(10, 30);
+
+    final long hitCount = queryPlanCache.stats().hitCount();
+    response = testRestTemplate.getForEntity(
+        joinPathSegments(
+            "/customer?$filter=keywordProperty eq 'echo foxtrot' or integerProperty gt 15"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathArrayValue("$.value[*].integerProperty")
+        .containsExactly(20, 30);
+    assertThat(queryPlanCache.stats().hitCount()).isEqualTo(hitCount + 1);
+  }
+
+  @Test
+  public void should_record_query_plan_cache_metrics() throws Exception {
+    for (int i = 0; i < 2; ++i) {
+      ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+          joinPathSegments("/customer?$filter=integerProperty lt 15"),
+          JsonNode.class);
+
+      assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    assertThat(meterRegistry.find("cache.gets")
+        .tag("cache", Meters.QUERY_PLAN_CACHE)
+        .tag("result", "hit")
+        .functionCounter()
+        .count())
+        .isGreaterThanOrEqualTo(1);
+  }
+
+  @Test
+  public void should_record_metrics() throws Exception {
+    ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer?$filter=integerProperty gt 10"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(meterRegistry.find(Meters.QUERY_TRANSLATION)
+        .tag("entity.set", INDEX_NAME)
+        .tag("operation", "readEntityCollection")
+        .timer())
+        .isNotNull();
+
+    response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer?$filter=tolower(keywordProperty) eq 'a'"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_IMPLEMENTED);
+    assertThat(meterRegistry.find(Meters.NOT_IMPLEMENTED)
+        .tag(Meters.OPERATOR_TAG, "tolower")
+        .counter()
+        .count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void should_select_properties() throws Exception {
+    ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer?$select=integerProperty"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathArrayValue("$.value[*].integerProperty")
+        .containsExactly(10, 20, 30);
+    assertThat(json.write(response.getBody()))
+        .doesNotHaveJsonPath("$.value[0].textProperty");
+  }
+
+  @Test
+  public void should_select_entity_properties() throws Exception {
+    ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+        joinPathSegments("/customer('entityId1')?$select=integerProperty,keywordProperty"),
+        JsonNode.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(json.write(response.getBody()))
+        .extractingJsonPathStringValue("$.keywordProperty")
+        .isEqualTo("a");
+    assertThat(json.write(response.getBody()))
+        .doesNotHaveJsonPath("$.textProperty");
+  }
+
   @Test
   public void should_skip() throws Exception {
     ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
@@ -297,6 +1198,59 @@ public class ODataIntegrationTest {
         .containsExactly(20, 30);
   }
 
+  @Test
+  public void should_continue_with_next_link() throws Exception {
+    properties.getPaging().setServerDriven(true);
+    properties.getPaging().setPageSize(2);
+    properties.getPaging().setPointInTime(true);
+    try {
+      ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+          joinPathSegments("/customer?$select=integerProperty"),
+          JsonNode.class);
+
+      assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+      assertThat(json.write(response.getBody()))
+          .extractingJsonPathArrayValue("$.value[*].integerProperty")
+          .containsExactly(10, 20);
+      String nextLink = response.getBody().get("@odata.nextLink").asText();
+      assertThat(nextLink).contains("$skiptoken=");
+
+      response = testRestTemplate.getForEntity(URI.create(nextLink), JsonNode.class);
+
+      assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+      assertThat(json.write(response.getBody()))
+          .extractingJsonPathArrayValue("$.value[*].integerProperty")
+          .containsExactly(30);
+      assertThat(json.write(response.getBody()))
+          .doesNotHaveJsonPath("$['@odata.nextLink']");
+    } finally {
+      properties.getPaging().setServerDriven(false);
+      properties.getPaging().setPageSize(100);
+      properties.getPaging().setPointInTime(false);
+    }
+  }
+
+  @Test
+  public void should_not_link_to_empty_page() throws Exception {
+    properties.getPaging().setServerDriven(true);
+    properties.getPaging().setPageSize(3);
+    try {
+      ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
+          joinPathSegments("/customer"),
+          JsonNode.class);
+
+      assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+      assertThat(json.write(response.getBody()))
+          .extractingJsonPathArrayValue("$.value[*].integerProperty")
+          .containsExactly(10, 20, 30);
+      assertThat(json.write(response.getBody()))
+          .doesNotHaveJsonPath("$['@odata.nextLink']");
+    } finally {
+      properties.getPaging().setServerDriven(false);
+      properties.getPaging().setPageSize(100);
+    }
+  }
+
   @Test
   public void should_top() throws Exception {
     ResponseEntity<JsonNode> response = testRestTemplate.getForEntity(
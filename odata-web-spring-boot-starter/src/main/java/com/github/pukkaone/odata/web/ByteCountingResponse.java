@@ -0,0 +1,71 @@
+package com.github.pukkaone.odata.web;
+
+import java.io.IOException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Counts bytes written to the response output stream.
+ */
+class ByteCountingResponse extends HttpServletResponseWrapper {
+
+  private ServletOutputStream outputStream;
+  private long byteCount;
+
+  ByteCountingResponse(HttpServletResponse response) {
+    super(response);
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (outputStream == null) {
+      ServletOutputStream output = super.getOutputStream();
+      outputStream = new ServletOutputStream() {
+        @Override
+        public boolean isReady() {
+          return output.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+          output.setWriteListener(writeListener);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+          output.write(b);
+          ++byteCount;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          output.write(b, off, len);
+          byteCount += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+          output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+          output.close();
+        }
+      };
+    }
+
+    return outputStream;
+  }
+
+  /**
+   * Gets number of bytes written to the response body.
+   *
+   * @return number of bytes
+   */
+  long getByteCount() {
+    return byteCount;
+  }
+}
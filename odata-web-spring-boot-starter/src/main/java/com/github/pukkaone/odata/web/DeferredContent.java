@@ -0,0 +1,108 @@
+package com.github.pukkaone.odata.web;
+
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import lombok.RequiredArgsConstructor;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.ODataContent;
+import org.apache.olingo.server.api.ODataLibraryException;
+import org.apache.olingo.server.api.ODataResponse;
+
+/**
+ * Response content which is not available until an asynchronous operation completes. A
+ * processor sets this as the response content, and {@link ODataServlet} releases the request
+ * thread, then writes the response when the operation completes.
+ *
+ * @param <T>
+ *     result type of asynchronous operation
+ */
+@RequiredArgsConstructor
+public class DeferredContent<T> implements ODataContent {
+
+  private static final ThreadLocal<DeferredContent<?>> WRITTEN_CONTENT = new ThreadLocal<>();
+
+  private final CompletionStage<T> result;
+  private final ResultWriter<T> resultWriter;
+
+  /**
+   * Writes result of asynchronous operation to response.
+   *
+   * @param <T>
+   *     result type of asynchronous operation
+   */
+  @FunctionalInterface
+  public interface ResultWriter<T> {
+
+    /**
+     * Sets response status, headers and content from result.
+     *
+     * @param result
+     *     result of asynchronous operation
+     * @param response
+     *     response to set
+     * @throws ODataApplicationException
+     *     if application error occurred
+     * @throws ODataLibraryException
+     *     if serialize error occurred
+     */
+    void write(T result, ODataResponse response)
+        throws ODataApplicationException, ODataLibraryException;
+  }
+
+  @Override
+  public void write(WritableByteChannel channel) {
+    // Olingo calls this in the request thread. Remember the content so the servlet can complete
+    // the response later.
+    WRITTEN_CONTENT.set(this);
+  }
+
+  @Override
+  public void write(OutputStream output) {
+    WRITTEN_CONTENT.set(this);
+  }
+
+  /**
+   * Gets and clears deferred content written by the current thread.
+   *
+   * @return deferred content, or null if the response content was not deferred
+   */
+  static DeferredContent<?> takeWrittenContent() {
+    DeferredContent<?> content = WRITTEN_CONTENT.get();
+    WRITTEN_CONTENT.remove();
+    return content;
+  }
+
+  /**
+   * Converts the result to a response when the asynchronous operation completes.
+   *
+   * @param executor
+   *     runs the result writer
+   * @return future response
+   */
+  CompletableFuture<ODataResponse> toResponse(Executor executor) {
+    return result.thenApplyAsync(
+        value -> {
+          ODataResponse response = new ODataResponse();
+          try {
+            resultWriter.write(value, response);
+          } catch (ODataApplicationException | ODataLibraryException e) {
+            throw new CompletionException(e);
+          }
+
+          return response;
+        },
+        executor)
+        .toCompletableFuture();
+  }
+
+  /**
+   * Cancels the asynchronous operation.
+   */
+  void cancel() {
+    result.toCompletableFuture().cancel(false);
+  }
+}
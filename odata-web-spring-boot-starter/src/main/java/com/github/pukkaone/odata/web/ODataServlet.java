@@ -1,30 +1,140 @@
 package com.github.pukkaone.odata.web;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.pukkaone.odata.web.metrics.ODataMetrics;
+import com.github.pukkaone.odata.web.metrics.RequestMetrics;
 import com.github.pukkaone.odata.web.provider.CsdlEdmProviderResolver;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.olingo.commons.api.edm.provider.CsdlEdmProvider;
+import org.apache.olingo.commons.api.ex.ODataRuntimeException;
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.commons.api.http.HttpHeader;
+import org.apache.olingo.commons.api.http.HttpMethod;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ODataApplicationException;
 import org.apache.olingo.server.api.ODataHttpHandler;
+import org.apache.olingo.server.api.ODataLibraryException;
+import org.apache.olingo.server.api.ODataRequest;
+import org.apache.olingo.server.api.ODataResponse;
+import org.apache.olingo.server.api.ODataServerError;
 import org.apache.olingo.server.api.ServiceMetadata;
+import org.apache.olingo.server.api.processor.DefaultProcessor;
+import org.apache.olingo.server.api.processor.ErrorProcessor;
+import org.apache.olingo.server.api.processor.MetadataProcessor;
 import org.apache.olingo.server.api.processor.Processor;
+import org.apache.olingo.server.api.serializer.SerializerException;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.core.ODataExceptionHelper;
 import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.util.StreamUtils;
 
 /**
- * Implements OData service root endpoint.
+ * Implements OData service root endpoint. When a processor sets {@link DeferredContent} as the
+ * response content, the request is put into asynchronous mode, and the response is written when
+ * the content is available.
  */
+@Slf4j
 public class ODataServlet extends HttpServlet {
   private static final long serialVersionUID = 1L;
 
+  private static final int DEFAULT_SERVICE_CACHE_SIZE = 1000;
+  private static final Duration DEFAULT_ASYNC_TIMEOUT = Duration.ofSeconds(30);
+
   private List<CsdlEdmProviderResolver> edmProviderResolvers;
   private List<Processor> processors;
+  private Cache<String, CachedService> serviceNameToServiceCache;
+  private long asyncTimeoutMillis;
+  private ODataMetrics metrics;
+
+  /**
+   * Metadata built from an Entity Data Model provider. The Entity Data Model is expensive to
+   * build, so it is reused by requests until the resolver produces a different provider.
+   */
+  private static class CachedService {
+
+    private final CsdlEdmProvider edmProvider;
+    private final OData odata;
+    private final ServiceMetadata metadata;
+    private final Map<ContentType, byte[]> formatToMetadataDocumentMap = new ConcurrentHashMap<>();
+
+    CachedService(CsdlEdmProvider edmProvider) {
+      this.edmProvider = edmProvider;
+      this.odata = OData.newInstance();
+      this.metadata = odata.createServiceMetadata(edmProvider, Collections.emptyList());
+    }
+
+    byte[] toMetadataDocument(ContentType format) throws SerializerException {
+      // The document depends only on XML or JSON, not on parameters such as odata.metadata.
+      ContentType key = format.isCompatible(ContentType.APPLICATION_JSON)
+          ? ContentType.APPLICATION_JSON
+          : ContentType.APPLICATION_XML;
+      byte[] document = formatToMetadataDocumentMap.get(key);
+      if (document == null) {
+        try (InputStream content =
+            odata.createSerializer(key).metadataDocument(metadata).getContent()) {
+          document = StreamUtils.copyToByteArray(content);
+        } catch (IOException e) {
+          throw new IllegalStateException("Cannot serialize metadata document", e);
+        }
+
+        formatToMetadataDocumentMap.put(key, document);
+      }
+
+      return document;
+    }
+  }
+
+  /**
+   * Responds with the metadata document serialized once per service and format, instead of
+   * serializing the Entity Data Model for every request.
+   */
+  private static class CachedMetadataProcessor implements MetadataProcessor {
+
+    private final CachedService service;
+
+    CachedMetadataProcessor(CachedService service) {
+      this.service = service;
+    }
+
+    @Override
+    public void init(OData odata, ServiceMetadata serviceMetadata) {
+    }
+
+    @Override
+    public void readMetadata(
+        ODataRequest request, ODataResponse response, UriInfo uriInfo, ContentType responseFormat)
+        throws SerializerException {
+
+      if (request.getMethod() != HttpMethod.HEAD) {
+        response.setContent(
+            new ByteArrayInputStream(service.toMetadataDocument(responseFormat)));
+      }
+
+      response.setStatusCode(HttpStatusCode.OK.getStatusCode());
+      response.setHeader(HttpHeader.CONTENT_TYPE, responseFormat.toContentTypeString());
+    }
+  }
 
   /**
    * Constructor.
@@ -37,10 +147,80 @@ public class ODataServlet extends HttpServlet {
   public ODataServlet(
       List<CsdlEdmProviderResolver> edmProviderResolvers, List<Processor> processors) {
 
+    this(edmProviderResolvers, processors, DEFAULT_SERVICE_CACHE_SIZE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param edmProviderResolvers
+   *     Entity Data Model provider resolvers
+   * @param processors
+   *     processors
+   * @param serviceCacheSize
+   *     maximum number of services to keep metadata for
+   */
+  public ODataServlet(
+      List<CsdlEdmProviderResolver> edmProviderResolvers,
+      List<Processor> processors,
+      int serviceCacheSize) {
+
+    this(edmProviderResolvers, processors, serviceCacheSize, DEFAULT_ASYNC_TIMEOUT);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param edmProviderResolvers
+   *     Entity Data Model provider resolvers
+   * @param processors
+   *     processors
+   * @param serviceCacheSize
+   *     maximum number of services to keep metadata for
+   * @param asyncTimeout
+   *     maximum time to wait for deferred response content
+   */
+  public ODataServlet(
+      List<CsdlEdmProviderResolver> edmProviderResolvers,
+      List<Processor> processors,
+      int serviceCacheSize,
+      Duration asyncTimeout) {
+
+    this(edmProviderResolvers, processors, serviceCacheSize, asyncTimeout, ODataMetrics.NONE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param edmProviderResolvers
+   *     Entity Data Model provider resolvers
+   * @param processors
+   *     processors
+   * @param serviceCacheSize
+   *     maximum number of services to keep metadata for
+   * @param asyncTimeout
+   *     maximum time to wait for deferred response content
+   * @param metrics
+   *     records request processing measurements
+   */
+  public ODataServlet(
+      List<CsdlEdmProviderResolver> edmProviderResolvers,
+      List<Processor> processors,
+      int serviceCacheSize,
+      Duration asyncTimeout,
+      ODataMetrics metrics) {
+
     this.edmProviderResolvers = new ArrayList<>(edmProviderResolvers);
     this.edmProviderResolvers.sort(AnnotationAwareOrderComparator.INSTANCE);
 
     this.processors = processors;
+
+    this.serviceNameToServiceCache = Caffeine.newBuilder()
+        .maximumSize(serviceCacheSize)
+        .build();
+
+    this.asyncTimeoutMillis = asyncTimeout.toMillis();
+    this.metrics = metrics;
   }
 
   private String extractServiceName(HttpServletRequest request) {
@@ -59,6 +239,51 @@ public class ODataServlet extends HttpServlet {
     return null;
   }
 
+  private CachedService toService(String serviceName, CsdlEdmProvider edmProvider) {
+    CachedService service = serviceNameToServiceCache.getIfPresent(serviceName);
+    if (service == null || service.edmProvider != edmProvider) {
+      // Resolver produced a different provider, so the schema changed.
+      service = new CachedService(edmProvider);
+      serviceNameToServiceCache.put(serviceName, service);
+    }
+
+    return service;
+  }
+
+  /**
+   * Builds and caches metadata of a service before it is requested, so the first request does not
+   * wait for the Entity Data Model to be built.
+   *
+   * @param serviceName
+   *     service name
+   * @return true if the service was found
+   */
+  public boolean warmUp(String serviceName) {
+    CsdlEdmProvider edmProvider = toEdmProvider(serviceName);
+    if (edmProvider == null) {
+      return false;
+    }
+
+    // Olingo builds the Entity Data Model lazily, so serializing the metadata documents loads
+    // every element of it.
+    CachedService service = toService(serviceName, edmProvider);
+    try {
+      service.toMetadataDocument(ContentType.APPLICATION_XML);
+      service.toMetadataDocument(ContentType.APPLICATION_JSON);
+    } catch (SerializerException e) {
+      throw new ODataRuntimeException("Cannot serialize metadata of service " + serviceName, e);
+    }
+
+    return true;
+  }
+
+  /**
+   * Discards cached metadata of all services.
+   */
+  public void invalidateServices() {
+    serviceNameToServiceCache.invalidateAll();
+  }
+
   @Override
   protected void service(
       HttpServletRequest request,
@@ -71,6 +296,7 @@ public class ODataServlet extends HttpServlet {
       return;
     }
 
+    long schemaStartNanos = System.nanoTime();
     CsdlEdmProvider edmProvider = toEdmProvider(serviceName);
     if (edmProvider == null) {
       response.sendError(
@@ -78,9 +304,12 @@ public class ODataServlet extends HttpServlet {
       return;
     }
 
-    OData odata = OData.newInstance();
-    ServiceMetadata metadata = odata.createServiceMetadata(edmProvider, Collections.emptyList());
-    ODataHttpHandler handler = odata.createHandler(metadata);
+    // The handler holds per-request state, so create it from the cached service metadata.
+    CachedService service = toService(serviceName, edmProvider);
+    final long schemaResolutionNanos = System.nanoTime() - schemaStartNanos;
+    ODataHttpHandler handler = service.odata.createHandler(service.metadata);
+    // Registered first, so a metadata processor of the application takes precedence.
+    handler.register(new CachedMetadataProcessor(service));
     for (Processor processor : processors) {
       handler.register(processor);
     }
@@ -91,6 +320,191 @@ public class ODataServlet extends HttpServlet {
         return request.getServletPath() + '/' + serviceName;
       }
     };
-    handler.process(requestWrapper, response);
+    RequestMetrics requestMetrics = new RequestMetrics(metrics, serviceName);
+    HttpServletResponse countedResponse =
+        requestMetrics.isEnabled() ? new ByteCountingResponse(response) : response;
+    DeferredContent<?> deferredContent;
+    requestMetrics.bind();
+    try {
+      handler.process(requestWrapper, countedResponse);
+    } finally {
+      RequestMetrics.unbind();
+      deferredContent = DeferredContent.takeWrittenContent();
+    }
+
+    // Processors identify the entity set and operation while processing the request.
+    requestMetrics.recordTime(ODataMetrics.SCHEMA_RESOLUTION, schemaResolutionNanos);
+    if (deferredContent != null) {
+      completeDeferred(request, countedResponse, service, deferredContent, requestMetrics);
+    } else {
+      recordResponseSize(requestMetrics, countedResponse);
+    }
+  }
+
+  private static void recordResponseSize(
+      RequestMetrics requestMetrics, HttpServletResponse response) {
+
+    if (response instanceof ByteCountingResponse) {
+      requestMetrics.recordSize(
+          ODataMetrics.RESPONSE_SIZE, ((ByteCountingResponse) response).getByteCount());
+    }
+  }
+
+  private ErrorProcessor toErrorProcessor(CachedService service) {
+    // Like Olingo, use the last registered error processor.
+    ErrorProcessor errorProcessor = new DefaultProcessor();
+    for (Processor processor : processors) {
+      if (processor instanceof ErrorProcessor) {
+        errorProcessor = (ErrorProcessor) processor;
+      }
+    }
+
+    errorProcessor.init(service.odata, service.metadata);
+    return errorProcessor;
+  }
+
+  private static ODataServerError toServerError(Throwable error) {
+    if (error instanceof CompletionException && error.getCause() != null) {
+      error = error.getCause();
+    }
+
+    if (error instanceof ODataApplicationException) {
+      return ODataExceptionHelper.createServerErrorObject((ODataApplicationException) error);
+    } else if (error instanceof ODataLibraryException) {
+      return ODataExceptionHelper.createServerErrorObject((ODataLibraryException) error, null);
+    } else if (error instanceof Exception) {
+      return ODataExceptionHelper.createServerErrorObject((Exception) error);
+    }
+
+    return new ODataServerError()
+        .setException(new IllegalStateException(error))
+        .setStatusCode(HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode())
+        .setMessage(error.toString());
+  }
+
+  private ODataResponse toErrorResponse(
+      HttpServletRequest request, CachedService service, ODataServerError serverError) {
+
+    ODataRequest odataRequest = new ODataRequest();
+    odataRequest.setRawRequestUri(request.getRequestURL().toString());
+
+    ODataResponse odataResponse = new ODataResponse();
+    toErrorProcessor(service)
+        .processError(odataRequest, odataResponse, serverError, ContentType.JSON);
+    return odataResponse;
+  }
+
+  private static void writeResponse(HttpServletResponse response, ODataResponse odataResponse)
+      throws IOException {
+
+    // Keep headers set by upstream filters, such as CORS and tracing headers. Replace headers
+    // Olingo set from the response holding the deferred content.
+    response.resetBuffer();
+    response.setStatus(odataResponse.getStatusCode());
+    for (Map.Entry<String, List<String>> entry : odataResponse.getAllHeaders().entrySet()) {
+      response.setHeader(entry.getKey(), null);
+      for (String value : entry.getValue()) {
+        response.addHeader(entry.getKey(), value);
+      }
+    }
+
+    if (odataResponse.getContent() != null) {
+      try (InputStream content = odataResponse.getContent()) {
+        StreamUtils.copy(content, response.getOutputStream());
+      }
+    } else if (odataResponse.getODataContent() != null) {
+      odataResponse.getODataContent().write(response.getOutputStream());
+    }
+  }
+
+  private void writeResponse(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      CachedService service,
+      ODataResponse odataResponse,
+      ODataServerError serverError) {
+
+    try {
+      if (serverError != null) {
+        odataResponse = toErrorResponse(request, service, serverError);
+      }
+
+      writeResponse(response, odataResponse);
+    } catch (IOException | ODataRuntimeException e) {
+      log.error("Cannot write deferred response, requestUri {}", request.getRequestURI(), e);
+    }
+  }
+
+  private void completeDeferred(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      CachedService service,
+      DeferredContent<?> deferredContent,
+      RequestMetrics requestMetrics) {
+
+    if (!request.isAsyncSupported()) {
+      // A filter in the chain does not support asynchronous mode, so wait in this thread.
+      deferredContent.toResponse(Runnable::run)
+          .handle((odataResponse, error) -> {
+            writeResponse(
+                request,
+                response,
+                service,
+                odataResponse,
+                (error == null) ? null : toServerError(error));
+            recordResponseSize(requestMetrics, response);
+            return null;
+          })
+          .join();
+      return;
+    }
+
+    AsyncContext asyncContext = request.startAsync();
+    asyncContext.setTimeout(asyncTimeoutMillis);
+
+    // Either completion or timeout writes the response, whichever happens first.
+    AtomicBoolean responded = new AtomicBoolean();
+    asyncContext.addListener(new AsyncListener() {
+      @Override
+      public void onComplete(AsyncEvent event) {
+      }
+
+      @Override
+      public void onTimeout(AsyncEvent event) {
+        if (responded.compareAndSet(false, true)) {
+          deferredContent.cancel();
+          ODataServerError serverError = new ODataServerError()
+              .setStatusCode(HttpStatusCode.SERVICE_UNAVAILABLE.getStatusCode())
+              .setMessage("Request timed out after " + asyncTimeoutMillis + " ms");
+          writeResponse(request, response, service, null, serverError);
+          recordResponseSize(requestMetrics, response);
+          asyncContext.complete();
+        }
+      }
+
+      @Override
+      public void onError(AsyncEvent event) {
+      }
+
+      @Override
+      public void onStartAsync(AsyncEvent event) {
+      }
+    });
+
+    // Convert and serialize the result in a container thread, not the thread which completed
+    // the asynchronous operation.
+    deferredContent.toResponse(asyncContext::start)
+        .whenComplete((odataResponse, error) -> {
+          if (responded.compareAndSet(false, true)) {
+            writeResponse(
+                request,
+                response,
+                service,
+                odataResponse,
+                (error == null) ? null : toServerError(error));
+            recordResponseSize(requestMetrics, response);
+            asyncContext.complete();
+          }
+        });
   }
 }
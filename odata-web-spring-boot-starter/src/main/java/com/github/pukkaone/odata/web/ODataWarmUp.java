@@ -0,0 +1,150 @@
+package com.github.pukkaone.odata.web;
+
+import com.github.pukkaone.odata.web.provider.CsdlEdmProviderResolver;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Builds the metadata of configured services in parallel at application startup, so the first
+ * requests after a deploy do not wait for Entity Data Models to be built. The application
+ * refuses traffic while the warm-up runs, and accepts traffic once the warm-up finishes or times
+ * out.
+ */
+@Slf4j
+public class ODataWarmUp implements ApplicationRunner {
+
+  private final ODataServlet servlet;
+  private final List<CsdlEdmProviderResolver> edmProviderResolvers;
+  private final List<String> patterns;
+  private final int threads;
+  private final Duration timeout;
+  private final ApplicationEventPublisher eventPublisher;
+  private final Set<String> startedServiceNames = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger warmedUpCount = new AtomicInteger();
+
+  /**
+   * Constructor.
+   *
+   * @param servlet
+   *     OData servlet caching service metadata
+   * @param edmProviderResolvers
+   *     Entity Data Model provider resolvers
+   * @param patterns
+   *     service names, or patterns where {@code *} matches any characters
+   * @param threads
+   *     number of services to warm up concurrently
+   * @param timeout
+   *     maximum time to wait for the warm-up before accepting traffic
+   * @param eventPublisher
+   *     publishes application availability changes
+   */
+  public ODataWarmUp(
+      ODataServlet servlet,
+      List<CsdlEdmProviderResolver> edmProviderResolvers,
+      List<String> patterns,
+      int threads,
+      Duration timeout,
+      ApplicationEventPublisher eventPublisher) {
+
+    this.servlet = servlet;
+    this.edmProviderResolvers = edmProviderResolvers;
+    this.patterns = patterns;
+    this.threads = threads;
+    this.timeout = timeout;
+    this.eventPublisher = eventPublisher;
+  }
+
+  private Collection<String> findServiceNames(String pattern) {
+    Set<String> serviceNames = new LinkedHashSet<>();
+    for (CsdlEdmProviderResolver resolver : edmProviderResolvers) {
+      serviceNames.addAll(resolver.findServiceNames(pattern));
+    }
+
+    return serviceNames;
+  }
+
+  private void warmUp(String serviceName) {
+    if (servlet.warmUp(serviceName)) {
+      warmedUpCount.incrementAndGet();
+    } else {
+      log.warn("Warm-up service {} not found", serviceName);
+    }
+  }
+
+  private CompletableFuture<Void> warmUpService(String serviceName, ExecutorService executor) {
+    if (!startedServiceNames.add(serviceName)) {
+      // Another pattern matched the service.
+      return CompletableFuture.completedFuture(null);
+    }
+
+    return CompletableFuture.runAsync(() -> warmUp(serviceName), executor)
+        .exceptionally(error -> {
+          log.warn("Cannot warm up service {}", serviceName, error);
+          return null;
+        });
+  }
+
+  private CompletableFuture<Void> warmUpPattern(String pattern, ExecutorService executor) {
+    return CompletableFuture.supplyAsync(() -> findServiceNames(pattern), executor)
+        .thenCompose(serviceNames -> CompletableFuture.allOf(serviceNames.stream()
+            .map(serviceName -> warmUpService(serviceName, executor))
+            .toArray(CompletableFuture[]::new)))
+        .exceptionally(error -> {
+          log.warn("Cannot find services matching {}", pattern, error);
+          return null;
+        });
+  }
+
+  @Override
+  public void run(ApplicationArguments args) {
+    if (patterns.isEmpty()) {
+      return;
+    }
+
+    AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+
+    long startNanos = System.nanoTime();
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("odata-warm-up-");
+    threadFactory.setDaemon(true);
+    ExecutorService executor = Executors.newFixedThreadPool(threads, threadFactory);
+    try {
+      CompletableFuture.allOf(patterns.stream()
+          .map(pattern -> warmUpPattern(pattern, executor))
+          .toArray(CompletableFuture[]::new))
+          .get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      log.warn("Cannot warm up services", e);
+    } catch (TimeoutException e) {
+      log.warn("Warm-up did not finish within {}, services not warmed up load lazily", timeout);
+    } catch (InterruptedException e) {
+      log.warn("Interrupted waiting for warm-up to complete", e);
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdownNow();
+    }
+
+    log.info(
+        "Warmed up {} services in {} ms",
+        warmedUpCount.get(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.ACCEPTING_TRAFFIC);
+  }
+}
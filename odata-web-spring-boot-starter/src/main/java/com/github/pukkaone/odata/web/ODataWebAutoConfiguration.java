@@ -1,13 +1,18 @@
 package com.github.pukkaone.odata.web;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.pukkaone.odata.web.metrics.ODataMetrics;
 import com.github.pukkaone.odata.web.processor.DebugErrorProcessor;
 import com.github.pukkaone.odata.web.provider.CsdlEdmProviderResolver;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
 import org.apache.olingo.server.api.processor.Processor;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -24,15 +29,41 @@ public class ODataWebAutoConfiguration {
   }
 
   @Bean
-  public ServletRegistrationBean odataServletRegistration(
+  public ServletRegistrationBean<ODataServlet> odataServletRegistration(
       @Value("${odata.web.service-parent-path:/odata}") String serviceParentPath,
+      @Value("${odata.web.service-cache-size:1000}") int serviceCacheSize,
+      @Value("${odata.web.async-timeout:30s}") Duration asyncTimeout,
       List<CsdlEdmProviderResolver> edmProviderResolvers,
-      List<Processor> processors) {
+      List<Processor> processors,
+      ObjectProvider<ODataMetrics> metrics) {
 
     String parentPath = (serviceParentPath.endsWith("/"))
         ? serviceParentPath : serviceParentPath + '/';
 
-    ODataServlet servlet = new ODataServlet(edmProviderResolvers, processors);
-    return new ServletRegistrationBean(servlet, parentPath + '*');
+    ODataServlet servlet = new ODataServlet(
+        edmProviderResolvers,
+        processors,
+        serviceCacheSize,
+        asyncTimeout,
+        metrics.getIfAvailable(() -> ODataMetrics.NONE));
+    return new ServletRegistrationBean<>(servlet, parentPath + '*');
+  }
+
+  @Bean
+  public ODataWarmUp odataWarmUp(
+      @Value("${odata.web.warm-up.services:}") String[] services,
+      @Value("${odata.web.warm-up.threads:4}") int threads,
+      @Value("${odata.web.warm-up.timeout:5m}") Duration timeout,
+      ServletRegistrationBean<ODataServlet> odataServletRegistration,
+      List<CsdlEdmProviderResolver> edmProviderResolvers,
+      ApplicationEventPublisher eventPublisher) {
+
+    return new ODataWarmUp(
+        odataServletRegistration.getServlet(),
+        edmProviderResolvers,
+        Arrays.asList(services),
+        threads,
+        timeout,
+        eventPublisher);
   }
 }
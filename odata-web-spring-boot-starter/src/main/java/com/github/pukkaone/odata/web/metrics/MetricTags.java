@@ -0,0 +1,17 @@
+package com.github.pukkaone.odata.web.metrics;
+
+import lombok.Value;
+
+/**
+ * Identifies what a measurement is for.
+ */
+@Value
+public class MetricTags {
+
+  /** Tag value when the request does not address an entity set. */
+  public static final String NONE = "none";
+
+  String serviceName;
+  String entitySetName;
+  String operation;
+}
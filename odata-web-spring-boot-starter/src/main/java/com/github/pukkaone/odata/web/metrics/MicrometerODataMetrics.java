@@ -0,0 +1,60 @@
+package com.github.pukkaone.odata.web.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import java.util.concurrent.TimeUnit;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Records measurements to a Micrometer meter registry.
+ */
+@RequiredArgsConstructor
+public class MicrometerODataMetrics implements ODataMetrics {
+
+  /** Tag key for service name. */
+  public static final String SERVICE_TAG = "service";
+
+  /** Tag key for entity set name. */
+  public static final String ENTITY_SET_TAG = "entity.set";
+
+  /** Tag key for operation name. */
+  public static final String OPERATION_TAG = "operation";
+
+  private final MeterRegistry meterRegistry;
+
+  private static Tags toTags(MetricTags tags) {
+    return Tags.of(
+        SERVICE_TAG, tags.getServiceName(),
+        ENTITY_SET_TAG, tags.getEntitySetName(),
+        OPERATION_TAG, tags.getOperation());
+  }
+
+  @Override
+  public void recordTime(String name, MetricTags tags, long durationNanos) {
+    Timer.builder(name)
+        .tags(toTags(tags))
+        .register(meterRegistry)
+        .record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void recordSize(String name, MetricTags tags, long bytes) {
+    DistributionSummary.builder(name)
+        .baseUnit(BaseUnits.BYTES)
+        .tags(toTags(tags))
+        .register(meterRegistry)
+        .record(bytes);
+  }
+
+  @Override
+  public void increment(String name, MetricTags tags, String tagKey, String tagValue) {
+    Counter.builder(name)
+        .tags(toTags(tags).and(tagKey, tagValue))
+        .register(meterRegistry)
+        .increment();
+  }
+}
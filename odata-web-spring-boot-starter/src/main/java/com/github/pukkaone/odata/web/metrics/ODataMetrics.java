@@ -0,0 +1,69 @@
+package com.github.pukkaone.odata.web.metrics;
+
+/**
+ * Records measurements of OData request processing stages.
+ */
+public interface ODataMetrics {
+
+  /** Time to resolve the Entity Data Model provider and service metadata. */
+  String SCHEMA_RESOLUTION = "odata.schema.resolution";
+
+  /** Time to serialize the response content. */
+  String SERIALIZATION = "odata.serialization";
+
+  /** Number of bytes written to the response body. */
+  String RESPONSE_SIZE = "odata.response.size";
+
+  /** Records nothing. */
+  ODataMetrics NONE = new ODataMetrics() {
+    @Override
+    public void recordTime(String name, MetricTags tags, long durationNanos) {
+    }
+
+    @Override
+    public void recordSize(String name, MetricTags tags, long bytes) {
+    }
+
+    @Override
+    public void increment(String name, MetricTags tags, String tagKey, String tagValue) {
+    }
+  };
+
+  /**
+   * Records duration.
+   *
+   * @param name
+   *     meter name
+   * @param tags
+   *     identifies service, entity set and operation
+   * @param durationNanos
+   *     duration in nanoseconds
+   */
+  void recordTime(String name, MetricTags tags, long durationNanos);
+
+  /**
+   * Records size.
+   *
+   * @param name
+   *     meter name
+   * @param tags
+   *     identifies service, entity set and operation
+   * @param bytes
+   *     number of bytes
+   */
+  void recordSize(String name, MetricTags tags, long bytes);
+
+  /**
+   * Increments count.
+   *
+   * @param name
+   *     meter name
+   * @param tags
+   *     identifies service, entity set and operation
+   * @param tagKey
+   *     additional tag key
+   * @param tagValue
+   *     additional tag value
+   */
+  void increment(String name, MetricTags tags, String tagKey, String tagValue);
+}
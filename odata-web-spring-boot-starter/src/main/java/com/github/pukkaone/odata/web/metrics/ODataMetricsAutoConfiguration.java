@@ -0,0 +1,31 @@
+package com.github.pukkaone.odata.web.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Auto-configures recording OData request measurements when a Micrometer meter registry exists.
+ */
+@AutoConfigureAfter(name = {
+    "org.springframework.boot.actuate.autoconfigure.metrics.MetricsAutoConfiguration",
+    "org.springframework.boot.actuate.autoconfigure.metrics."
+        + "CompositeMeterRegistryAutoConfiguration",
+    "org.springframework.boot.actuate.autoconfigure.metrics.export.simple."
+        + "SimpleMetricsExportAutoConfiguration",
+})
+@ConditionalOnBean(MeterRegistry.class)
+@ConditionalOnClass(MeterRegistry.class)
+@Configuration
+public class ODataMetricsAutoConfiguration {
+
+  @Bean
+  @ConditionalOnMissingBean
+  public ODataMetrics odataMetrics(MeterRegistry meterRegistry) {
+    return new MicrometerODataMetrics(meterRegistry);
+  }
+}
@@ -0,0 +1,56 @@
+package com.github.pukkaone.odata.web.metrics;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Records measurements of an operation on an entity set.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+public class OperationMetrics {
+
+  /** Records nothing. */
+  public static final OperationMetrics NONE = new OperationMetrics(
+      ODataMetrics.NONE, new MetricTags(MetricTags.NONE, MetricTags.NONE, MetricTags.NONE));
+
+  private final ODataMetrics metrics;
+  private final MetricTags tags;
+
+  /**
+   * Records time elapsed since start time.
+   *
+   * @param name
+   *     meter name
+   * @param startNanos
+   *     start time from {@link System#nanoTime()}
+   */
+  public void recordSince(String name, long startNanos) {
+    metrics.recordTime(name, tags, System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Records duration.
+   *
+   * @param name
+   *     meter name
+   * @param durationNanos
+   *     duration in nanoseconds
+   */
+  public void recordTime(String name, long durationNanos) {
+    metrics.recordTime(name, tags, durationNanos);
+  }
+
+  /**
+   * Increments count.
+   *
+   * @param name
+   *     meter name
+   * @param tagKey
+   *     additional tag key
+   * @param tagValue
+   *     additional tag value
+   */
+  public void increment(String name, String tagKey, String tagValue) {
+    metrics.increment(name, tags, tagKey, tagValue);
+  }
+}
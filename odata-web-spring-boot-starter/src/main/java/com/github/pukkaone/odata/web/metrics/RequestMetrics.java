@@ -0,0 +1,106 @@
+package com.github.pukkaone.odata.web.metrics;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Records measurements of an OData request. The servlet binds an instance to the request thread
+ * while Olingo dispatches the request, so processors can find it without changing the processor
+ * interfaces.
+ */
+@RequiredArgsConstructor
+public class RequestMetrics {
+
+  private static final ThreadLocal<RequestMetrics> CURRENT = new ThreadLocal<>();
+  private static final RequestMetrics NONE = new RequestMetrics(ODataMetrics.NONE, MetricTags.NONE);
+
+  private final ODataMetrics metrics;
+  private final String serviceName;
+
+  // Tags of the first operation, which also identify the request as a whole.
+  private volatile MetricTags requestTags;
+
+  /**
+   * Gets metrics of the request the current thread is processing.
+   *
+   * @return request metrics, which record nothing if the thread is not processing a request
+   */
+  public static RequestMetrics current() {
+    RequestMetrics requestMetrics = CURRENT.get();
+    return (requestMetrics == null) ? NONE : requestMetrics;
+  }
+
+  /**
+   * Binds this instance to the current thread.
+   */
+  public void bind() {
+    CURRENT.set(this);
+  }
+
+  /**
+   * Unbinds request metrics from the current thread.
+   */
+  public static void unbind() {
+    CURRENT.remove();
+  }
+
+  /**
+   * Checks if measurements are recorded, so callers can avoid the cost of measuring otherwise.
+   *
+   * @return true if measurements are recorded
+   */
+  public boolean isEnabled() {
+    return metrics != ODataMetrics.NONE;
+  }
+
+  /**
+   * Gets metrics of an operation in this request. The first operation also identifies the
+   * request in request level measurements.
+   *
+   * @param entitySetName
+   *     entity set name
+   * @param operation
+   *     operation name
+   * @return operation metrics
+   */
+  public OperationMetrics operation(String entitySetName, String operation) {
+    if (!isEnabled()) {
+      return OperationMetrics.NONE;
+    }
+
+    MetricTags tags = new MetricTags(serviceName, entitySetName, operation);
+    if (requestTags == null) {
+      requestTags = tags;
+    }
+
+    return new OperationMetrics(metrics, tags);
+  }
+
+  private MetricTags toRequestTags() {
+    MetricTags tags = requestTags;
+    return (tags == null) ? new MetricTags(serviceName, MetricTags.NONE, MetricTags.NONE) : tags;
+  }
+
+  /**
+   * Records duration of a request level stage.
+   *
+   * @param name
+   *     meter name
+   * @param durationNanos
+   *     duration in nanoseconds
+   */
+  public void recordTime(String name, long durationNanos) {
+    metrics.recordTime(name, toRequestTags(), durationNanos);
+  }
+
+  /**
+   * Records size of a request level result.
+   *
+   * @param name
+   *     meter name
+   * @param bytes
+   *     number of bytes
+   */
+  public void recordSize(String name, long bytes) {
+    metrics.recordSize(name, toRequestTags(), bytes);
+  }
+}
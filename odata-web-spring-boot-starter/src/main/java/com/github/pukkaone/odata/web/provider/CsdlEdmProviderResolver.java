@@ -1,5 +1,7 @@
 package com.github.pukkaone.odata.web.provider;
 
+import java.util.Collection;
+import java.util.Collections;
 import org.apache.olingo.commons.api.edm.provider.CsdlEdmProvider;
 
 /**
@@ -15,4 +17,16 @@ public interface CsdlEdmProviderResolver {
    * @return Entity Data Model provider, or null if not found
    */
   CsdlEdmProvider findByServiceName(String serviceName);
+
+  /**
+   * Finds names of services matching a pattern. The default implementation cannot list
+   * services, so it finds only a service name without wildcards.
+   *
+   * @param pattern
+   *     service name, or pattern where {@code *} matches any characters
+   * @return service names, which may not be found by {@link #findByServiceName(String)}
+   */
+  default Collection<String> findServiceNames(String pattern) {
+    return pattern.contains("*") ? Collections.emptyList() : Collections.singletonList(pattern);
+  }
 }